@@ -0,0 +1,52 @@
+package org.digitalmodular.qoi;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link QOIPrepass} using the Vector API, processing as many pixels at once as the CPU's widest vectors hold.
+ * <p>
+ * Requires {@code --add-modules jdk.incubator.vector}, both to compile and to run.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+final class QOIVectorPrepass extends QOIPrepass {
+	private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+	@Override
+	void prepare(int[] pixels, int offset, int count, int previous, int alpha, int[] info) {
+		if (count == 0) {
+			return;
+		}
+
+		// The first pixel compares with the pixel from before the block, the others with their neighbor in the block
+		int pixel = pixels[offset] | alpha;
+		info[0] = hash(pixel) | (pixel == previous ? SAME_AS_PREVIOUS : 0);
+
+		int i     = 1;
+		int bound = 1 + SPECIES.loopBound(count - 1);
+		for (; i < bound; i += SPECIES.length()) {
+			IntVector v    = IntVector.fromArray(SPECIES, pixels, offset + i).or(alpha);
+			IntVector prev = IntVector.fromArray(SPECIES, pixels, offset + i - 1).or(alpha);
+
+			IntVector r = v.lanewise(VectorOperators.LSHR, 16).and(0xFF);
+			IntVector g = v.lanewise(VectorOperators.LSHR, 8).and(0xFF);
+			IntVector b = v.and(0xFF);
+			IntVector a = v.lanewise(VectorOperators.LSHR, 24);
+
+			IntVector hash = r.mul(3).add(g.mul(5)).add(b.mul(7)).add(a.mul(11)).and(0b00111111);
+
+			VectorMask<Integer> same = v.eq(prev);
+			hash.lanewise(VectorOperators.OR, SAME_AS_PREVIOUS, same).intoArray(info, i);
+		}
+
+		for (; i < count; i++) {
+			previous = pixels[offset + i - 1] | alpha;
+			pixel = pixels[offset + i] | alpha;
+			info[i] = hash(pixel) | (pixel == previous ? SAME_AS_PREVIOUS : 0);
+		}
+	}
+}
@@ -0,0 +1,141 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageReadParam;
+
+import org.digitalmodular.qoi.QOIImageReader;
+import org.digitalmodular.qoi.QOIImageReaderSpi;
+import org.digitalmodular.qoi.QOIImageWriter;
+import org.digitalmodular.qoi.QOIImageWriterSpi;
+
+/**
+ * Checks that the steady state of decoding and encoding doesn't allocate: after warming up, repeatedly decoding
+ * into the same destination and encoding into the same output must not allocate a single byte. Every scenario is
+ * measured with {@link com.sun.management.ThreadMXBean#getThreadAllocatedBytes(long)} over many calls, and the
+ * program exits with status 1 when any of them allocates.
+ * <p>
+ * Scenarios that don't apply to the steady state are left out: creating readers and writers, the first call (which
+ * allocates the reusable buffers), and {@link QOIImageReader#getImageTypes(int)}, which has to return a new iterator.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+@SuppressWarnings("UseOfSystemOutOrSystemErr")
+public class QOIAllocationTestMain {
+	private static final int WIDTH      = 64;
+	private static final int HEIGHT     = 48;
+	private static final int WARMUP     = 20000;
+	private static final int ITERATIONS = 1000;
+
+	private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+			(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+	private static int failures = 0;
+
+	@FunctionalInterface
+	private interface Scenario {
+		void run() throws IOException;
+	}
+
+	public static void main(String... args) throws IOException {
+		Random rnd = new Random(0);
+
+		QOIImageReader reader = new QOIImageReader(new QOIImageReaderSpi());
+		QOIImageWriter writer = (QOIImageWriter)new QOIImageWriterSpi().createWriterInstance(null);
+		byte[]         output = new byte[(int)QOIImageWriter.getMaxEncodedSize(WIDTH, HEIGHT, 4)];
+
+		for (int type : new int[]{BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+		                          BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR}) {
+			BufferedImage image    = makeImage(type, rnd);
+			IIOImage      iioImage = new IIOImage(image, null, null);
+			String        name     = getTypeName(type);
+
+			measure("encode " + name, () -> {
+				writer.setOutput(output);
+				writer.write(null, iioImage, null);
+			});
+
+			writer.setOutput(output);
+			writer.write(null, iioImage, null);
+			ByteArrayInputStream in = new ByteArrayInputStream(output, 0, (int)writer.getBytesWritten());
+
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setDestination(new BufferedImage(WIDTH, HEIGHT, type));
+
+			measure("decode " + name, () -> {
+				in.reset();
+				reader.setInput(in, true, true);
+				reader.read(0, param);
+			});
+
+			measure("header " + name, () -> {
+				in.reset();
+				reader.setInput(in, true, true);
+				reader.getWidth(0);
+				reader.getHeight(0);
+				reader.getRawImageType(0);
+			});
+		}
+
+		System.out.println(failures == 0 ? "No allocations" : failures + " scenarios allocate");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	private static void measure(String name, Scenario scenario) throws IOException {
+		for (int i = 0; i < WARMUP; i++) {
+			scenario.run();
+		}
+
+		long threadId = Thread.currentThread().getId();
+
+		// The measurement itself may allocate, so measure it too
+		long before   = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+		long overhead = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId) - before;
+
+		before = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+		for (int i = 0; i < ITERATIONS; i++) {
+			scenario.run();
+		}
+
+		long allocated = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId) - before - overhead;
+		long perCall   = allocated / ITERATIONS;
+
+		System.out.printf("%-28s %6d bytes per call (%d total)%n", name, perCall, allocated);
+		if (allocated > 0) {
+			failures++;
+		}
+	}
+
+	private static BufferedImage makeImage(int type, Random rnd) {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, type);
+
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				int argb = (x & 8) == 0 ? rnd.nextInt() : 0xFF000000 | x * 3 << 16 | y * 5 << 8 | x + y;
+				image.setRGB(x, y, argb);
+			}
+		}
+
+		return image;
+	}
+
+	private static String getTypeName(int type) {
+		switch (type) {
+			case BufferedImage.TYPE_INT_ARGB:
+				return "TYPE_INT_ARGB";
+			case BufferedImage.TYPE_INT_RGB:
+				return "TYPE_INT_RGB";
+			case BufferedImage.TYPE_4BYTE_ABGR:
+				return "TYPE_4BYTE_ABGR";
+			case BufferedImage.TYPE_3BYTE_BGR:
+				return "TYPE_3BYTE_BGR";
+			default:
+				return "type " + type;
+		}
+	}
+}
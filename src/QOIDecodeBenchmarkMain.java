@@ -0,0 +1,187 @@
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.digitalmodular.qoi.QOIImageReader;
+import org.digitalmodular.qoi.QOIImageReaderSpi;
+import org.digitalmodular.qoi.QOIImageWriter;
+import org.digitalmodular.qoi.QOIImageWriterSpi;
+
+/**
+ * Measures decoding speed on images with different mixes of ops: photo-like content (mostly DIFF, LUMA and RGB),
+ * screenshot-like content (mostly RUN and INDEX), and a mix of both in small tiles, which is the hardest for branch
+ * prediction. Each image is decoded into all destination types. QOI or PNG files given as arguments are added to the
+ * synthetic images.
+ * <p>
+ * Each measurement is the best of {@value #ITERATIONS} decodes after {@value #WARMUP} warmup decodes, in one JVM. To
+ * compare two builds, run this alternately against each build several times, and take the best per line of each.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+public class QOIDecodeBenchmarkMain {
+	private static final int WIDTH      = 2048;
+	private static final int HEIGHT     = 1536;
+	private static final int WARMUP     = 15;
+	private static final int ITERATIONS = 25;
+
+	private static final int[] DESTINATION_TYPES = {BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_RGB,
+	                                                BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_3BYTE_BGR};
+
+	public static void main(String... args) throws IOException {
+		Random rnd = new Random(0);
+
+		BufferedImage photo      = makePhoto(rnd);
+		BufferedImage screenshot = makeScreenshot(rnd);
+		BufferedImage mixed      = makeMixed(photo, screenshot);
+
+		benchmark("photo", photo);
+		benchmark("screenshot", screenshot);
+		benchmark("mixed", mixed);
+
+		for (String arg : args) {
+			BufferedImage image = ImageIO.read(new File(arg));
+			if (image == null) {
+				System.out.println(arg + ": unsupported file");
+				continue;
+			}
+
+			benchmark(arg, image);
+		}
+	}
+
+	private static void benchmark(String name, BufferedImage image) throws IOException {
+		QOIImageWriter writer = (QOIImageWriter)new QOIImageWriterSpi().createWriterInstance(null);
+		byte[] data = new byte[(int)QOIImageWriter.getMaxEncodedSize(image.getWidth(), image.getHeight(), 4)];
+		writer.setOutput(data);
+		writer.write(image);
+		int length = (int)writer.getBytesWritten();
+
+		boolean hasAlpha = image.getColorModel().hasAlpha();
+		System.out.printf("%s: %dx%d, %d bytes (%.2f bytes per pixel)%n",
+		                  name, image.getWidth(), image.getHeight(), length,
+		                  length / (double)(image.getWidth() * image.getHeight()));
+
+		QOIImageReader reader = new QOIImageReader(new QOIImageReaderSpi());
+		ImageReadParam param  = reader.getDefaultReadParam();
+
+		for (int type : DESTINATION_TYPES) {
+			boolean typeHasAlpha = type == BufferedImage.TYPE_INT_ARGB || type == BufferedImage.TYPE_4BYTE_ABGR;
+			if (typeHasAlpha != hasAlpha) {
+				continue;
+			}
+
+			param.setDestination(new BufferedImage(image.getWidth(), image.getHeight(), type));
+
+			long best = Long.MAX_VALUE;
+			for (int i = 0; i < WARMUP + ITERATIONS; i++) {
+				long start = System.nanoTime();
+				try (ImageInputStream in = new MemoryCacheImageInputStream(
+						new ByteArrayInputStream(data, 0, length))) {
+					reader.setInput(in, true, true);
+					reader.read(0, param);
+				}
+
+				if (i >= WARMUP) {
+					best = Math.min(best, System.nanoTime() - start);
+				}
+			}
+
+			System.out.printf("  %-16s %7.2f ms  %7.1f MP/s%n", getTypeName(type), best / 1.0e6,
+			                  image.getWidth() * (double)image.getHeight() / (best / 1.0e3));
+		}
+
+		reader.dispose();
+	}
+
+	/** Smooth gradients with noise */
+	private static BufferedImage makePhoto(Random rnd) {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				int r = noise(x * 255 / WIDTH, 4, rnd);
+				int g = noise(y * 255 / HEIGHT, 2, rnd);
+				int b = noise(128 + (int)(64 * Math.sin(x * 0.01 + y * 0.02)), 6, rnd);
+				image.setRGB(x, y, r << 16 | g << 8 | b);
+			}
+		}
+
+		return image;
+	}
+
+	/** Flat areas, a few colors, and text */
+	private static BufferedImage makeScreenshot(Random rnd) {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+		Color[]       colors = new Color[12];
+		for (int i = 0; i < colors.length; i++) {
+			colors[i] = new Color(rnd.nextInt(0xFFFFFF));
+		}
+
+		Graphics2D g = image.createGraphics();
+		try {
+			g.setColor(Color.WHITE);
+			g.fillRect(0, 0, WIDTH, HEIGHT);
+
+			for (int i = 0; i < 200; i++) {
+				g.setColor(colors[rnd.nextInt(colors.length)]);
+				g.fillRect(rnd.nextInt(WIDTH), rnd.nextInt(HEIGHT), rnd.nextInt(400), rnd.nextInt(200));
+			}
+
+			g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 13));
+			for (int y = 20; y < HEIGHT; y += 18) {
+				g.setColor(colors[rnd.nextInt(colors.length)]);
+				g.drawString("The quick brown fox jumps over the lazy dog 0123456789 " + rnd.nextLong(), 10, y);
+				g.drawString("Sphinx of black quartz, judge my vow! " + rnd.nextLong(), WIDTH / 2, y);
+			}
+		} finally {
+			g.dispose();
+		}
+
+		return image;
+	}
+
+	/** Alternating tiles of the other two, with a varying alpha channel */
+	private static BufferedImage makeMixed(BufferedImage photo, BufferedImage screenshot) {
+		BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+
+		for (int y = 0; y < HEIGHT; y++) {
+			for (int x = 0; x < WIDTH; x++) {
+				boolean fromPhoto = ((x >> 4) + (y >> 4) & 1) == 0;
+				int     rgb       = fromPhoto ? photo.getRGB(x, y) : screenshot.getRGB(x, y);
+				int     alpha     = x < WIDTH / 2 ? 255 : (x + y) & 0xFF;
+				image.setRGB(x, y, alpha << 24 | rgb & 0xFFFFFF);
+			}
+		}
+
+		return image;
+	}
+
+	private static int noise(int value, int amplitude, Random rnd) {
+		return Math.max(0, Math.min(255, value + rnd.nextInt(amplitude * 2 + 1) - amplitude));
+	}
+
+	private static String getTypeName(int type) {
+		switch (type) {
+			case BufferedImage.TYPE_INT_ARGB:
+				return "TYPE_INT_ARGB";
+			case BufferedImage.TYPE_INT_RGB:
+				return "TYPE_INT_RGB";
+			case BufferedImage.TYPE_4BYTE_ABGR:
+				return "TYPE_4BYTE_ABGR";
+			case BufferedImage.TYPE_3BYTE_BGR:
+				return "TYPE_3BYTE_BGR";
+			default:
+				return "type " + type;
+		}
+	}
+}
@@ -0,0 +1,489 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Stream;
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.digitalmodular.qoi.QOIImageReader;
+import org.digitalmodular.qoi.QOIImageReaderSpi;
+import org.digitalmodular.qoi.QOIImageWriteParam;
+import org.digitalmodular.qoi.QOIImageWriter;
+import org.digitalmodular.qoi.QOIImageWriterSpi;
+
+/**
+ * Fuzzes the reader with mutated QOI files, and the writer with round-trips of random images.
+ * <p>
+ * The reader must either decode an input or throw an {@link IIOException}; any other exception is a bug. Inputs that
+ * decode must decode to the same pixels from every input type and into every destination type. Written images must
+ * decode to the same pixels, and re-encoding those must give the same bytes.
+ * <p>
+ * The mutator is guided by outcomes rather than code coverage: a mutated input that makes the reader behave in a way
+ * not seen before (a different exception message, image shape, or number of images) joins the corpus, so later
+ * mutations build on it. The corpus starts with generated seeds covering all ops and containers, plus the files in the
+ * directory given as the third argument, if any. Failing inputs are saved to the working directory.
+ * <p>
+ * Usage: {@code QOIFuzzTestMain [seconds [randomSeed [corpusDirectory]]]}. Runs are repeatable with the same random
+ * seed, which is printed at the start. Exits with status 1 when anything failed.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+@SuppressWarnings("UseOfSystemOutOrSystemErr")
+public class QOIFuzzTestMain {
+	/** Keeps mutated headers from making the reader allocate huge images */
+	private static final int MAX_PIXELS = 1 << 18;
+	private static final int MAX_CORPUS = 4096;
+
+	private static final int[] INTERESTING_BYTES = {0x00, 0x01, 0x3F, 0x40, 0x7F, 0x80, 0xBF, 0xC0, 0xFD, 0xFE, 0xFF};
+	private static final int[] INTERESTING_INTS  = {0, 1, 2, 3, 4, 62, 63, 64, 255, 256, 65535, 65536, 0x7FFFFFFF,
+	                                                0x80000000, 0xFFFFFFFF, MAX_PIXELS, MAX_PIXELS + 1};
+
+	private final Random         rnd;
+	private final QOIImageReader reader = new QOIImageReader(new QOIImageReaderSpi());
+	private final QOIImageWriter writer = (QOIImageWriter)new QOIImageWriterSpi().createWriterInstance(null);
+
+	private final List<byte[]> corpus   = new ArrayList<>();
+	private final Set<String>  outcomes = new HashSet<>();
+
+	private long decodes    = 0;
+	private long roundTrips = 0;
+	private int  failures   = 0;
+
+	public static void main(String... args) throws IOException {
+		int  seconds = args.length > 0 ? Integer.parseInt(args[0]) : 60;
+		long seed    = args.length > 1 ? Long.parseLong(args[1]) : System.nanoTime();
+
+		QOIFuzzTestMain fuzzer = new QOIFuzzTestMain(seed);
+		fuzzer.addSeeds();
+		if (args.length > 2) {
+			fuzzer.addCorpusDirectory(Paths.get(args[2]));
+		}
+
+		System.out.println("Seed " + seed + ", " + fuzzer.corpus.size() + " corpus entries, " + seconds + " seconds");
+		fuzzer.run(seconds * 1_000_000_000L);
+
+		System.out.println(fuzzer.decodes + " decodes, " + fuzzer.roundTrips + " round-trips, " +
+		                   fuzzer.corpus.size() + " corpus entries, " + fuzzer.outcomes.size() + " outcomes, " +
+		                   fuzzer.failures + " failures");
+		if (fuzzer.failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	public QOIFuzzTestMain(long seed) {
+		rnd = new Random(seed);
+		reader.setMaxPixels(MAX_PIXELS);
+	}
+
+	private void run(long nanos) throws IOException {
+		long end = System.nanoTime() + nanos;
+		while (System.nanoTime() < end) {
+			if (rnd.nextInt(8) == 0) {
+				roundTrip();
+			} else {
+				byte[] input = mutate(corpus.get(rnd.nextInt(corpus.size())));
+				String outcome = decode(input);
+				if (outcome != null && outcomes.add(outcome) && corpus.size() < MAX_CORPUS) {
+					corpus.add(input);
+				}
+			}
+		}
+	}
+
+	// ---- Seeds
+
+	private void addSeeds() throws IOException {
+		// One image per op, to give the mutator every op to start from
+		addSeed(makeImage(1, 1, false, 0), null);
+		addSeed(makeImage(8, 1, false, 1), null); // Runs
+		addSeed(makeImage(16, 4, false, 2), null); // Small differences: DIFF and LUMA
+		addSeed(makeImage(16, 4, true, 3), null); // Alpha: RGBA
+		addSeed(makeImage(16, 16, false, 4), null); // Palette: INDEX
+		addSeed(makeImage(70, 3, true, 5), null); // Noise: RGB and RGBA
+		addSeed(makeImage(200, 1, false, 1), null); // Runs longer than 62
+
+		// Compressed
+		QOIImageWriteParam param = (QOIImageWriteParam)writer.getDefaultWriteParam();
+		param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+		addSeed(makeImage(16, 16, true, 6), param);
+
+		// Sequences, plain and delta
+		for (int keyframeInterval : new int[]{0, 2}) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			try (MemoryCacheImageOutputStream stream = new MemoryCacheImageOutputStream(out)) {
+				writer.setKeyframeInterval(keyframeInterval);
+				writer.setOutput(stream);
+				writer.prepareWriteSequence(null);
+				for (int i = 0; i < 3; i++) {
+					// Delta sequences need the same channels in every image
+					boolean alpha = keyframeInterval == 0 && i == 0;
+					writer.writeToSequence(new IIOImage(makeImage(12, 5, alpha, 6), null, null), null);
+				}
+				writer.endWriteSequence();
+			}
+
+			writer.setKeyframeInterval(0);
+			corpus.add(out.toByteArray());
+		}
+
+		for (byte[] input : corpus) {
+			outcomes.add(decode(input));
+		}
+	}
+
+	private void addSeed(BufferedImage image, ImageWriteParam param) throws IOException {
+		byte[] out = new byte[(int)QOIImageWriter.getMaxEncodedSize(image.getWidth(), image.getHeight(), 4) + 64];
+		writer.setOutput(out);
+		writer.write(null, new IIOImage(image, null, null), param);
+		corpus.add(Arrays.copyOf(out, (int)writer.getBytesWritten()));
+	}
+
+	private void addCorpusDirectory(Path directory) throws IOException {
+		try (Stream<Path> files = Files.list(directory)) {
+			for (Path file : (Iterable<Path>)files::iterator) {
+				if (Files.isRegularFile(file)) {
+					byte[] input = Files.readAllBytes(file);
+					corpus.add(input);
+					outcomes.add(decode(input));
+				}
+			}
+		}
+	}
+
+	// ---- Mutator
+
+	private byte[] mutate(byte[] input) {
+		byte[] data = input;
+
+		int numMutations = 1 + rnd.nextInt(4);
+		for (int i = 0; i < numMutations; i++) {
+			data = mutateOnce(data);
+		}
+
+		return data;
+	}
+
+	private byte[] mutateOnce(byte[] data) {
+		int length = data.length;
+		int pos    = length == 0 ? 0 : rnd.nextInt(length);
+
+		switch (rnd.nextInt(10)) {
+			case 0: // Flip a bit
+				data = data.clone();
+				if (length > 0) {
+					data[pos] ^= 1 << rnd.nextInt(8);
+				}
+				return data;
+			case 1: // Random byte
+				data = data.clone();
+				if (length > 0) {
+					data[pos] = (byte)rnd.nextInt();
+				}
+				return data;
+			case 2: // Interesting byte, like op tags
+				data = data.clone();
+				if (length > 0) {
+					data[pos] = (byte)INTERESTING_BYTES[rnd.nextInt(INTERESTING_BYTES.length)];
+				}
+				return data;
+			case 3: { // Interesting int, mostly at the header fields or the end (sequence index)
+				data = data.clone();
+				int[] places = {4, 8, length - 4, length - 8, length - 12, pos};
+				int   place  = places[rnd.nextInt(places.length)];
+				if (place >= 0 && place + 4 <= length) {
+					int value = INTERESTING_INTS[rnd.nextInt(INTERESTING_INTS.length)];
+					data[place] = (byte)(value >> 24);
+					data[place + 1] = (byte)(value >> 16);
+					data[place + 2] = (byte)(value >> 8);
+					data[place + 3] = (byte)value;
+				}
+				return data;
+			}
+			case 4: // Truncate
+				return Arrays.copyOf(data, pos);
+			case 5: { // Delete a range
+				int count = Math.min(length - pos, 1 + rnd.nextInt(16));
+				byte[] result = new byte[length - count];
+				System.arraycopy(data, 0, result, 0, pos);
+				System.arraycopy(data, pos + count, result, pos, length - pos - count);
+				return result;
+			}
+			case 6: { // Insert random bytes
+				int    count  = 1 + rnd.nextInt(16);
+				byte[] result = new byte[length + count];
+				System.arraycopy(data, 0, result, 0, pos);
+				for (int i = 0; i < count; i++) {
+					result[pos + i] = (byte)rnd.nextInt();
+				}
+				System.arraycopy(data, pos, result, pos + count, length - pos);
+				return result;
+			}
+			case 7: { // Duplicate a range, e.g. repeat ops
+				int    count  = Math.min(length - pos, 1 + rnd.nextInt(64));
+				int    times  = 1 + rnd.nextInt(8);
+				byte[] result = new byte[length + count * times];
+				System.arraycopy(data, 0, result, 0, pos + count);
+				for (int i = 0; i < times; i++) {
+					System.arraycopy(data, pos, result, pos + count * (i + 1), count);
+				}
+				System.arraycopy(data, pos + count, result, pos + count * (times + 1), length - pos - count);
+				return result;
+			}
+			case 8: { // Splice with another corpus entry
+				byte[] other = corpus.get(rnd.nextInt(corpus.size()));
+				int    from  = other.length == 0 ? 0 : rnd.nextInt(other.length);
+				byte[] result = Arrays.copyOf(data, pos + other.length - from);
+				System.arraycopy(other, from, result, pos, other.length - from);
+				return result;
+			}
+			default: { // Fill a range with one byte, e.g. a long stream of one op
+				data = data.clone();
+				int  count = Math.min(length - pos, 1 + rnd.nextInt(256));
+				byte value = (byte)INTERESTING_BYTES[rnd.nextInt(INTERESTING_BYTES.length)];
+				Arrays.fill(data, pos, pos + count, value);
+				return data;
+			}
+		}
+	}
+
+	// ---- Decoding
+
+	/**
+	 * Decodes all images of the input in different ways, and checks that they agree.
+	 *
+	 * @return a description of the reader's behavior, or {@code null} after a failure.
+	 */
+	private String decode(byte[] input) {
+		decodes++;
+
+		String          outcome;
+		BufferedImage[] reference;
+		try {
+			reader.setStrict(false);
+			reader.setInput(new MemoryCacheImageInputStream(new ByteArrayInputStream(input)));
+			int numImages = reader.getNumImages(true);
+			reference = new BufferedImage[numImages];
+			StringBuilder description = new StringBuilder().append(numImages);
+			for (int i = 0; i < numImages; i++) {
+				reference[i] = reader.read(i);
+				// Sizes by order of magnitude, or every size would be a new outcome
+				description.append(' ').append(Integer.highestOneBit(reference[i].getWidth())).append('x')
+				           .append(Integer.highestOneBit(reference[i].getHeight())).append('x')
+				           .append(reference[i].getType());
+			}
+
+			outcome = description.toString();
+		} catch (IIOException ex) {
+			return describe(ex);
+		} catch (Throwable ex) {
+			fail("read", input, ex);
+			return null;
+		}
+
+		// The first image must decode the same from a stream, in strict mode, and into the other destination type
+		try {
+			reader.setInput(new ByteArrayInputStream(input));
+			checkSame("stream", input, reference[0], reader.read(0));
+
+			BufferedImage destination = new BufferedImage(reference[0].getWidth(), reference[0].getHeight(),
+			                                              getOtherType(reference[0].getType()));
+			ImageReadParam param = reader.getDefaultReadParam();
+			param.setDestination(destination);
+			reader.setInput(Channels.newChannel(new ByteArrayInputStream(input)));
+			checkSame("destination", input, reference[0], reader.read(0, param));
+		} catch (Throwable ex) {
+			fail("second read", input, ex);
+		}
+
+		try {
+			reader.setStrict(true);
+			reader.setInput(new ByteArrayInputStream(input));
+			checkSame("strict", input, reference[0], reader.read(0));
+		} catch (IIOException ignored) {
+			// Truncated, which is fine in strict mode
+		} catch (Throwable ex) {
+			fail("strict read", input, ex);
+		}
+
+		return outcome;
+	}
+
+	private static String describe(IIOException ex) {
+		// Numbers in messages are mostly sizes, which would make every input a new outcome
+		String message = String.valueOf(ex.getMessage()).replaceAll("-?[0-9a-f]{2,}", "#");
+		return ex.getClass().getSimpleName() + ": " + message +
+		       (ex.getCause() == null ? "" : " / " + ex.getCause().getClass().getSimpleName());
+	}
+
+	private static int getOtherType(int type) {
+		switch (type) {
+			case BufferedImage.TYPE_INT_RGB:
+				return BufferedImage.TYPE_3BYTE_BGR;
+			case BufferedImage.TYPE_3BYTE_BGR:
+				return BufferedImage.TYPE_INT_RGB;
+			case BufferedImage.TYPE_INT_ARGB:
+				return BufferedImage.TYPE_4BYTE_ABGR;
+			default:
+				return BufferedImage.TYPE_INT_ARGB;
+		}
+	}
+
+	private void checkSame(String what, byte[] input, BufferedImage expected, BufferedImage actual) {
+		if (!samePixels(expected, actual)) {
+			fail(what + " differs", input, null);
+		}
+	}
+
+	// ---- Round-trips
+
+	private void roundTrip() throws IOException {
+		roundTrips++;
+
+		int width  = 1 + rnd.nextInt(rnd.nextBoolean() ? 8 : 300);
+		int height = 1 + rnd.nextInt(rnd.nextBoolean() ? 8 : 100);
+
+		BufferedImage image = makeImage(width, height, rnd.nextBoolean(), rnd.nextInt(7));
+		int[]         types = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR,
+		                       BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_BGR};
+		BufferedImage source = copyImage(image, types[rnd.nextInt(types.length)]);
+
+		QOIImageWriteParam param = (QOIImageWriteParam)writer.getDefaultWriteParam();
+		if (rnd.nextInt(4) == 0) {
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setCompressionQuality(rnd.nextFloat());
+		}
+
+		byte[] encoded;
+		try {
+			encoded = encode(source, param);
+		} catch (Throwable ex) {
+			fail("write", new byte[0], ex);
+			return;
+		}
+
+		try {
+			reader.setStrict(true);
+			reader.setInput(new ByteArrayInputStream(encoded));
+			BufferedImage decoded = reader.read(0);
+			if (!samePixels(source, decoded)) {
+				fail("round-trip differs", encoded, null);
+			} else if (!Arrays.equals(encoded, encode(decoded, param))) {
+				fail("re-encoding differs", encoded, null);
+			}
+		} catch (Throwable ex) {
+			fail("round-trip read", encoded, ex);
+		}
+	}
+
+	private byte[] encode(BufferedImage image, ImageWriteParam param) throws IOException {
+		byte[] out = new byte[(int)QOIImageWriter.getMaxEncodedSize(image.getWidth(), image.getHeight(), 4) + 64];
+		writer.setOutput(out);
+		writer.write(null, new IIOImage(image, null, null), param);
+		return Arrays.copyOf(out, (int)writer.getBytesWritten());
+	}
+
+	private static BufferedImage copyImage(BufferedImage image, int type) {
+		BufferedImage copy = new BufferedImage(image.getWidth(), image.getHeight(), type);
+		for (int y = 0; y < image.getHeight(); y++) {
+			for (int x = 0; x < image.getWidth(); x++) {
+				copy.setRGB(x, y, image.getRGB(x, y));
+			}
+		}
+
+		return copy;
+	}
+
+	/**
+	 * Makes an image that encodes with a particular mix of ops.
+	 *
+	 * @param style 0: noise, 1: runs, 2: gradients, 3: gradients with alpha, 4: few colors, 5: noise with alpha, 6: mix
+	 */
+	private BufferedImage makeImage(int width, int height, boolean alpha, int style) {
+		BufferedImage image   = new BufferedImage(width, height,
+		                                          alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+		int[]         palette = {0xFF000000, 0xFFFFFFFF, 0x80FF0000, 0xFF00FF00, 0x000000FF, 0xFF123456};
+
+		int argb = 0xFF000000;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int kind = style == 6 ? rnd.nextInt(6) : style;
+				switch (kind) {
+					case 1:
+						if (rnd.nextInt(20) == 0) {
+							argb = rnd.nextInt();
+						}
+						break;
+					case 2:
+					case 3:
+						argb += rnd.nextInt(3) - 1 << 16 | rnd.nextInt(33) - 16 << 8 | rnd.nextInt(3) - 1;
+						if (kind == 3 && rnd.nextInt(10) == 0) {
+							argb ^= rnd.nextInt(256) << 24;
+						}
+						break;
+					case 4:
+						argb = palette[rnd.nextInt(palette.length)];
+						break;
+					default:
+						argb = rnd.nextInt();
+				}
+
+				image.setRGB(x, y, alpha ? argb : argb | 0xFF000000);
+			}
+		}
+
+		return image;
+	}
+
+	private static boolean samePixels(BufferedImage a, BufferedImage b) {
+		if (a.getWidth() != b.getWidth() || a.getHeight() != b.getHeight()) {
+			return false;
+		}
+
+		boolean alpha = a.getColorModel().hasAlpha() && b.getColorModel().hasAlpha();
+		for (int y = 0; y < a.getHeight(); y++) {
+			for (int x = 0; x < a.getWidth(); x++) {
+				int pa = a.getRGB(x, y);
+				int pb = b.getRGB(x, y);
+				if (alpha ? pa != pb : ((pa ^ pb) & 0xFFFFFF) != 0) {
+					return false;
+				}
+			}
+		}
+
+		return true;
+	}
+
+	// ---- Reporting
+
+	private void fail(String what, byte[] input, Throwable ex) {
+		failures++;
+
+		String name = "qoi-fuzz-failure-" + failures + ".bin";
+		try {
+			Files.write(Paths.get(name), input);
+		} catch (IOException ignored) {
+			name = "(not saved)";
+		}
+
+		System.out.println("FAIL " + what + ", input " + input.length + " bytes " + name);
+		if (ex != null) {
+			ex.printStackTrace(System.out);
+		}
+	}
+}
@@ -0,0 +1,234 @@
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import javax.imageio.IIOImage;
+
+import org.digitalmodular.qoi.QOICodec;
+import org.digitalmodular.qoi.QOIImageWriteParam;
+import org.digitalmodular.qoi.QOIImageWriter;
+import org.digitalmodular.qoi.QOIImageWriterSpi;
+
+/**
+ * Checks that near-lossless output is standard QOI: every image is encoded with a range of tolerances, then decoded
+ * both by {@link QOICodec} and by a direct port of the reference decoder ({@code qoi_decode()} in {@code qoi.h}),
+ * which is independent of this library. Both must give the same pixels, with every color channel within the
+ * tolerance of the original and alpha exact.
+ * <p>
+ * Besides noisy images, the images include many transparent near-black pixels, as those are within the tolerance of
+ * the empty slots of the color index, and runs of repeated pixels.
+ * <p>
+ * Exits with status 1 when any check fails.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+@SuppressWarnings("UseOfSystemOutOrSystemErr")
+public class QOINearLosslessTestMain {
+	private static final int[] MAX_ERRORS = {0, 1, 2, 3, 4, 8, 32, 255};
+	private static final int[] WIDTHS     = {1, 7, 64, 333};
+	private static final int   IMAGES     = 20;
+
+	/** Hashes to index 0, so a desynchronized reference decoder overwrites it with transparent black */
+	private static final int HASH_ZERO_COLOR = 0xFF00001D;
+
+	private static final QOICodec       CODEC  = new QOICodec();
+	private static final QOIImageWriter WRITER =
+			(QOIImageWriter)new QOIImageWriterSpi().createWriterInstance(null);
+
+	private static int checks   = 0;
+	private static int failures = 0;
+
+	public static void main(String... args) throws IOException {
+		// A transparent near-black pixel between two uses of a color at index 0
+		check("index slot never written", makeImage(5, 1, HASH_ZERO_COLOR, 0xFFC8C8C8, 0x00020100,
+		                                            0xFFC8C8C8, HASH_ZERO_COLOR), 2);
+
+		Random rnd = new Random(0);
+		for (int width : WIDTHS) {
+			for (int i = 0; i < IMAGES; i++) {
+				int           height = 1 + rnd.nextInt(40);
+				BufferedImage image  = makeRandomImage(width, height, (i & 1) != 0, rnd);
+				for (int maxError : MAX_ERRORS) {
+					check("random " + width + 'x' + height + " #" + i, image, maxError);
+				}
+			}
+		}
+
+		System.out.println(checks + " checks, " + failures + " failed");
+		System.out.println(failures == 0 ? "Near-lossless OK" : "Near-lossless FAILED");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	private static void check(String name, BufferedImage image, int maxError) throws IOException {
+		checks++;
+
+		int      width    = image.getWidth();
+		int      height   = image.getHeight();
+		boolean  hasAlpha = image.getColorModel().hasAlpha();
+		byte[]   data     = encode(image, maxError);
+		int[]    original = image.getRGB(0, 0, width, height, null, 0, width);
+		int[]    expected = referenceDecode(data);
+		int[]    actual   = CODEC.decode(data).getRGB(0, 0, width, height, null, 0, width);
+		String   problem  = null;
+
+		if (!Arrays.equals(expected, actual)) {
+			int i = mismatch(expected, actual);
+			problem = String.format("pixel %d: reference decoder %08X, QOICodec %08X", i, expected[i], actual[i]);
+		} else {
+			for (int i = 0; i < original.length; i++) {
+				int p = original[i];
+				int q = expected[i];
+				if (hasAlpha && (p >>> 24) != (q >>> 24)) {
+					problem = String.format("pixel %d: alpha changed from %08X to %08X", i, p, q);
+					break;
+				}
+
+				int error = Math.max(Math.abs((p >> 16 & 0xFF) - (q >> 16 & 0xFF)),
+				                     Math.max(Math.abs((p >> 8 & 0xFF) - (q >> 8 & 0xFF)),
+				                              Math.abs((p & 0xFF) - (q & 0xFF))));
+				if (error > maxError) {
+					problem = String.format("pixel %d: error %d from %08X to %08X", i, error, p, q);
+					break;
+				}
+			}
+		}
+
+		if (problem != null) {
+			System.out.println("FAIL " + name + ", maxError " + maxError + ": " + problem);
+			failures++;
+		}
+	}
+
+	private static byte[] encode(BufferedImage image, int maxError) throws IOException {
+		QOIImageWriteParam param = (QOIImageWriteParam)WRITER.getDefaultWriteParam();
+		param.setMaxError(maxError);
+
+		int    channels = image.getColorModel().hasAlpha() ? 4 : 3;
+		byte[] output   = new byte[(int)QOIImageWriter.getMaxEncodedSize(image.getWidth(), image.getHeight(),
+		                                                                   channels)];
+		WRITER.setOutput(output);
+		WRITER.write(null, new IIOImage(image, null, null), param);
+		return Arrays.copyOf(output, (int)WRITER.getBytesWritten());
+	}
+
+	/**
+	 * Decodes like {@code qoi_decode()} in the reference implementation: every op except a continued run stores the
+	 * current color in the index, including {@code QOI_OP_INDEX} and the first pixel of {@code QOI_OP_RUN}.
+	 *
+	 * @return the pixels as ARGB.
+	 */
+	@SuppressWarnings({"OverlyComplexMethod", "ValueOfIncrementOrDecrementUsed"})
+	private static int[] referenceDecode(byte[] bytes) {
+		int width  = readInt(bytes, 4);
+		int height = readInt(bytes, 8);
+
+		int[] pixels = new int[width * height];
+		int[] index  = new int[64];
+		int   r      = 0;
+		int   g      = 0;
+		int   b      = 0;
+		int   a      = 255;
+		int   run    = 0;
+		int   p      = 14;
+		int   end    = bytes.length - 8;
+
+		for (int i = 0; i < pixels.length; i++) {
+			if (run > 0) {
+				run--;
+			} else if (p < end) {
+				int b1 = bytes[p++] & 0xFF;
+
+				if (b1 == 0xFE) {
+					r = bytes[p++] & 0xFF;
+					g = bytes[p++] & 0xFF;
+					b = bytes[p++] & 0xFF;
+				} else if (b1 == 0xFF) {
+					r = bytes[p++] & 0xFF;
+					g = bytes[p++] & 0xFF;
+					b = bytes[p++] & 0xFF;
+					a = bytes[p++] & 0xFF;
+				} else if ((b1 & 0xC0) == 0x00) {
+					int argb = index[b1];
+					a = argb >>> 24;
+					r = argb >> 16 & 0xFF;
+					g = argb >> 8 & 0xFF;
+					b = argb & 0xFF;
+				} else if ((b1 & 0xC0) == 0x40) {
+					r = r + (b1 >> 4 & 0x03) - 2 & 0xFF;
+					g = g + (b1 >> 2 & 0x03) - 2 & 0xFF;
+					b = b + (b1 & 0x03) - 2 & 0xFF;
+				} else if ((b1 & 0xC0) == 0x80) {
+					int b2 = bytes[p++] & 0xFF;
+					int vg = (b1 & 0x3F) - 32;
+					r = r + vg - 8 + (b2 >> 4 & 0x0F) & 0xFF;
+					g = g + vg & 0xFF;
+					b = b + vg - 8 + (b2 & 0x0F) & 0xFF;
+				} else {
+					run = b1 & 0x3F;
+				}
+
+				index[(r * 3 + g * 5 + b * 7 + a * 11) % 64] = a << 24 | r << 16 | g << 8 | b;
+			}
+
+			pixels[i] = a << 24 | r << 16 | g << 8 | b;
+		}
+
+		return pixels;
+	}
+
+	private static int readInt(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xFF) << 24 | (bytes[offset + 1] & 0xFF) << 16 |
+		       (bytes[offset + 2] & 0xFF) << 8 | bytes[offset + 3] & 0xFF;
+	}
+
+	private static int mismatch(int[] expected, int[] actual) {
+		for (int i = 0; i < expected.length; i++) {
+			if (expected[i] != actual[i]) {
+				return i;
+			}
+		}
+
+		return expected.length;
+	}
+
+	private static BufferedImage makeImage(int width, int height, int... argb) {
+		BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+		image.setRGB(0, 0, width, height, argb, 0, width);
+		return image;
+	}
+
+	/** Noise around a gradient, with runs, transparent near-black pixels and (optionally) varying alpha */
+	private static BufferedImage makeRandomImage(int width, int height, boolean alpha, Random rnd) {
+		BufferedImage image = new BufferedImage(width, height,
+		                                        alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+
+		int[] pixels = new int[width * height];
+		for (int i = 0; i < pixels.length; i++) {
+			int kind = rnd.nextInt(8);
+			if (kind == 0 && i > 0) {
+				pixels[i] = pixels[i - 1];
+			} else if (kind == 1) {
+				pixels[i] = rnd.nextInt(4) << 16 | rnd.nextInt(4) << 8 | rnd.nextInt(4);
+			} else if (kind == 2) {
+				pixels[i] = rnd.nextInt() & 0xFFFFFF;
+			} else {
+				int base = i * 255 / pixels.length;
+				pixels[i] = noise(base, rnd) << 16 | noise(255 - base, rnd) << 8 | noise(128, rnd);
+			}
+
+			if (alpha) {
+				pixels[i] |= (kind == 1 ? rnd.nextInt(2) : rnd.nextInt(4) == 0 ? rnd.nextInt(256) : 255) << 24;
+			}
+		}
+
+		image.setRGB(0, 0, width, height, pixels, 0, width);
+		return image;
+	}
+
+	private static int noise(int value, Random rnd) {
+		return Math.max(0, Math.min(255, value + rnd.nextInt(9) - 4));
+	}
+}
@@ -0,0 +1,181 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Random;
+import javax.imageio.IIOImage;
+
+import org.digitalmodular.qoi.QOIImageWriter;
+import org.digitalmodular.qoi.QOIImageWriterSpi;
+
+/**
+ * Checks that the Vector API prepass of the encoder gives the same output as the scalar path.
+ * <p>
+ * Only int rasters in the {@code TYPE_INT_RGB} or {@code TYPE_INT_ARGB} layout go through the prepass, and byte
+ * rasters never do. Every raster is therefore encoded both as an int image and as a byte image with the same pixels,
+ * and the two outputs must be byte-identical. The widths include every width up to well past the widest vectors, so
+ * every remainder after the vector loop occurs. The int images of 3-channel content have random bits in the unused
+ * alpha byte, which must be ignored, and some images are sub-images, so rows start at an offset in the data array.
+ * <p>
+ * Run it with the vector prepass enabled:
+ * <pre>{@code
+ * java --add-modules jdk.incubator.vector -Dorg.digitalmodular.qoi.vector=true QOIPrepassTestMain
+ * }</pre>
+ * with {@code src-vector} compiled onto the class path. It fails when the property is set but the prepass isn't
+ * available. Without the property both encodes take the scalar path, which only checks the int row path against the
+ * byte path. Exits with status 1 when any check fails.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+@SuppressWarnings("UseOfSystemOutOrSystemErr")
+public class QOIPrepassTestMain {
+	private static final String ENABLE_PROPERTY = "org.digitalmodular.qoi.vector";
+
+	private static final int   MAX_WIDTH = 70;
+	private static final int[] HEIGHTS   = {1, 2, 5};
+	private static final int[] WIDE      = {127, 128, 129, 255, 256, 257, 1000};
+
+	private static final String[] CONTENTS = {"random", "runs", "few colors", "gradient"};
+
+	private static final QOIImageWriter WRITER =
+			(QOIImageWriter)new QOIImageWriterSpi().createWriterInstance(null);
+
+	private static int checks   = 0;
+	private static int failures = 0;
+
+	public static void main(String... args) throws IOException, ReflectiveOperationException {
+		boolean enabled = Boolean.getBoolean(ENABLE_PROPERTY);
+		boolean active  = isPrepassActive();
+		System.out.println("Vector prepass " + (active ? "active" : "not active"));
+		if (enabled && !active) {
+			System.out.println("FAIL: " + ENABLE_PROPERTY + " is set, but the prepass is not available");
+			System.exit(1);
+		}
+
+		Random rnd = new Random(0);
+		for (int width = 1; width <= MAX_WIDTH; width++) {
+			for (int height : HEIGHTS) {
+				checkAll(width, height, rnd);
+			}
+		}
+
+		for (int width : WIDE) {
+			checkAll(width, 3, rnd);
+		}
+
+		System.out.println(checks + " checks, " + failures + " failed");
+		System.out.println(failures == 0 ? "Prepass OK" : "Prepass FAILED");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Calls the package-private {@code QOIPrepass.getInstance()}, so the test can't silently check the scalar path
+	 * against itself.
+	 */
+	private static boolean isPrepassActive() throws ReflectiveOperationException {
+		Method getInstance = Class.forName("org.digitalmodular.qoi.QOIPrepass").getDeclaredMethod("getInstance");
+		getInstance.setAccessible(true);
+		return getInstance.invoke(null) != null;
+	}
+
+	private static void checkAll(int width, int height, Random rnd) throws IOException {
+		for (String content : CONTENTS) {
+			for (boolean alpha : new boolean[]{false, true}) {
+				for (boolean subimage : new boolean[]{false, true}) {
+					check(width, height, content, alpha, subimage, rnd);
+				}
+			}
+		}
+	}
+
+	private static void check(int width, int height, String content, boolean alpha, boolean subimage, Random rnd)
+			throws IOException {
+		checks++;
+
+		int[] argb = makePixels(width * height, content, alpha, rnd);
+
+		BufferedImage intImage  = makeIntImage(width, height, argb, alpha, subimage, rnd);
+		BufferedImage byteImage = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_4BYTE_ABGR :
+		                                                           BufferedImage.TYPE_3BYTE_BGR);
+		byteImage.setRGB(0, 0, width, height, argb, 0, width);
+
+		byte[] expected = encode(byteImage);
+		byte[] actual   = encode(intImage);
+		if (!Arrays.equals(expected, actual)) {
+			System.out.println("FAIL " + width + 'x' + height + ' ' + content + (alpha ? ", alpha" : "") +
+			                   (subimage ? ", sub-image" : "") + ": output differs at byte " +
+			                   Arrays.mismatch(expected, actual));
+			failures++;
+		}
+	}
+
+	private static byte[] encode(BufferedImage image) throws IOException {
+		byte[] output = new byte[(int)QOIImageWriter.getMaxEncodedSize(image.getWidth(), image.getHeight(), 4)];
+		WRITER.setOutput(output);
+		WRITER.write(null, new IIOImage(image, null, null), null);
+		return Arrays.copyOf(output, (int)WRITER.getBytesWritten());
+	}
+
+	/**
+	 * Writes the pixels directly into the data array, so the unused alpha byte of {@code TYPE_INT_RGB} can hold
+	 * random bits.
+	 */
+	private static BufferedImage makeIntImage(int width, int height, int[] argb, boolean alpha, boolean subimage,
+	                                          Random rnd) {
+		int type    = alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+		int marginX = subimage ? 1 + rnd.nextInt(5) : 0;
+		int marginY = subimage ? rnd.nextInt(3) : 0;
+
+		BufferedImage image  = new BufferedImage(width + marginX * 2, height + marginY * 2, type);
+		int[]         data   = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+		int           stride = image.getWidth();
+
+		for (int i = 0; i < data.length; i++) {
+			data[i] = rnd.nextInt();
+		}
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int pixel = argb[y * width + x];
+				data[(marginY + y) * stride + marginX + x] = alpha ? pixel : pixel & 0xFFFFFF | rnd.nextInt() << 24;
+			}
+		}
+
+		return subimage ? image.getSubimage(marginX, marginY, width, height) : image;
+	}
+
+	private static int[] makePixels(int count, String content, boolean alpha, Random rnd) {
+		int[] palette = new int[4 + rnd.nextInt(100)];
+		for (int i = 0; i < palette.length; i++) {
+			palette[i] = rnd.nextInt();
+		}
+
+		int[] argb = new int[count];
+		for (int i = 0; i < count; i++) {
+			switch (content) {
+				case "random":
+					argb[i] = rnd.nextInt();
+					break;
+				case "runs":
+					argb[i] = i > 0 && rnd.nextInt(8) != 0 ? argb[i - 1] : palette[rnd.nextInt(3)];
+					break;
+				case "few colors":
+					argb[i] = palette[rnd.nextInt(palette.length)];
+					break;
+				default:
+					argb[i] = (i * 3 & 0xFF) << 16 | (i & 0xFF) << 8 | rnd.nextInt(4) | rnd.nextInt(2) << 24;
+					break;
+			}
+
+			if (!alpha) {
+				argb[i] |= 0xFF000000;
+			}
+		}
+
+		return argb;
+	}
+}
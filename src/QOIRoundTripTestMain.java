@@ -0,0 +1,864 @@
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.spi.IIORegistry;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.digitalmodular.qoi.QOIAsyncCodec;
+import org.digitalmodular.qoi.QOICodec;
+import org.digitalmodular.qoi.QOIEncoderSnapshots;
+import org.digitalmodular.qoi.QOIHeader;
+import org.digitalmodular.qoi.QOIImageCache;
+import org.digitalmodular.qoi.QOIImageReader;
+import org.digitalmodular.qoi.QOIImageReaderSpi;
+import org.digitalmodular.qoi.QOIImageWriteParam;
+import org.digitalmodular.qoi.QOIImageWriter;
+import org.digitalmodular.qoi.QOIImageWriterSpi;
+import org.digitalmodular.qoi.QOIPyramidWriter;
+import org.digitalmodular.qoi.QOITiledImageReader;
+import org.digitalmodular.qoi.QOITiledImageReaderSpi;
+import org.digitalmodular.qoi.QOITiledImageWriter;
+import org.digitalmodular.qoi.QOITiledImageWriterSpi;
+import org.digitalmodular.qoi.QOITranscoder;
+
+/**
+ * Round-trips images through every feature on top of plain QOI encoding and decoding: all output types, row-band
+ * updates, sequences, delta sequences, the Deflate container, incremental re-encoding, writing with a source region
+ * and subsampling, header probing, tiles, pyramids, and the codec, async codec, cache and transcoder. Every check
+ * compares decoded pixels with the original, or output bytes with those of a plain write.
+ * <p>
+ * Near-lossless encoding is checked separately by {@code QOINearLosslessTestMain}, and the vector prepass by
+ * {@code QOIPrepassTestMain}.
+ * <p>
+ * Exits with status 1 when any check fails.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+@SuppressWarnings({"UseOfSystemOutOrSystemErr", "CallToSystemGC"})
+public class QOIRoundTripTestMain {
+	private static final int[] TYPES = {BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+	                                    BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR};
+
+	private static final QOIImageReader READER = new QOIImageReader(new QOIImageReaderSpi());
+	private static final QOIImageWriter WRITER = new QOIImageWriter(new QOIImageWriterSpi());
+
+	@FunctionalInterface
+	private interface Check {
+		void run(Random rnd) throws Exception;
+	}
+
+	private static int failures = 0;
+
+	public static void main(String... args) throws Exception {
+		IIORegistry registry = IIORegistry.getDefaultInstance();
+		registry.registerServiceProvider(new QOIImageReaderSpi());
+		registry.registerServiceProvider(new QOIImageWriterSpi());
+		registry.registerServiceProvider(new QOITiledImageReaderSpi());
+		registry.registerServiceProvider(new QOITiledImageWriterSpi());
+
+		run("output types", QOIRoundTripTestMain::checkOutputTypes);
+		run("row-band updates", QOIRoundTripTestMain::checkUpdates);
+		run("sequence", QOIRoundTripTestMain::checkSequence);
+		run("delta sequence", QOIRoundTripTestMain::checkDeltaSequence);
+		run("deflate", QOIRoundTripTestMain::checkDeflate);
+		run("rewrite", QOIRoundTripTestMain::checkRewrite);
+		run("regions", QOIRoundTripTestMain::checkRegions);
+		run("header probe", QOIRoundTripTestMain::checkHeaderProbe);
+		run("tiled", QOIRoundTripTestMain::checkTiled);
+		run("pyramid", QOIRoundTripTestMain::checkPyramid);
+		run("codec", QOIRoundTripTestMain::checkCodec);
+		run("async codec", QOIRoundTripTestMain::checkAsyncCodec);
+		run("cache", QOIRoundTripTestMain::checkCache);
+		run("transcoder", QOIRoundTripTestMain::checkTranscoder);
+
+		System.out.println(failures == 0 ? "All round-trips OK" : failures + " round-trip checks failed");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	private static void run(String name, Check check) {
+		int failuresBefore = failures;
+		try {
+			check.run(new Random(name.hashCode()));
+		} catch (Exception ex) {
+			fail(name + " threw " + ex);
+			ex.printStackTrace(System.out);
+		}
+
+		System.out.println(name + (failures == failuresBefore ? ": OK" : ": FAILED"));
+	}
+
+	/**
+	 * byte[], ByteBuffer, channel and stream output must be identical, and match the size calculations.
+	 */
+	private static void checkOutputTypes(Random rnd) throws IOException {
+		for (int type : TYPES) {
+			for (int[] size : new int[][]{{1, 1}, {7, 3}, {333, 121}}) {
+				BufferedImage image = makeImage(size[0], size[1], type, rnd);
+				String        what  = getTypeName(type) + ' ' + size[0] + 'x' + size[1];
+
+				byte[] expected = encode(image, null);
+				compare(image, decode(expected), what);
+
+				check(WRITER.computeEncodedSize(image) == expected.length, what + ": computeEncodedSize");
+				check(QOIImageWriter.getMaxEncodedSize(size[0], size[1], 4) >= expected.length,
+				      what + ": getMaxEncodedSize");
+
+				ByteBuffer heap = ByteBuffer.allocate(expected.length + 3);
+				heap.position(3);
+				WRITER.setOutput(heap);
+				WRITER.write(image);
+				check(heap.position() == expected.length + 3 &&
+				      Arrays.equals(heap.array(), 3, heap.position(), expected, 0, expected.length),
+				      what + ": heap ByteBuffer");
+
+				ByteBuffer direct = ByteBuffer.allocateDirect(expected.length);
+				WRITER.setOutput(direct);
+				WRITER.write(image);
+				byte[] directBytes = new byte[expected.length];
+				direct.flip();
+				direct.get(directBytes);
+				check(Arrays.equals(directBytes, expected), what + ": direct ByteBuffer");
+
+				ByteArrayOutputStream channelOut = new ByteArrayOutputStream();
+				WRITER.setOutput(Channels.newChannel(channelOut));
+				WRITER.write(image);
+				check(Arrays.equals(channelOut.toByteArray(), expected), what + ": channel");
+
+				ByteArrayOutputStream streamOut = new ByteArrayOutputStream();
+				try (ImageOutputStream out = new MemoryCacheImageOutputStream(streamOut)) {
+					WRITER.setOutput(out);
+					WRITER.write(image);
+				}
+				check(Arrays.equals(streamOut.toByteArray(), expected), what + ": ImageOutputStream");
+
+				WRITER.setOutput(new byte[expected.length]);
+				WRITER.write(image.getRaster());
+				check(WRITER.getBytesWritten() == expected.length, what + ": raster");
+			}
+		}
+	}
+
+	/**
+	 * The reported row bands must cover every row once, in order.
+	 */
+	private static void checkUpdates(Random rnd) throws IOException {
+		BufferedImage image = makeImage(50, 203, BufferedImage.TYPE_INT_ARGB, rnd);
+		byte[]        data  = encode(image, null);
+
+		List<Rectangle> bands  = new ArrayList<>();
+		QOIImageReader  reader = new QOIImageReader(new QOIImageReaderSpi());
+		reader.addIIOReadUpdateListener(new BandCollector(bands));
+		reader.setInput(new ByteArrayInputStream(data));
+		compare(image, reader.read(0), "with listener");
+
+		int nextRow = 0;
+		for (Rectangle band : bands) {
+			check(band.y == nextRow && band.width == 50 && band.height > 0, "band " + band);
+			nextRow = band.y + band.height;
+		}
+
+		check(nextRow == 203, "bands end at row " + nextRow);
+	}
+
+	/**
+	 * Images of different sizes and types in one sequence, read in any order.
+	 */
+	private static void checkSequence(Random rnd) throws IOException {
+		BufferedImage[] frames = new BufferedImage[7];
+		for (int i = 0; i < frames.length; i++) {
+			frames[i] = makeImage(10 + i * 13, 5 + i * 7, TYPES[i % TYPES.length], rnd);
+		}
+
+		byte[] data = writeSequence(frames, 0);
+
+		// The same bytes to a byte[]
+		byte[] array = new byte[data.length];
+		WRITER.setOutput(array);
+		writeSequence(frames, null);
+		check(Arrays.equals(array, data), "byte[] output");
+
+		READER.setInput(withKnownLength(data), false, true);
+		check(READER.getNumImages(true) == frames.length, "getNumImages");
+		for (int i : new int[]{3, 0, 6, 1, 1, 5, 2, 4, 0}) {
+			compare(frames[i], READER.read(i), "image " + i);
+		}
+
+		// Readers unaware of sequences see the first image
+		compare(frames[0], ImageIO.read(new ByteArrayInputStream(data)), "ImageIO");
+	}
+
+	private static void checkDeltaSequence(Random rnd) throws IOException {
+		for (int type : TYPES) {
+			BufferedImage[] frames = makeAnimation(97, 61, 23, type, rnd);
+
+			byte[] plain = writeSequence(frames, 0);
+			byte[] delta = writeSequence(frames, 5);
+			check(delta.length < plain.length, getTypeName(type) + ": delta sequence not smaller");
+
+			READER.setInput(withKnownLength(delta), false, true);
+			check(READER.getKeyframeInterval() == 5, "getKeyframeInterval");
+			for (int i = 0; i < frames.length; i++) {
+				compare(frames[i], READER.read(i), getTypeName(type) + " image " + i);
+			}
+
+			for (int i : new int[]{7, 3, 22, 21, 0, 14, 14, 13, 9}) {
+				compare(frames[i], READER.read(i), getTypeName(type) + " random access " + i);
+			}
+
+			// Decoding in place, each image on top of the previous one
+			ImageReadParam param = READER.getDefaultReadParam();
+			param.setDestination(READER.read(0));
+			for (int i = 1; i < frames.length; i++) {
+				compare(frames[i], READER.read(i, param), getTypeName(type) + " in place " + i);
+			}
+
+			compare(frames[0], ImageIO.read(new ByteArrayInputStream(delta)), getTypeName(type) + " ImageIO");
+		}
+	}
+
+	private static void checkDeflate(Random rnd) throws IOException {
+		for (int type : TYPES) {
+			BufferedImage image = makeImage(301, 177, type, rnd);
+			byte[]        plain = encode(image, null);
+
+			ImageWriteParam param = WRITER.getDefaultWriteParam();
+			param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+			for (float quality : new float[]{0, QOIImageWriteParam.DEFAULT_COMPRESSION_QUALITY, 1}) {
+				param.setCompressionQuality(quality);
+				byte[] deflated = encode(image, param);
+				String what     = getTypeName(type) + " quality " + quality;
+
+				check(deflated[3] == 'z', what + ": not a qoiz file");
+				check(quality == 1 || deflated.length < plain.length, what + ": not smaller");
+				compare(image, decode(deflated), what);
+				compare(image, new QOICodec().decode(deflated), what + " QOICodec");
+			}
+		}
+	}
+
+	/**
+	 * Rewriting from snapshots after changing some rows must give the same bytes as writing the whole image.
+	 */
+	private static void checkRewrite(Random rnd) throws IOException {
+		for (int type : TYPES) {
+			for (int maxError : new int[]{0, 3}) {
+				BufferedImage image = makeImage(131, 97, type, rnd);
+				String        what  = getTypeName(type) + " maxError " + maxError;
+
+				QOIImageWriteParam param = (QOIImageWriteParam)WRITER.getDefaultWriteParam();
+				param.setMaxError(maxError);
+
+				WRITER.setSnapshotInterval(16);
+				byte[]              output    = new byte[(int)QOIImageWriter.getMaxEncodedSize(131, 97, 4)];
+				QOIEncoderSnapshots snapshots = null;
+				for (int round = 0; round < 4; round++) {
+					int firstChangedRow = rnd.nextInt(97);
+					if (snapshots == null) {
+						WRITER.setOutput(output);
+						WRITER.write(null, new IIOImage(image, null, null), param);
+					} else {
+						for (int y = firstChangedRow; y < Math.min(97, firstChangedRow + 5); y++) {
+							for (int x = 0; x < 131; x++) {
+								image.setRGB(x, y, rnd.nextInt());
+							}
+						}
+
+						WRITER.setOutput(output);
+						WRITER.rewrite(image, snapshots, firstChangedRow);
+					}
+
+					byte[] rewritten = Arrays.copyOf(output, (int)WRITER.getBytesWritten());
+					snapshots = WRITER.getSnapshots();
+					check(snapshots != null, what + ": no snapshots");
+
+					byte[] expected = encode(image, param);
+					check(Arrays.equals(rewritten, expected), what + ": rewrite from row " + firstChangedRow);
+					if (maxError == 0) {
+						compare(image, decode(rewritten), what);
+					}
+				}
+
+				WRITER.setSnapshotInterval(0);
+			}
+		}
+	}
+
+	/**
+	 * Writing with a source region and subsampling must give the same bytes as writing the cropped and subsampled
+	 * image.
+	 */
+	private static void checkRegions(Random rnd) throws IOException {
+		for (int type : TYPES) {
+			BufferedImage image = makeImage(64, 48, type, rnd);
+
+			for (int i = 0; i < 20; i++) {
+				Rectangle region  = new Rectangle(rnd.nextInt(40), rnd.nextInt(30), 1 + rnd.nextInt(24),
+				                                  1 + rnd.nextInt(18));
+				int       xPeriod = 1 + rnd.nextInt(3);
+				int       yPeriod = 1 + rnd.nextInt(3);
+
+				ImageWriteParam param = WRITER.getDefaultWriteParam();
+				param.setSourceRegion(region);
+				param.setSourceSubsampling(xPeriod, yPeriod, 0, 0);
+				check(Arrays.equals(encode(image, param), encode(crop(image, region, xPeriod, yPeriod), null)),
+				      getTypeName(type) + ' ' + region + " period " + xPeriod + ',' + yPeriod);
+			}
+		}
+	}
+
+	private static void checkHeaderProbe(Random rnd) throws IOException {
+		Path file = Files.createTempFile("qoi", ".qoi");
+		try {
+			for (int type : TYPES) {
+				BufferedImage image = makeImage(1 + rnd.nextInt(300), 1 + rnd.nextInt(200), type, rnd);
+				for (boolean compressed : new boolean[]{false, true}) {
+					ImageWriteParam param = WRITER.getDefaultWriteParam();
+					if (compressed) {
+						param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+					}
+
+					Files.write(file, encode(image, param));
+					QOIHeader header = QOIHeader.probe(file);
+					check(header.getWidth() == image.getWidth() && header.getHeight() == image.getHeight() &&
+					      header.hasAlpha() == image.getColorModel().hasAlpha() &&
+					      header.isCompressed() == compressed, getTypeName(type) + ": " + header);
+				}
+			}
+
+			Files.write(file, new byte[]{'q', 'o', 'i', 'f', 1, 2, 3});
+			check(QOIHeader.probeAll(List.of(file)).get(0) == null, "truncated header accepted");
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	private static void checkTiled(Random rnd) throws IOException {
+		for (int type : TYPES) {
+			BufferedImage image = makeImage(1000, 777, type, rnd);
+
+			QOITiledImageWriter writer = new QOITiledImageWriter(null);
+			ImageWriteParam     param  = writer.getDefaultWriteParam();
+			param.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+			param.setTiling(128, 100, 0, 0);
+
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (ImageOutputStream out = new MemoryCacheImageOutputStream(bytes)) {
+				writer.setOutput(out);
+				writer.write(null, new IIOImage(image, null, null), param);
+			}
+
+			byte[] data = bytes.toByteArray();
+			String what = getTypeName(type);
+			compare(image, ImageIO.read(withKnownLength(data)), what + " ImageIO");
+
+			QOITiledImageReader reader = new QOITiledImageReader(null);
+			reader.setInput(withKnownLength(data));
+			check(reader.getTileWidth(0) == 128 && reader.getTileHeight(0) == 100, what + ": tile size");
+
+			ImageReadParam readParam = reader.getDefaultReadParam();
+			Rectangle      region    = new Rectangle(130, 95, 301, 222);
+			readParam.setSourceRegion(region);
+			compare(crop(image, region, 1, 1), reader.read(0, readParam), what + " region");
+			readParam.setSourceSubsampling(3, 2, 0, 0);
+			compare(crop(image, region, 3, 2), reader.read(0, readParam), what + " subsampled region");
+
+			compare(crop(image, new Rectangle(896, 700, 104, 77), 1, 1), reader.readTile(0, 7, 7),
+			        what + " last tile");
+
+			// Red and blue swapped by the band mapping, into a destination without alpha
+			BufferedImage swapped = new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_RGB);
+			for (int y = 0; y < region.height; y++) {
+				for (int x = 0; x < region.width; x++) {
+					int argb = image.getRGB(region.x + x, region.y + y);
+					swapped.setRGB(x, y, argb & 0x0000FF00 | argb >> 16 & 0xFF | (argb & 0xFF) << 16);
+				}
+			}
+
+			readParam = reader.getDefaultReadParam();
+			readParam.setSourceRegion(region);
+			readParam.setDestination(new BufferedImage(region.width, region.height, BufferedImage.TYPE_INT_RGB));
+			readParam.setSourceBands(new int[]{2, 1, 0});
+			readParam.setDestinationBands(new int[]{0, 1, 2});
+			compare(swapped, reader.read(0, readParam), what + " swapped bands");
+
+			// Only the source region is written
+			param.setSourceRegion(new Rectangle(5, 333, 700, 1000));
+			bytes.reset();
+			try (ImageOutputStream out = new MemoryCacheImageOutputStream(bytes)) {
+				writer.setOutput(out);
+				writer.write(null, new IIOImage(image, null, null), param);
+			}
+
+			compare(crop(image, new Rectangle(5, 333, 700, 444), 1, 1),
+			        ImageIO.read(withKnownLength(bytes.toByteArray())), what + " written region");
+
+			param.setSourceSubsampling(2, 1, 0, 0);
+			try (ImageOutputStream out = new MemoryCacheImageOutputStream(new ByteArrayOutputStream())) {
+				writer.setOutput(out);
+				writer.write(null, new IIOImage(image, null, null), param);
+				fail(what + ": subsampled write not rejected");
+			} catch (IllegalArgumentException ignored) {
+			}
+		}
+	}
+
+	/**
+	 * Level 0 must be the same as a plain write, and every other level the alpha-weighted 2x2 average of the level
+	 * above it.
+	 */
+	private static void checkPyramid(Random rnd) throws IOException {
+		for (int type : TYPES) {
+			BufferedImage image  = makeImage(301, 157, type, rnd);
+			int           levels = QOIPyramidWriter.getMaxLevels(301, 157);
+			byte[][]      out    = new byte[levels][];
+			for (int i = 0; i < levels; i++) {
+				out[i] = new byte[(int)QOIImageWriter.getMaxEncodedSize(
+						QOIPyramidWriter.getLevelSize(301, i), QOIPyramidWriter.getLevelSize(157, i), 4)];
+			}
+
+			QOIPyramidWriter writer = new QOIPyramidWriter();
+			writer.write(image, (Object[])out);
+			check(Arrays.equals(Arrays.copyOf(out[0], (int)writer.getBytesWritten(0)), encode(image, null)),
+			      getTypeName(type) + ": level 0 differs from a plain write");
+
+			BufferedImage expected = image;
+			for (int i = 1; i < levels; i++) {
+				expected = halve(expected);
+				compare(expected, decode(Arrays.copyOf(out[i], (int)writer.getBytesWritten(i))),
+				        getTypeName(type) + " level " + i);
+			}
+		}
+	}
+
+	/**
+	 * Round-trips on many threads, which must not leave the decoded images reachable from the pool.
+	 */
+	private static void checkCodec(Random rnd) throws Exception {
+		QOICodec      codec = new QOICodec(2);
+		BufferedImage image = makeImage(200, 100, BufferedImage.TYPE_INT_ARGB, rnd);
+
+		ExecutorService     executor = Executors.newFixedThreadPool(8);
+		List<Future<Void>>  futures  = new ArrayList<>();
+		for (int i = 0; i < 400; i++) {
+			futures.add(executor.submit(() -> {
+				compare(image, codec.decode(codec.encode(image)), "concurrent");
+				return null;
+			}));
+		}
+
+		for (Future<Void> future : futures) {
+			future.get();
+		}
+
+		executor.shutdown();
+		check(codec.getDecodeCount() == 400 && codec.getEncodeCount() == 400, "counts");
+
+		WeakReference<BufferedImage> decoded = new WeakReference<>(codec.decode(codec.encode(image)));
+		for (int i = 0; i < 10 && decoded.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+
+		check(decoded.get() == null, "the pool keeps the last decoded image alive");
+	}
+
+	private static void checkAsyncCodec(Random rnd) throws Exception {
+		QOIAsyncCodec async = new QOIAsyncCodec();
+		BufferedImage image = makeImage(1000, 1000, BufferedImage.TYPE_INT_RGB, rnd);
+		byte[]        data  = encode(image, null);
+
+		compare(image, async.decode(data).get(), "decode");
+
+		byte[] output = new byte[data.length];
+		check(async.encode(image, output).get() == data.length && Arrays.equals(output, data), "encode");
+
+		CompletableFuture<BufferedImage> cancelled = async.decode(data);
+		cancelled.cancel(true);
+		try {
+			cancelled.get();
+			fail("cancelled decode completed");
+		} catch (CancellationException ignored) {
+		}
+
+		// The reader of the cancelled decode is usable again
+		for (int i = 0; i < 4; i++) {
+			compare(image, async.decode(data).get(), "decode after cancel");
+		}
+
+		try {
+			async.decode(new byte[]{1, 2, 3}).get();
+			fail("garbage decoded");
+		} catch (ExecutionException ignored) {
+		}
+	}
+
+	private static void checkCache(Random rnd) throws IOException {
+		Path dir = Files.createTempDirectory("qoi");
+		try {
+			List<Path>          files  = new ArrayList<>();
+			List<BufferedImage> images = new ArrayList<>();
+			for (int i = 0; i < 6; i++) {
+				BufferedImage image = makeImage(100, 100, TYPES[i % TYPES.length], rnd);
+				Path          file  = dir.resolve(i + ".qoi");
+				Files.write(file, encode(image, null));
+				files.add(file);
+				images.add(image);
+			}
+
+			// Room for 3 images
+			QOIImageCache cache = new QOIImageCache(100 * 100 * 4 * 3, false, new QOICodec());
+			for (int i = 0; i < files.size(); i++) {
+				compare(images.get(i), cache.get(files.get(i)), "file " + i);
+			}
+
+			check(cache.get(files.get(5)) == cache.get(files.get(5)), "not the same instance");
+			check(cache.getUsedBytes() <= 100 * 100 * 4 * 3, "over budget: " + cache.getUsedBytes());
+			check(cache.getEvictionCount() > 0, "nothing evicted");
+
+			// A changed file is decoded again
+			Files.write(files.get(5), Files.readAllBytes(files.get(0)));
+			Files.setLastModifiedTime(files.get(5), FileTime.fromMillis(System.currentTimeMillis() + 5000));
+			compare(images.get(0), cache.get(files.get(5)), "changed file");
+
+			byte[] data = Files.readAllBytes(files.get(1));
+			check(cache.get(data) == cache.get(data.clone()), "equal data decoded twice");
+		} finally {
+			deleteRecursively(dir);
+		}
+	}
+
+	/**
+	 * PNG to QOI and back, with verification, after which a second run must skip everything.
+	 */
+	private static void checkTranscoder(Random rnd) throws IOException, InterruptedException {
+		Path input    = Files.createTempDirectory("qoi");
+		Path qoi      = Files.createTempDirectory("qoi");
+		Path png      = Files.createTempDirectory("qoi");
+		Path collided = Files.createTempDirectory("qoi");
+		try {
+			List<BufferedImage> images = new ArrayList<>();
+			Files.createDirectories(input.resolve("sub"));
+			for (int i = 0; i < 8; i++) {
+				BufferedImage image = makeImage(50 + i, 40 + i, TYPES[i % TYPES.length], rnd);
+				images.add(image);
+				ImageIO.write(image, "png", input.resolve((i % 2 == 0 ? "sub/" : "") + i + ".png").toFile());
+			}
+
+			PrintStream   report    = new PrintStream(new ByteArrayOutputStream());
+			QOITranscoder toQOI     = new QOITranscoder(input, qoi, "qoi");
+			toQOI.setVerify(true);
+			toQOI.setMemoryBudget(50 * 50 * 4 * 3);
+			check(toQOI.run(report), "to QOI failed");
+
+			QOITranscoder toPNG = new QOITranscoder(qoi, png, "png");
+			toPNG.setVerify(true);
+			check(toPNG.run(report), "to PNG failed");
+
+			for (int i = 0; i < images.size(); i++) {
+				String name = (i % 2 == 0 ? "sub/" : "") + i;
+				compare(images.get(i), ImageIO.read(qoi.resolve(name + ".qoi").toFile()), name + ".qoi");
+				compare(images.get(i), ImageIO.read(png.resolve(name + ".png").toFile()), name + ".png");
+			}
+
+			ByteArrayOutputStream again = new ByteArrayOutputStream();
+			check(new QOITranscoder(input, qoi, "qoi").run(new PrintStream(again)), "second run failed");
+			check(again.toString().startsWith("Converted 0 files, skipped 8"), "second run: " + again);
+
+			// 3.bmp and 3.png both map to 3.qoi
+			ImageIO.write(makeImage(20, 10, BufferedImage.TYPE_INT_RGB, rnd), "bmp", input.resolve("3.bmp").toFile());
+			ByteArrayOutputStream collision = new ByteArrayOutputStream();
+			check(!new QOITranscoder(input, collided, "qoi").run(new PrintStream(collision)),
+			      "colliding outputs not reported");
+			check(collision.toString().startsWith("Converted 8 files") &&
+			      collision.toString().contains("same output file as"), "colliding outputs: " + collision);
+			try (Stream<Path> files = Files.walk(collided)) {
+				check(files.filter(Files::isRegularFile).count() == 8, "colliding outputs: wrong number of files");
+			}
+		} finally {
+			deleteRecursively(input);
+			deleteRecursively(qoi);
+			deleteRecursively(png);
+			deleteRecursively(collided);
+		}
+	}
+
+	// ---- Helpers
+
+	private static byte[] encode(BufferedImage image, ImageWriteParam param) throws IOException {
+		byte[] output = new byte[(int)QOIImageWriter.getMaxEncodedSize(image.getWidth(), image.getHeight(), 4) + 64];
+		WRITER.setOutput(output);
+		WRITER.write(null, new IIOImage(image, null, null), param);
+		return Arrays.copyOf(output, (int)WRITER.getBytesWritten());
+	}
+
+	/**
+	 * Sequences and tiled images have their index at the end, which the readers only find when the length of the
+	 * input is known.
+	 */
+	private static ImageInputStream withKnownLength(byte[] data) {
+		return new MemoryCacheImageInputStream(new ByteArrayInputStream(data)) {
+			@Override
+			public long length() {
+				return data.length;
+			}
+		};
+	}
+
+	private static BufferedImage decode(byte[] data) throws IOException {
+		READER.setInput(new ByteArrayInputStream(data));
+		return READER.read(0);
+	}
+
+	/**
+	 * @param keyframeInterval the keyframe interval to write a delta sequence, or 0.
+	 */
+	private static byte[] writeSequence(BufferedImage[] frames, int keyframeInterval) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (ImageOutputStream out = new MemoryCacheImageOutputStream(bytes)) {
+			WRITER.setKeyframeInterval(keyframeInterval);
+			WRITER.setOutput(out);
+			writeSequence(frames, null);
+			WRITER.setKeyframeInterval(0);
+		}
+
+		return bytes.toByteArray();
+	}
+
+	private static void writeSequence(BufferedImage[] frames, ImageWriteParam param) throws IOException {
+		WRITER.prepareWriteSequence(null);
+		for (BufferedImage frame : frames) {
+			WRITER.writeToSequence(new IIOImage(frame, null, null), param);
+		}
+
+		WRITER.endWriteSequence();
+	}
+
+	private static void compare(BufferedImage expected, BufferedImage actual, String what) {
+		if (actual == null) {
+			fail(what + ": no image");
+			return;
+		} else if (actual.getWidth() != expected.getWidth() || actual.getHeight() != expected.getHeight()) {
+			fail(what + ": size " + actual.getWidth() + 'x' + actual.getHeight() + " instead of " +
+			     expected.getWidth() + 'x' + expected.getHeight());
+			return;
+		}
+
+		// Images without alpha decode as opaque
+		int alpha = expected.getColorModel().hasAlpha() ? 0 : 0xFF000000;
+		for (int y = 0; y < expected.getHeight(); y++) {
+			for (int x = 0; x < expected.getWidth(); x++) {
+				int e = expected.getRGB(x, y) | alpha;
+				int a = actual.getRGB(x, y);
+				if (e != a) {
+					fail(what + ": pixel " + x + ',' + y + " is " + Integer.toHexString(a) + " instead of " +
+					     Integer.toHexString(e));
+					return;
+				}
+			}
+		}
+	}
+
+	private static void check(boolean condition, String what) {
+		if (!condition) {
+			fail(what);
+		}
+	}
+
+	private static synchronized void fail(String what) {
+		System.out.println("FAIL " + what);
+		failures++;
+	}
+
+	private static BufferedImage crop(BufferedImage image, Rectangle region, int xPeriod, int yPeriod) {
+		int           width  = (region.width + xPeriod - 1) / xPeriod;
+		int           height = (region.height + yPeriod - 1) / yPeriod;
+		BufferedImage result = new BufferedImage(width, height, image.getColorModel().hasAlpha() ?
+		                                                        BufferedImage.TYPE_INT_ARGB :
+		                                                        BufferedImage.TYPE_INT_RGB);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				result.setRGB(x, y, image.getRGB(region.x + x * xPeriod, region.y + y * yPeriod));
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Alpha-weighted average of each 2x2 block, rounded, with fully transparent blocks becoming transparent black.
+	 */
+	private static BufferedImage halve(BufferedImage image) {
+		int           width  = (image.getWidth() + 1) / 2;
+		int           height = (image.getHeight() + 1) / 2;
+		boolean       alpha  = image.getColorModel().hasAlpha();
+		BufferedImage result = new BufferedImage(width, height, alpha ? BufferedImage.TYPE_INT_ARGB :
+		                                                        BufferedImage.TYPE_INT_RGB);
+
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				long n = 0;
+				long a = 0;
+				long r = 0;
+				long g = 0;
+				long b = 0;
+				for (int sy = y * 2; sy < Math.min(y * 2 + 2, image.getHeight()); sy++) {
+					for (int sx = x * 2; sx < Math.min(x * 2 + 2, image.getWidth()); sx++) {
+						int argb = image.getRGB(sx, sy);
+						int pa   = alpha ? argb >>> 24 : 255;
+						n++;
+						a += pa;
+						r += (argb >> 16 & 0xFF) * pa;
+						g += (argb >> 8 & 0xFF) * pa;
+						b += (argb & 0xFF) * pa;
+					}
+				}
+
+				result.setRGB(x, y, a == 0 ? 0 : (int)(((a + n / 2) / n) << 24 | ((r + a / 2) / a) << 16 |
+				                                       ((g + a / 2) / a) << 8 | (b + a / 2) / a));
+			}
+		}
+
+		return result;
+	}
+
+	/** Noise, gradients, flat areas and (for types with alpha) translucent areas, in 16x16 blocks */
+	private static BufferedImage makeImage(int width, int height, int type, Random rnd) {
+		BufferedImage image = new BufferedImage(width, height, type);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int argb;
+				switch ((x / 16 + y / 16) % 4) {
+					case 0:
+						argb = rnd.nextInt();
+						break;
+					case 1:
+						argb = 0xFF000000 | (x * 3 & 0xFF) << 16 | (y * 5 & 0xFF) << 8 | (x + y & 0xFF);
+						break;
+					case 2:
+						argb = 0xFF336699;
+						break;
+					default:
+						argb = ((x & 1) == 0 ? 0x80FF0000 : 0x40112233) + rnd.nextInt(3);
+						break;
+				}
+
+				image.setRGB(x, y, argb);
+			}
+		}
+
+		return image;
+	}
+
+	/** A random image, and copies of it with a few random blocks changed each time */
+	private static BufferedImage[] makeAnimation(int width, int height, int count, int type, Random rnd) {
+		BufferedImage[] frames = new BufferedImage[count];
+		frames[0] = makeImage(width, height, type, rnd);
+		for (int i = 1; i < count; i++) {
+			frames[i] = new BufferedImage(frames[0].getColorModel(), frames[i - 1].copyData(null), false, null);
+
+			int x0 = rnd.nextInt(width - 8);
+			int y0 = rnd.nextInt(height - 8);
+			for (int y = y0; y < y0 + 8; y++) {
+				for (int x = x0; x < x0 + 8; x++) {
+					frames[i].setRGB(x, y, rnd.nextInt());
+				}
+			}
+		}
+
+		return frames;
+	}
+
+	private static void deleteRecursively(Path dir) throws IOException {
+		try (Stream<Path> files = Files.walk(dir)) {
+			for (Path file : (Iterable<Path>)files.sorted(Comparator.reverseOrder())::iterator) {
+				Files.delete(file);
+			}
+		}
+	}
+
+	private static String getTypeName(int type) {
+		switch (type) {
+			case BufferedImage.TYPE_INT_ARGB:
+				return "TYPE_INT_ARGB";
+			case BufferedImage.TYPE_INT_RGB:
+				return "TYPE_INT_RGB";
+			case BufferedImage.TYPE_4BYTE_ABGR:
+				return "TYPE_4BYTE_ABGR";
+			case BufferedImage.TYPE_3BYTE_BGR:
+				return "TYPE_3BYTE_BGR";
+			default:
+				return "type " + type;
+		}
+	}
+
+	/** Collects the row bands reported during a read */
+	private static final class BandCollector implements IIOReadUpdateListener {
+		private final List<Rectangle> bands;
+
+		BandCollector(List<Rectangle> bands) {
+			this.bands = bands;
+		}
+
+		@Override
+		public void imageUpdate(ImageReader source, BufferedImage image, int minX, int minY, int width, int height,
+		                        int periodX, int periodY, int[] bands) {
+			this.bands.add(new Rectangle(minX, minY, width, height));
+		}
+
+		@Override
+		public void passStarted(ImageReader source, BufferedImage image, int pass, int minPass, int maxPass,
+		                        int minX, int minY, int periodX, int periodY, int[] bands) {
+		}
+
+		@Override
+		public void passComplete(ImageReader source, BufferedImage image) {
+		}
+
+		@Override
+		public void thumbnailPassStarted(ImageReader source, BufferedImage thumbnail, int pass, int minPass,
+		                                 int maxPass, int minX, int minY, int periodX, int periodY, int[] bands) {
+		}
+
+		@Override
+		public void thumbnailUpdate(ImageReader source, BufferedImage thumbnail, int minX, int minY, int width,
+		                            int height, int periodX, int periodY, int[] bands) {
+		}
+
+		@Override
+		public void thumbnailPassComplete(ImageReader source, BufferedImage thumbnail) {
+		}
+	}
+}
@@ -0,0 +1,366 @@
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import javax.imageio.IIOException;
+import javax.imageio.ImageReadParam;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+import org.digitalmodular.qoi.QOIImageReader;
+import org.digitalmodular.qoi.QOIImageReaderSpi;
+
+/**
+ * Checks that decoding adversarial input takes time linear in the input size, and never allocates more memory than
+ * the declared image size needs.
+ * <p>
+ * Every pattern is a stream of one kind of op (or a random mix), generated directly rather than by the writer, so
+ * the encoder's choices don't soften it. Runs are always 62 pixels long, so the last run overruns the end of the
+ * image. Each pattern is decoded at three sizes, for both channel counts and both kinds of destination (int and
+ * byte). The median time per input byte at the largest size may not exceed {@value #LINEARITY_TOLERANCE} times the
+ * median at the smallest size. A combination that exceeds it is measured again, up to {@value #RETRIES} times, before
+ * it counts as a failure, because a busy machine can slow down any single measurement.
+ * <p>
+ * Separately, a 1x1 image followed by a long tail of ops must decode in the same time regardless of the length of the
+ * tail, as the decoder stops after the last pixel.
+ * <p>
+ * The allocations of a read may not exceed 4 bytes per declared pixel plus {@value #MEMORY_SLACK} bytes. Input that
+ * declares a large image and then ends may only allocate that much when read leniently from a stream of unknown
+ * length. Read from a stream of known length, or strictly, it may not allocate more than the slack, nor may a read of
+ * an image over the pixel limit.
+ * <p>
+ * Exits with status 1 when any check fails.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+@SuppressWarnings("UseOfSystemOutOrSystemErr")
+public class QOIWorstCaseTestMain {
+	private static final int    WIDTH               = 1024;
+	private static final int    BASE_HEIGHT         = 256;
+	private static final int[]  SCALES              = {1, 4, 16};
+	private static final int    WARMUP              = 5;
+	private static final int    ITERATIONS          = 15;
+	private static final int    RETRIES             = 2;
+	private static final double LINEARITY_TOLERANCE = 2.5;
+	private static final long   MEMORY_SLACK        = 256 << 10;
+
+	/** The tails after the 1x1 image, in bytes */
+	private static final int[] TAIL_SIZES       = {1 << 20, 4 << 20, 16 << 20};
+	/** Allowed growth of the decoding time of the 1x1 image, far less than it takes to read the longest tail */
+	private static final long  TAIL_SLACK_NANOS = 1_000_000;
+
+	private static final String[] PATTERNS = {"RUN", "INDEX", "DIFF", "LUMA", "RGB", "RGBA", "mixed"};
+
+	private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN =
+			(com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean();
+
+	private static int failures = 0;
+
+	public static void main(String... args) throws IOException {
+		QOIImageReader reader = new QOIImageReader(new QOIImageReaderSpi());
+
+		System.out.println("pattern  ch  destination   ns/byte per scale " + Arrays.toString(SCALES));
+		for (String pattern : PATTERNS) {
+			for (int channels = 3; channels <= 4; channels++) {
+				for (boolean intDestination : new boolean[]{true, false}) {
+					checkLinearity(reader, pattern, channels, intDestination);
+				}
+			}
+		}
+
+		checkTrailingData(reader);
+		checkDeclaredSize(reader);
+
+		System.out.println(failures == 0 ? "All worst cases OK" : failures + " worst cases failed");
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	private static void checkLinearity(QOIImageReader reader, String pattern, int channels, boolean intDestination)
+			throws IOException {
+		byte[][]         inputs       = new byte[SCALES.length][];
+		ImageReadParam[] params       = new ImageReadParam[SCALES.length];
+		double[]         nanosPerByte = new double[SCALES.length];
+
+		int type = intDestination ?
+		           channels == 3 ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB :
+		           channels == 3 ? BufferedImage.TYPE_3BYTE_BGR : BufferedImage.TYPE_4BYTE_ABGR;
+
+		for (int i = 0; i < SCALES.length; i++) {
+			int height = BASE_HEIGHT * SCALES[i];
+			inputs[i] = makeInput(pattern, WIDTH, height, WIDTH, height, channels, new Random(i));
+			params[i] = reader.getDefaultReadParam();
+			params[i].setDestination(new BufferedImage(WIDTH, height, type));
+
+			checkMemory(reader, inputs[i], (long)WIDTH * height, pattern);
+		}
+
+		double ratio = Double.POSITIVE_INFINITY;
+		for (int attempt = 0; attempt <= RETRIES && ratio > LINEARITY_TOLERANCE; attempt++) {
+			long[] nanos = measureMedians(reader, inputs, params);
+			for (int i = 0; i < SCALES.length; i++) {
+				nanosPerByte[i] = nanos[i] / (double)inputs[i].length;
+			}
+
+			ratio = nanosPerByte[SCALES.length - 1] / nanosPerByte[0];
+		}
+
+		System.out.printf("%-8s %d   %-12s", pattern, channels, intDestination ? "int" : "byte");
+		for (double value : nanosPerByte) {
+			System.out.printf(" %8.3f", value);
+		}
+		System.out.printf("  ratio %.2f%n", ratio);
+
+		if (ratio > LINEARITY_TOLERANCE) {
+			System.out.println("FAIL: decoding time grows faster than the input size");
+			failures++;
+		}
+	}
+
+	/**
+	 * A tiny image followed by a long tail: the decoder stops after the last pixel, so the tail must not matter.
+	 */
+	private static void checkTrailingData(QOIImageReader reader) throws IOException {
+		byte[][] inputs = new byte[TAIL_SIZES.length][];
+		for (int i = 0; i < TAIL_SIZES.length; i++) {
+			// Every DIFF op is one byte, so the number of pixels of the ops is the length of the tail
+			inputs[i] = makeInput("DIFF", 1, 1, TAIL_SIZES[i], 1, 4, new Random(i));
+		}
+
+		long[] nanos = measureMedians(reader, inputs, new ImageReadParam[TAIL_SIZES.length]);
+		for (int attempt = 0; attempt < RETRIES && nanos[TAIL_SIZES.length - 1] > getMaxTailNanos(nanos); attempt++) {
+			nanos = measureMedians(reader, inputs, new ImageReadParam[TAIL_SIZES.length]);
+		}
+
+		System.out.println("1x1 image with tails of " + Arrays.toString(TAIL_SIZES) + " bytes: " +
+		                   Arrays.toString(nanos) + " ns");
+		if (nanos[TAIL_SIZES.length - 1] > getMaxTailNanos(nanos)) {
+			System.out.println("FAIL: decoding time of a tiny image grows with the data after it");
+			failures++;
+		}
+	}
+
+	private static double getMaxTailNanos(long[] nanos) {
+		return nanos[0] * LINEARITY_TOLERANCE + TAIL_SLACK_NANOS;
+	}
+
+	/**
+	 * Reads each input in turn, so slowdowns of the machine affect all of them alike.
+	 *
+	 * @param params the param per input, or {@code null} elements to read into a new image.
+	 * @return the median time of a read per input, excluding setting up the input.
+	 */
+	private static long[] measureMedians(QOIImageReader reader, byte[][] inputs, ImageReadParam[] params)
+			throws IOException {
+		ByteArrayInputStream[] streams = new ByteArrayInputStream[inputs.length];
+		long[][]               times   = new long[inputs.length][ITERATIONS];
+		for (int i = 0; i < inputs.length; i++) {
+			streams[i] = new ByteArrayInputStream(inputs[i]);
+		}
+
+		for (int j = 0; j < WARMUP + ITERATIONS; j++) {
+			for (int i = 0; i < inputs.length; i++) {
+				streams[i].reset();
+				reader.setInput(streams[i]);
+
+				long start = System.nanoTime();
+				reader.read(0, params[i]);
+				long time = System.nanoTime() - start;
+
+				if (j >= WARMUP) {
+					times[i][j - WARMUP] = time;
+				}
+			}
+		}
+
+		long[] medians = new long[inputs.length];
+		for (int i = 0; i < inputs.length; i++) {
+			Arrays.sort(times[i]);
+			medians[i] = times[i][ITERATIONS / 2];
+		}
+
+		return medians;
+	}
+
+	/**
+	 * Reads into a new image, and checks that nothing besides the image is allocated.
+	 */
+	private static void checkMemory(QOIImageReader reader, byte[] input, long declaredPixels, String what)
+			throws IOException {
+		long allocated = measureAllocation(reader, new ByteArrayInputStream(input));
+		long limit     = declaredPixels * 4 + MEMORY_SLACK;
+		if (allocated > limit) {
+			System.out.println("FAIL: " + what + " allocated " + allocated + " bytes, more than " + limit);
+			failures++;
+		}
+	}
+
+	/**
+	 * Inputs that declare a large image but contain (almost) nothing.
+	 */
+	private static void checkDeclaredSize(QOIImageReader reader) throws IOException {
+		byte[] truncated = new byte[14 + 100];
+		writeHeader(truncated, 4096, 4096, 4);
+
+		// Known length: rejected before allocating the image, in both modes
+		checkRejected(reader, withKnownLength(truncated), "truncated stream of known length");
+		reader.setStrict(true);
+		checkRejected(reader, withKnownLength(truncated), "strict truncated stream of known length");
+
+		// Unknown length: a strict read is rejected before allocating, a lenient one allocates the image and leaves
+		// it mostly blank
+		checkRejected(reader, new ByteArrayInputStream(truncated), "strict truncated stream of unknown length");
+		reader.setStrict(false);
+		checkMemory(reader, truncated, 4096L * 4096, "truncated stream");
+
+		// Over the limit: rejected before allocating
+		reader.setMaxPixels(1 << 20);
+		checkRejected(reader, new ByteArrayInputStream(truncated), "image over maxPixels");
+		reader.setMaxPixels(QOIImageReader.MAX_PIXELS);
+	}
+
+	private static ImageInputStream withKnownLength(byte[] input) {
+		return new MemoryCacheImageInputStream(new ByteArrayInputStream(input)) {
+			@Override
+			public long length() {
+				return input.length;
+			}
+		};
+	}
+
+	private static void checkRejected(QOIImageReader reader, Object input, String what) throws IOException {
+		reader.setInput(input);
+		try {
+			reader.read(0);
+			System.out.println("FAIL: " + what + " was accepted");
+			failures++;
+			return;
+		} catch (IIOException ignored) {
+		}
+
+		long allocated = measureAllocation(reader, input);
+		if (allocated > MEMORY_SLACK) {
+			System.out.println("FAIL: " + what + " allocated " + allocated + " bytes");
+			failures++;
+		}
+	}
+
+	/**
+	 * @return the number of bytes allocated by reading the input, whether or not that succeeds.
+	 */
+	private static long measureAllocation(QOIImageReader reader, Object input) throws IOException {
+		if (input instanceof ByteArrayInputStream) {
+			((ByteArrayInputStream)input).reset();
+		} else if (input instanceof ImageInputStream) {
+			((ImageInputStream)input).seek(0);
+		}
+
+		long threadId = Thread.currentThread().getId();
+		long before   = THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+		try {
+			reader.setInput(input);
+			reader.read(0);
+		} catch (IIOException ignored) {
+			// Only the memory matters here
+		}
+
+		return THREAD_MX_BEAN.getThreadAllocatedBytes(threadId) - before;
+	}
+
+	// ---- Input generation
+
+	/**
+	 * @param opsWidth  together with {@code opsHeight}, the number of pixels to write ops for, which may be more than
+	 *                  the image has.
+	 */
+	private static byte[] makeInput(String pattern, int width, int height, int opsWidth, int opsHeight, int channels,
+	                                Random rnd) {
+		long                  pixels = (long)opsWidth * opsHeight;
+		ByteArrayOutputStream out    = new ByteArrayOutputStream((int)Math.min(pixels * 5 + 22, Integer.MAX_VALUE - 8));
+
+		byte[] header = new byte[14];
+		writeHeader(header, width, height, channels);
+		out.write(header, 0, header.length);
+
+		for (long p = 0; p < pixels; ) {
+			p += writeOp(pattern, out, rnd);
+		}
+
+		out.write(new byte[]{0, 0, 0, 0, 0, 0, 0, 1}, 0, 8);
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return the number of pixels the op produces.
+	 */
+	@SuppressWarnings("SwitchStatementWithTooManyBranches")
+	private static int writeOp(String pattern, ByteArrayOutputStream out, Random rnd) {
+		switch (pattern) {
+			case "RUN":
+				out.write(0b11111101); // 62 pixels
+				return 62;
+			case "INDEX":
+				out.write(rnd.nextInt(64));
+				return 1;
+			case "DIFF":
+				out.write(0b01000000 | rnd.nextInt(64));
+				return 1;
+			case "LUMA":
+				out.write(0b10000000 | rnd.nextInt(64));
+				out.write(rnd.nextInt(256));
+				return 1;
+			case "RGB":
+				out.write(0b11111110);
+				out.write(rnd.nextInt(256));
+				out.write(rnd.nextInt(256));
+				out.write(rnd.nextInt(256));
+				return 1;
+			case "RGBA":
+				out.write(0b11111111);
+				out.write(rnd.nextInt(256));
+				out.write(rnd.nextInt(256));
+				out.write(rnd.nextInt(256));
+				out.write(rnd.nextInt(256));
+				return 1;
+			default: {
+				// Any byte, which makes the ops unpredictable
+				int tag = rnd.nextInt(256);
+				out.write(tag);
+				if (tag == 0b11111110 || tag == 0b11111111) {
+					for (int i = tag == 0b11111110 ? 3 : 4; i > 0; i--) {
+						out.write(rnd.nextInt(256));
+					}
+					return 1;
+				} else if ((tag & 0b11000000) == 0b11000000) {
+					return (tag & 0b00111111) + 1;
+				} else if ((tag & 0b11000000) == 0b10000000) {
+					out.write(rnd.nextInt(256));
+				}
+				return 1;
+			}
+		}
+	}
+
+	private static void writeHeader(byte[] header, int width, int height, int channels) {
+		header[0] = 'q';
+		header[1] = 'o';
+		header[2] = 'i';
+		header[3] = 'f';
+		writeInt(header, 4, width);
+		writeInt(header, 8, height);
+		header[12] = (byte)channels;
+		header[13] = 0;
+	}
+
+	private static void writeInt(byte[] data, int index, int value) {
+		data[index] = (byte)(value >> 24);
+		data[index + 1] = (byte)(value >> 16);
+		data[index + 2] = (byte)(value >> 8);
+		data[index + 3] = (byte)value;
+	}
+}
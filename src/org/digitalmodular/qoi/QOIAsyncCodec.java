@@ -0,0 +1,287 @@
+package org.digitalmodular.qoi;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Method;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.event.IIOWriteProgressListener;
+
+/**
+ * Asynchronous decoding and encoding on top of {@link QOICodec}.
+ * <p>
+ * Work runs on the given executor, which defaults to one virtual thread per task when running on Java 21 or later, and
+ * to a cached pool of daemon threads otherwise. Cancelling a returned future while it's running aborts the underlying
+ * reader or writer through {@link ImageReader#abort()} or {@link ImageWriter#abort()}, so it stops within a few rows.
+ * The output of a cancelled encode is left incomplete.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+public final class QOIAsyncCodec {
+	private final QOICodec codec;
+	private final Executor executor;
+
+	/**
+	 * Creates an async codec with its own {@link QOICodec} and the default executor.
+	 */
+	public QOIAsyncCodec() {
+		this(new QOICodec(), DefaultExecutorHolder.EXECUTOR);
+	}
+
+	public QOIAsyncCodec(Executor executor) {
+		this(new QOICodec(), executor);
+	}
+
+	/**
+	 * @param codec the codec to borrow readers and writers from, which may be shared with synchronous users.
+	 */
+	public QOIAsyncCodec(QOICodec codec, Executor executor) {
+		if (codec == null) {
+			throw new IllegalArgumentException("codec == null!");
+		} else if (executor == null) {
+			throw new IllegalArgumentException("executor == null!");
+		}
+
+		this.codec = codec;
+		this.executor = executor;
+	}
+
+	public CompletableFuture<BufferedImage> decode(byte[] data) {
+		if (data == null) {
+			throw new IllegalArgumentException("data == null!");
+		}
+
+		return decode(new ByteArrayInputStream(data));
+	}
+
+	/**
+	 * Decodes the first image from the input.
+	 *
+	 * @param input any input type accepted by {@link QOIImageReader#setInput(Object, boolean, boolean)}
+	 */
+	public CompletableFuture<BufferedImage> decode(Object input) {
+		if (input == null) {
+			throw new IllegalArgumentException("input == null!");
+		}
+
+		AbortableFuture<BufferedImage> future = new AbortableFuture<>();
+		submit(future, () -> runDecode(input, future));
+		return future;
+	}
+
+	/**
+	 * Encodes the image to the output.
+	 *
+	 * @param output any output type accepted by {@link QOIImageWriter#setOutput(Object)}
+	 * @return a future for the number of bytes written.
+	 */
+	public CompletableFuture<Long> encode(RenderedImage image, Object output) {
+		if (image == null) {
+			throw new IllegalArgumentException("image == null!");
+		} else if (output == null) {
+			throw new IllegalArgumentException("output == null!");
+		}
+
+		AbortableFuture<Long> future = new AbortableFuture<>();
+		submit(future, () -> runEncode(image, output, future));
+		return future;
+	}
+
+	private void submit(CompletableFuture<?> future, Runnable task) {
+		try {
+			executor.execute(task);
+		} catch (RejectedExecutionException ex) {
+			future.completeExceptionally(ex);
+		}
+	}
+
+	@SuppressWarnings("OverlyBroadCatchBlock")
+	private void runDecode(Object input, AbortableFuture<BufferedImage> future) {
+		if (future.isDone()) {
+			return; // Cancelled before it started
+		}
+
+		QOIImageReader reader = codec.borrowReader();
+		try {
+			reader.addIIOReadProgressListener(future);
+			future.attach(reader);
+			future.complete(QOICodec.decode(reader, input));
+		} catch (Throwable ex) {
+			future.completeExceptionally(ex);
+		} finally {
+			future.detach();
+			codec.returnReader(reader);
+		}
+	}
+
+	@SuppressWarnings("OverlyBroadCatchBlock")
+	private void runEncode(RenderedImage image, Object output, AbortableFuture<Long> future) {
+		if (future.isDone()) {
+			return; // Cancelled before it started
+		}
+
+		QOIImageWriter writer = codec.borrowWriter();
+		try {
+			writer.addIIOWriteProgressListener(future);
+			future.attach(writer);
+			QOICodec.encode(writer, image, output);
+			future.complete(writer.getBytesWritten());
+		} catch (Throwable ex) {
+			future.completeExceptionally(ex);
+		} finally {
+			future.detach();
+			codec.returnWriter(writer);
+		}
+	}
+
+	/**
+	 * A future that aborts the reader or writer working on it when cancelled.
+	 * <p>
+	 * The reader or writer is detached before it goes back to the pool, under the same lock as aborting, so a late
+	 * cancellation can never abort an unrelated task.
+	 */
+	private static final class AbortableFuture<T> extends CompletableFuture<T>
+			implements IIOReadProgressListener, IIOWriteProgressListener {
+		private final Object lock = new Object();
+
+		private ImageReader reader = null;
+		private ImageWriter writer = null;
+
+		void attach(ImageReader reader) {
+			synchronized (lock) {
+				this.reader = reader;
+			}
+		}
+
+		void attach(ImageWriter writer) {
+			synchronized (lock) {
+				this.writer = writer;
+			}
+		}
+
+		void detach() {
+			synchronized (lock) {
+				reader = null;
+				writer = null;
+			}
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			boolean cancelled = super.cancel(mayInterruptIfRunning);
+
+			if (cancelled) {
+				synchronized (lock) {
+					if (reader != null) {
+						reader.abort();
+					}
+					if (writer != null) {
+						writer.abort();
+					}
+				}
+			}
+
+			return cancelled;
+		}
+
+		// Reading and writing clear abort requests when starting, so a cancellation before that has to be repeated
+
+		@Override
+		public void imageStarted(ImageReader source, int imageIndex) {
+			if (isCancelled()) {
+				source.abort();
+			}
+		}
+
+		@Override
+		public void imageStarted(ImageWriter source, int imageIndex) {
+			if (isCancelled()) {
+				source.abort();
+			}
+		}
+
+		@Override
+		public void sequenceStarted(ImageReader source, int minIndex) {
+		}
+
+		@Override
+		public void sequenceComplete(ImageReader source) {
+		}
+
+		@Override
+		public void imageProgress(ImageReader source, float percentageDone) {
+		}
+
+		@Override
+		public void imageComplete(ImageReader source) {
+		}
+
+		@Override
+		public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+		}
+
+		@Override
+		public void thumbnailProgress(ImageReader source, float percentageDone) {
+		}
+
+		@Override
+		public void thumbnailComplete(ImageReader source) {
+		}
+
+		@Override
+		public void readAborted(ImageReader source) {
+		}
+
+		@Override
+		public void imageProgress(ImageWriter source, float percentageDone) {
+		}
+
+		@Override
+		public void imageComplete(ImageWriter source) {
+		}
+
+		@Override
+		public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) {
+		}
+
+		@Override
+		public void thumbnailProgress(ImageWriter source, float percentageDone) {
+		}
+
+		@Override
+		public void thumbnailComplete(ImageWriter source) {
+		}
+
+		@Override
+		public void writeAborted(ImageWriter source) {
+		}
+	}
+
+	/**
+	 * Creates the default executor on first use only.
+	 */
+	private static final class DefaultExecutorHolder {
+		static final Executor EXECUTOR = createDefaultExecutor();
+
+		private static Executor createDefaultExecutor() {
+			try {
+				// Java 21+, looked up reflectively so this also compiles and runs on older versions
+				Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+				return (Executor)method.invoke(null);
+			} catch (ReflectiveOperationException ignored) {
+				return Executors.newCachedThreadPool(runnable -> {
+					Thread thread = new Thread(runnable, "QOI async codec");
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+		}
+	}
+}
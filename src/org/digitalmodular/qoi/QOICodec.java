@@ -0,0 +1,311 @@
+package org.digitalmodular.qoi;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import javax.imageio.IIOException;
+
+/**
+ * Thread-safe facade for decoding and encoding QOI images, for servers and other code that encodes or decodes from
+ * many threads.
+ * <p>
+ * {@link QOIImageReader} and {@link QOIImageWriter} instances are single-threaded, and creating them for every image
+ * also allocates their scratch buffers every time. This class keeps a bounded pool of idle readers and writers, which
+ * are borrowed without locking. When the pool is empty a new instance is created, and when it's full a returned
+ * instance is disposed of, so the pool never blocks.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+public final class QOICodec {
+	/**
+	 * Encoding to {@code byte[]} starts with a buffer of at most this size, which grows as needed. Nothing is kept
+	 * between calls, so a burst of large images doesn't keep their memory allocated in the pool.
+	 */
+	private static final int INITIAL_OUTPUT_SIZE = 64 << 10;
+
+	private final QOIImageReaderSpi readerSpi = new QOIImageReaderSpi();
+	private final QOIImageWriterSpi writerSpi = new QOIImageWriterSpi();
+
+	private final Pool<QOIImageReader> readers;
+	private final Pool<QOIImageWriter> writers;
+
+	// Usage counters
+	private final LongAdder decodeCount     = new LongAdder();
+	private final LongAdder encodeCount     = new LongAdder();
+	private final LongAdder readersCreated  = new LongAdder();
+	private final LongAdder writersCreated  = new LongAdder();
+	private final LongAdder discardedToPool = new LongAdder();
+
+	/**
+	 * Creates a codec that keeps up to two idle readers and writers per available processor.
+	 */
+	public QOICodec() {
+		this(Runtime.getRuntime().availableProcessors() * 2);
+	}
+
+	/**
+	 * @param maxPoolSize the maximum number of idle readers, and separately of idle writers, to keep.
+	 */
+	public QOICodec(int maxPoolSize) {
+		if (maxPoolSize < 1) {
+			throw new IllegalArgumentException("maxPoolSize < 1!");
+		}
+
+		readers = new Pool<>(maxPoolSize);
+		writers = new Pool<>(maxPoolSize);
+	}
+
+	public BufferedImage decode(byte[] data) throws IIOException {
+		if (data == null) {
+			throw new IllegalArgumentException("data == null!");
+		}
+
+		return decode(new ByteArrayInputStream(data));
+	}
+
+	/**
+	 * Decodes the first image from the input.
+	 *
+	 * @param input any input type accepted by {@link QOIImageReader#setInput(Object, boolean, boolean)}
+	 */
+	public BufferedImage decode(Object input) throws IIOException {
+		if (input == null) {
+			throw new IllegalArgumentException("input == null!");
+		}
+
+		QOIImageReader reader = borrowReader();
+		try {
+			return decode(reader, input);
+		} finally {
+			returnReader(reader);
+		}
+	}
+
+	static BufferedImage decode(QOIImageReader reader, Object input) throws IIOException {
+		reader.setInput(input, true, true);
+		try {
+			return reader.read(0);
+		} catch (IIOException ex) {
+			throw ex;
+		} catch (IOException ex) {
+			throw new IIOException("I/O error reading QOI image", ex);
+		}
+	}
+
+	/**
+	 * Encodes the image to a new array of exactly the encoded size.
+	 */
+	public byte[] encode(RenderedImage image) throws IIOException {
+		if (image == null) {
+			throw new IllegalArgumentException("image == null!");
+		}
+
+		int  channels = image.getColorModel().hasAlpha() ? 4 : 3;
+		long maxSize  = QOIImageWriter.getMaxEncodedSize(image.getWidth(), image.getHeight(), channels);
+
+		QOIImageWriter writer = borrowWriter();
+		try {
+			GrowingOutput out = new GrowingOutput((int)Math.min(maxSize, INITIAL_OUTPUT_SIZE));
+			encode(writer, image, out);
+			return out.toByteArray();
+		} finally {
+			returnWriter(writer);
+		}
+	}
+
+	/**
+	 * Encodes the image to the output.
+	 *
+	 * @param output any output type accepted by {@link QOIImageWriter#setOutput(Object)}
+	 * @return the number of bytes written.
+	 */
+	public long encode(RenderedImage image, Object output) throws IIOException {
+		if (image == null) {
+			throw new IllegalArgumentException("image == null!");
+		} else if (output == null) {
+			throw new IllegalArgumentException("output == null!");
+		}
+
+		QOIImageWriter writer = borrowWriter();
+		try {
+			encode(writer, image, output);
+			return writer.getBytesWritten();
+		} finally {
+			returnWriter(writer);
+		}
+	}
+
+	static void encode(QOIImageWriter writer, RenderedImage image, Object output) throws IIOException {
+		writer.setOutput(output);
+		try {
+			writer.write(image);
+		} catch (IIOException ex) {
+			throw ex;
+		} catch (IOException ex) {
+			throw new IIOException("I/O error writing QOI image", ex);
+		}
+	}
+
+	/** @return the number of {@code decode} calls so far. */
+	public long getDecodeCount() {
+		return decodeCount.sum();
+	}
+
+	/** @return the number of {@code encode} calls so far. */
+	public long getEncodeCount() {
+		return encodeCount.sum();
+	}
+
+	/** @return the number of readers created because the pool was empty. */
+	public long getReadersCreated() {
+		return readersCreated.sum();
+	}
+
+	/** @return the number of writers created because the pool was empty. */
+	public long getWritersCreated() {
+		return writersCreated.sum();
+	}
+
+	/** @return the number of readers and writers discarded because the pool was full. */
+	public long getDiscardedCount() {
+		return discardedToPool.sum();
+	}
+
+	QOIImageReader borrowReader() {
+		decodeCount.increment();
+
+		QOIImageReader reader = readers.poll();
+		if (reader == null) {
+			readersCreated.increment();
+			reader = (QOIImageReader)readerSpi.createReaderInstance(null);
+		}
+
+		return reader;
+	}
+
+	void returnReader(QOIImageReader reader) {
+		// Don't keep the input or the last decoded image alive
+		reader.setInput(null);
+		reader.removeAllIIOReadProgressListeners();
+
+		if (!readers.offer(reader)) {
+			discardedToPool.increment();
+			// Frees the native memory of its Inflater now instead of when it's collected
+			reader.dispose();
+		}
+	}
+
+	QOIImageWriter borrowWriter() {
+		encodeCount.increment();
+
+		QOIImageWriter writer = writers.poll();
+		if (writer == null) {
+			writersCreated.increment();
+			writer = (QOIImageWriter)writerSpi.createWriterInstance(null);
+		}
+
+		return writer;
+	}
+
+	void returnWriter(QOIImageWriter writer) {
+		writer.setOutput(null);
+		writer.removeAllIIOWriteProgressListeners();
+
+		if (!writers.offer(writer)) {
+			discardedToPool.increment();
+			writer.dispose();
+		}
+	}
+
+	/**
+	 * A channel collecting everything written to it in an array that grows as needed.
+	 */
+	private static final class GrowingOutput implements WritableByteChannel {
+		private byte[] array;
+		private int    size = 0;
+
+		GrowingOutput(int initialSize) {
+			array = new byte[initialSize];
+		}
+
+		@Override
+		public int write(ByteBuffer src) {
+			int length = src.remaining();
+			if (array.length - size < length) {
+				long newLength = Math.max(array.length * 2L, (long)size + length);
+				if (newLength > Integer.MAX_VALUE - 8) {
+					throw new OutOfMemoryError("Encoded image too large for an array");
+				}
+
+				array = Arrays.copyOf(array, (int)newLength);
+			}
+
+			src.get(array, size, length);
+			size += length;
+			return length;
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(array, size);
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Lock-free bounded pool. Every slot is claimed and released with a single compare-and-set. Threads start probing
+	 * at different slots to reduce contention.
+	 */
+	private static final class Pool<T> {
+		private final AtomicReferenceArray<T> slots;
+
+		Pool(int size) {
+			slots = new AtomicReferenceArray<>(size);
+		}
+
+		T poll() {
+			int size  = slots.length();
+			int start = probeStart(size);
+			for (int i = 0; i < size; i++) {
+				int index = (start + i) % size;
+				T   item  = slots.get(index);
+				if (item != null && slots.compareAndSet(index, item, null)) {
+					return item;
+				}
+			}
+
+			return null;
+		}
+
+		boolean offer(T item) {
+			int size  = slots.length();
+			int start = probeStart(size);
+			for (int i = 0; i < size; i++) {
+				int index = (start + i) % size;
+				if (slots.get(index) == null && slots.compareAndSet(index, null, item)) {
+					return true;
+				}
+			}
+
+			return false;
+		}
+
+		private static int probeStart(int size) {
+			return (int)(Thread.currentThread().getId() % size);
+		}
+	}
+}
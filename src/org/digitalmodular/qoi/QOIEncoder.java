@@ -0,0 +1,700 @@
+package org.digitalmodular.qoi;
+
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import javax.imageio.IIOException;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * The QOI encoder state machine and its output buffering, shared by the writers. Pixels are fed one at a time, so
+ * callers are free to produce them in any way, as long as it's in raster order.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+final class QOIEncoder {
+	// The output, depending on its type, exactly one of these is set
+	private ImageOutputStream   stream     = null;
+	private WritableByteChannel channel    = null;
+	private ByteBuffer          byteBuffer = null;
+	private byte[]              byteArray  = null;
+
+	// Output buffering
+	private final byte[]     ownBuffer     = new byte[8192];
+	private final ByteBuffer ownByteBuffer = ByteBuffer.wrap(ownBuffer);
+	/** Either {@link #ownBuffer} or the array behind the output */
+	private       byte[]     buffer        = ownBuffer;
+	/** Start of the data in the buffer that is not yet flushed */
+	private       int        bufferStart   = 0;
+	private       int        bufferPos     = 0;
+	private       int        bufferLimit   = 0;
+	/** Whether the buffer is the output itself, so flushing only has to update the bookkeeping */
+	private       boolean    directOutput  = false;
+	/** Number of bytes passed from the buffer to the output (or discarded if {@code sizeOnly}) */
+	private       long       bytesFlushed  = 0;
+	/** When set, the encoder only counts bytes, and nothing is written to the output */
+	private       boolean    sizeOnly      = false;
+	/** Write position in {@code byte[]} output, when not writing into it directly */
+	private       int        arrayPos      = 0;
+	/** Number of bytes of the image that were already in the output when resuming it from a snapshot */
+	private       long       imageOffset   = 0;
+
+	// Second stage compression
+	/** When set, everything after the magic is compressed with this */
+	private Deflater   deflater          = null;
+	private byte[]     deflateBuffer     = null;
+	private ByteBuffer deflateByteBuffer = null;
+
+	// QOI encoder state
+	private       byte     lastR          = 0;
+	private       byte     lastG          = 0;
+	private       byte     lastB          = 0;
+	private       byte     lastA          = (byte)255;
+	private       int      repeatCount    = 0;
+	private final byte[][] colorHashTable = new byte[64][4];
+	/** See {@link #setMaxError(int)} */
+	private       int      maxError       = 0;
+
+	// Delta frames
+	/** When set, every pixel is recorded here as ARGB as it will be decoded, to encode the next frame against */
+	private int[] currentFrame  = null;
+	/** When set, pixels are encoded as the difference with the pixel at the same position in this frame */
+	private int[] previousFrame = null;
+	private int   framePos      = 0;
+
+	// Bulk encoding
+	/** See {@link #encodePixels(int[], int, int, boolean)} */
+	private final QOIPrepass prepass     = QOIPrepass.getInstance();
+	/** The output of the prepass, grown as needed */
+	private       int[]      prepassInfo = null;
+
+	/**
+	 * @throws IllegalArgumentException if the output is not an {@link ImageOutputStream}, {@code byte[]},
+	 *                                  {@link ByteBuffer} or {@link WritableByteChannel}.
+	 */
+	void setOutput(Object output) {
+		stream = null;
+		channel = null;
+		byteBuffer = null;
+		byteArray = null;
+
+		if (output == null) {
+			return;
+		} else if (output instanceof ImageOutputStream) {
+			stream = (ImageOutputStream)output;
+		} else if (output instanceof byte[]) {
+			byteArray = (byte[])output;
+		} else if (output instanceof ByteBuffer) {
+			byteBuffer = (ByteBuffer)output;
+		} else if (output instanceof WritableByteChannel) {
+			channel = (WritableByteChannel)output;
+		} else {
+			throw new IllegalArgumentException(
+					"output not an ImageOutputStream, byte[], ByteBuffer or WritableByteChannel!");
+		}
+	}
+
+	boolean isSizeOnly() {
+		return sizeOnly;
+	}
+
+	void setSizeOnly(boolean sizeOnly) {
+		this.sizeOnly = sizeOnly;
+	}
+
+	/**
+	 * Sets whether the following images are compressed, which takes effect at the next {@link #prepareBuffer(int)}.
+	 * Compressed images are written as the magic {@code "qoiz"} followed by the Deflate-compressed QOI file.
+	 *
+	 * @param deflater the deflater to compress with, or {@code null} to write plain QOI.
+	 */
+	void setDeflater(Deflater deflater) {
+		this.deflater = deflater;
+
+		if (deflater != null && deflateBuffer == null) {
+			deflateBuffer = new byte[ownBuffer.length];
+			deflateByteBuffer = ByteBuffer.wrap(deflateBuffer);
+		}
+	}
+
+	/**
+	 * @return the number of bytes written since the last {@link #prepareBuffer(int)}.
+	 */
+	long getBytesFlushed() {
+		return bytesFlushed;
+	}
+
+	/**
+	 * Prepares writing straight into the output when it's backed by an accessible array, or into the own buffer
+	 * otherwise (including when compressing).
+	 *
+	 * @param arrayStart where to start writing in {@code byte[]} output
+	 */
+	void prepareBuffer(int arrayStart) {
+		arrayPos = arrayStart;
+
+		if (deflater != null) {
+			buffer = ownBuffer;
+			bufferStart = 0;
+			bufferLimit = ownBuffer.length;
+			directOutput = false;
+		} else if (!sizeOnly && byteArray != null) {
+			buffer = byteArray;
+			bufferStart = arrayStart;
+			bufferLimit = byteArray.length;
+			directOutput = true;
+		} else if (!sizeOnly && byteBuffer != null && byteBuffer.hasArray()) {
+			buffer = byteBuffer.array();
+			bufferStart = byteBuffer.arrayOffset() + byteBuffer.position();
+			bufferLimit = byteBuffer.arrayOffset() + byteBuffer.limit();
+			directOutput = true;
+		} else {
+			buffer = ownBuffer;
+			bufferStart = 0;
+			bufferLimit = ownBuffer.length;
+			directOutput = false;
+		}
+
+		bufferPos = bufferStart;
+		bytesFlushed = 0;
+	}
+
+	/**
+	 * Sets up recording the pixels of the following images, and optionally encoding them as the difference with a
+	 * previous image. Differences are per channel, modulo 256, so unchanged pixels encode as runs of zero. Both arrays
+	 * must hold at least as many pixels as the images, and must not be the same array. Differences are always encoded
+	 * losslessly, regardless of {@link #setMaxError(int)}.
+	 *
+	 * @param currentFrame  where to record the pixels as ARGB, or {@code null} to stop recording.
+	 * @param previousFrame the pixels to subtract, or {@code null} to encode the pixels themselves. Requires a
+	 *                      {@code currentFrame}.
+	 */
+	void setFrames(int[] currentFrame, int[] previousFrame) {
+		this.currentFrame = currentFrame;
+		this.previousFrame = previousFrame;
+	}
+
+	/**
+	 * Sets the largest difference per color channel between a pixel and how it's encoded. When non-zero, a pixel is
+	 * replaced with a color within that tolerance that encodes to a smaller op, if there is one: the previous pixel
+	 * (extending a run), the color in the hash table (an index), or the nearest color reachable with a difference op.
+	 * Tolerances are measured against the pixel as the decoder reconstructs it, so errors never accumulate. Alpha is
+	 * always exact.
+	 */
+	void setMaxError(int maxError) {
+		this.maxError = maxError;
+	}
+
+	/**
+	 * Resets the encoder state and writes the QOI header, preceded by the compression magic when compressing.
+	 */
+	void startImage(int width, int height, int channels, int colorSpace) throws IOException {
+		if (deflater != null) {
+			deflater.reset();
+
+			// The magic itself is not compressed
+			deflateBuffer[0] = (byte)(QOIImageWriter.QOI_DEFLATE_MAGIC >> 24);
+			deflateBuffer[1] = (byte)(QOIImageWriter.QOI_DEFLATE_MAGIC >> 16);
+			deflateBuffer[2] = (byte)(QOIImageWriter.QOI_DEFLATE_MAGIC >> 8);
+			deflateBuffer[3] = (byte)QOIImageWriter.QOI_DEFLATE_MAGIC;
+			writeOutput(deflateBuffer, deflateByteBuffer, 4);
+		}
+
+
+		imageOffset = 0;
+		repeatCount = 0;
+		lastR = 0;
+		lastG = 0;
+		lastB = 0;
+		lastA = (byte)255;
+		framePos = 0;
+
+		for (byte[] entry : colorHashTable) {
+			Arrays.fill(entry, (byte)0);
+		}
+
+		ensureBufferSpace(QOIImageWriter.HEADER_SIZE);
+
+		putInt(QOIImageWriter.QOI_MAGIC);
+		putInt(width);
+		putInt(height);
+		buffer[bufferPos++] = (byte)channels;
+		buffer[bufferPos++] = (byte)colorSpace;
+	}
+
+	/**
+	 * Continues an image from a snapshot instead of starting it. The output before the snapshot is skipped, so it must
+	 * already hold the image as it was encoded up to there. {@link #getBytesFlushed()} doesn't include the skipped
+	 * bytes. Not supported when compressing or recording frames.
+	 *
+	 * @throws IIOException when the output can't skip that far, or is a channel that can't seek.
+	 */
+	void resumeImage(QOIEncoderSnapshots snapshots, int snapshot) throws IOException {
+		long offset = snapshots.getOffset(snapshot);
+		skipOutput(offset);
+
+		int lastPixel = snapshots.getLastPixel(snapshot);
+
+		imageOffset = offset;
+		repeatCount = snapshots.getRepeatCount(snapshot);
+		lastR = (byte)(lastPixel >> 16);
+		lastG = (byte)(lastPixel >> 8);
+		lastB = (byte)lastPixel;
+		lastA = (byte)(lastPixel >> 24);
+		framePos = 0;
+
+		snapshots.restoreHashTable(snapshot, colorHashTable);
+	}
+
+	/**
+	 * Records the current state, for the row about to be encoded, so encoding can later resume from there with
+	 * {@link #resumeImage(QOIEncoderSnapshots, int)}. A pending run is part of the state, and isn't written.
+	 */
+	void saveState(QOIEncoderSnapshots snapshots, int snapshot) {
+		long offset    = imageOffset + bytesFlushed + bufferPos - bufferStart;
+		int  lastPixel = (lastA & 0xFF) << 24 | (lastR & 0xFF) << 16 | (lastG & 0xFF) << 8 | lastB & 0xFF;
+		snapshots.save(snapshot, offset, lastPixel, repeatCount, colorHashTable);
+	}
+
+	/**
+	 * Ends the last run, writes the QOI footer, and flushes everything to the output.
+	 */
+	void endImage() throws IOException {
+		if (repeatCount > 0) {
+			saveOpRun();
+		}
+
+		ensureBufferSpace(QOIImageWriter.FOOTER_SIZE);
+
+		// The stream's end marker (I have no idea why this exists)
+		buffer[bufferPos++] = 0x00;
+		buffer[bufferPos++] = 0x00;
+		buffer[bufferPos++] = 0x00;
+		buffer[bufferPos++] = 0x00;
+		buffer[bufferPos++] = 0x00;
+		buffer[bufferPos++] = 0x00;
+		buffer[bufferPos++] = 0x00;
+		buffer[bufferPos++] = 0x01;
+
+		flushBuffer();
+
+		if (deflater != null) {
+			deflater.finish();
+			while (!deflater.finished()) {
+				writeOutput(deflateBuffer, deflateByteBuffer, deflater.deflate(deflateBuffer));
+			}
+		}
+	}
+
+	/**
+	 * Cuts off channel output that has old data after the current position, when it's a {@link SeekableByteChannel}.
+	 * Other outputs are left as they are.
+	 */
+	void truncateOutput() throws IOException {
+		if (!sizeOnly && channel instanceof SeekableByteChannel) {
+			SeekableByteChannel seekableChannel = (SeekableByteChannel)channel;
+			seekableChannel.truncate(seekableChannel.position());
+		}
+	}
+
+	/**
+	 * Writes a big-endian int outside of image data, e.g. for container indices.
+	 */
+	void writeInt(int value) throws IOException {
+		ensureBufferSpace(4);
+		putInt(value);
+	}
+
+	private void putInt(int value) {
+		buffer[bufferPos++] = (byte)(value >> 24);
+		buffer[bufferPos++] = (byte)(value >> 16);
+		buffer[bufferPos++] = (byte)(value >> 8);
+		buffer[bufferPos++] = (byte)value;
+	}
+
+	void encodeColor(byte r, byte g, byte b, byte a) throws IOException {
+		if (previousFrame != null) {
+			currentFrame[framePos] = ((a << 8 | r & 0xFF) << 8 | g & 0xFF) << 8 | b & 0xFF;
+
+			int previous = previousFrame[framePos++];
+			r -= (byte)(previous >> 16);
+			g -= (byte)(previous >> 8);
+			b -= (byte)previous;
+			a -= (byte)(previous >> 24);
+		} else if (maxError != 0) {
+			encodeNearLosslessColor(r & 0xFF, g & 0xFF, b & 0xFF, a);
+
+			if (currentFrame != null) {
+				currentFrame[framePos++] = ((lastA << 8 | lastR & 0xFF) << 8 | lastG & 0xFF) << 8 | lastB & 0xFF;
+			}
+
+			return;
+		} else if (currentFrame != null) {
+			currentFrame[framePos++] = ((a << 8 | r & 0xFF) << 8 | g & 0xFF) << 8 | b & 0xFF;
+		}
+
+		@SuppressWarnings("OverlyComplexArithmeticExpression")
+		int hash = (r * 3 + g * 5 + b * 7 + a * 11) & 0b00111111;
+
+		encodeLosslessColor(r, g, b, a, hash, lastR == r && lastG == g && lastB == b && lastA == a);
+	}
+
+	/**
+	 * Encodes a number of pixels, given as ARGB. This is equivalent to calling
+	 * {@link #encodeColor(byte, byte, byte, byte)} for each of them, but when a {@link QOIPrepass} is available, the
+	 * pixels are first hashed and compared with their predecessor in bulk.
+	 *
+	 * @param opaque whether to ignore the alpha bits and encode the pixels as opaque
+	 */
+	void encodePixels(int[] pixels, int offset, int count, boolean opaque) throws IOException {
+		int alpha = opaque ? 0xFF000000 : 0;
+
+		if (prepass == null || previousFrame != null || currentFrame != null || maxError != 0) {
+			for (int i = offset; i < offset + count; i++) {
+				int pixel = pixels[i] | alpha;
+				encodeColor((byte)(pixel >> 16), (byte)(pixel >> 8), (byte)pixel, (byte)(pixel >> 24));
+			}
+
+			return;
+		}
+
+		if (prepassInfo == null || prepassInfo.length < count) {
+			prepassInfo = new int[count];
+		}
+
+		int previous = ((lastA << 8 | lastR & 0xFF) << 8 | lastG & 0xFF) << 8 | lastB & 0xFF;
+		prepass.prepare(pixels, offset, count, previous, alpha, prepassInfo);
+
+		for (int i = 0; i < count; i++) {
+			int pixel = pixels[offset + i] | alpha;
+			int info  = prepassInfo[i];
+			encodeLosslessColor((byte)(pixel >> 16), (byte)(pixel >> 8), (byte)pixel, (byte)(pixel >> 24),
+			                    info & 0b00111111, (info & QOIPrepass.SAME_AS_PREVIOUS) != 0);
+		}
+	}
+
+	/**
+	 * The lossless part of {@link #encodeColor(byte, byte, byte, byte)}.
+	 *
+	 * @param hash   the hash of the color
+	 * @param repeat whether the color is the same as the previous one
+	 */
+	private void encodeLosslessColor(byte r, byte g, byte b, byte a, int hash, boolean repeat) throws IOException {
+		if (repeat) {
+			repeatCount++;
+			if (repeatCount == 62) {
+				saveOpRun();
+			}
+		} else {
+			if (repeatCount != 0) {
+				saveOpRun();
+			}
+
+			if (colorHashTable[hash][0] == r && colorHashTable[hash][1] == g &&
+			    colorHashTable[hash][2] == b && colorHashTable[hash][3] == a) {
+				saveOpIndex((byte)hash);
+			} else if (lastA != a) {
+				saveOpRGBA(r, g, b, a);
+			} else {
+				byte dr = (byte)(r - lastR);
+				byte dg = (byte)(g - lastG);
+				byte db = (byte)(b - lastB);
+
+				if (dg >= -2 && dg < 2 && // Ordered by largest chance to fail this test
+				    dr >= -2 && dr < 2 &&
+				    db >= -2 && db < 2) {
+					saveOpDiff(dr, dg, db);
+				} else {
+					//        // dg is now dy (Y in YUV)
+					dr -= dg; // dr is now du (U in YUV)
+					db -= dg; // db is now dv (V in YUV)
+
+					if (dr >= -8 && dr < 8 && // Ordered by largest chance to fail this test
+					    db >= -8 && db < 8 &&
+					    dg >= -32 && dg < 32) {
+						saveOpLuma(dg, dr, db);
+					} else {
+						saveOpRGB(r, g, b);
+					}
+				}
+			}
+		}
+
+		lastR = r;
+		lastG = g;
+		lastB = b;
+		lastA = a;
+
+		colorHashTable[hash][0] = r;
+		colorHashTable[hash][1] = g;
+		colorHashTable[hash][2] = b;
+		colorHashTable[hash][3] = a;
+	}
+
+	/**
+	 * Encodes the smallest op that produces a color within {@link #maxError} of the given (unsigned) color, in order
+	 * of preference: a run, an index, a diff, a luma, or the exact color. This is the counterpart of the lossless part
+	 * of {@link #encodeColor(byte, byte, byte, byte)}, which it's equivalent to when the tolerance is 0.
+	 */
+	@SuppressWarnings({"OverlyComplexMethod", "OverlyLongMethod"})
+	private void encodeNearLosslessColor(int r, int g, int b, byte a) throws IOException {
+		// Each candidate is tested with a single branch, as noisy content makes the outcomes unpredictable
+		int lr = lastR & 0xFF;
+		int lg = lastG & 0xFF;
+		int lb = lastB & 0xFF;
+
+		@SuppressWarnings("OverlyComplexArithmeticExpression")
+		int hash = (r * 3 + g * 5 + b * 7 + a * 11) & 0b00111111;
+
+		if (a == lastA && error(r - lr, g - lg, b - lb) <= maxError) {
+			repeatCount++;
+			if (repeatCount == 62) {
+				saveOpRun();
+			}
+
+			// Like the lossless encoder, which matters for a run at the start of the image
+			recordHash(lastR, lastG, lastB, a);
+			return;
+		}
+
+		if (repeatCount != 0) {
+			saveOpRun();
+		}
+
+		// An entry that isn't at its own hash is a never-written (0,0,0,0) slot. A decoder following the spec stores
+		// every decoded color at the hash of that color, so using one would desynchronize its table from ours.
+		byte[] entry = colorHashTable[hash];
+		if (entry[3] == a && hashOf(entry[0], entry[1], entry[2], entry[3]) == hash &&
+		    error(r - (entry[0] & 0xFF), g - (entry[1] & 0xFF), b - (entry[2] & 0xFF)) <= maxError) {
+			saveOpIndex((byte)hash);
+			lastR = entry[0];
+			lastG = entry[1];
+			lastB = entry[2];
+			lastA = a;
+			return;
+		}
+
+		if (a == lastA) {
+			// Differences as the decoder sees them (modulo 256)
+			int dr = (byte)(r - lr);
+			int dg = (byte)(g - lg);
+			int db = (byte)(b - lb);
+
+			int cr = clamp(dr, -2, 1);
+			int cg = clamp(dg, -2, 1);
+			int cb = clamp(db, -2, 1);
+			int nr = lr + cr & 0xFF;
+			int ng = lg + cg & 0xFF;
+			int nb = lb + cb & 0xFF;
+			if (error(r - nr, g - ng, b - nb) <= maxError) {
+				saveOpDiff((byte)cr, (byte)cg, (byte)cb);
+				setLastAndRecordHash((byte)nr, (byte)ng, (byte)nb, a);
+				return;
+			}
+
+			int dy = clamp(dg, -32, 31);
+			int du = clamp(dr - dy, -8, 7);
+			int dv = clamp(db - dy, -8, 7);
+			nr = lr + dy + du & 0xFF;
+			ng = lg + dy & 0xFF;
+			nb = lb + dy + dv & 0xFF;
+			if (error(r - nr, g - ng, b - nb) <= maxError) {
+				saveOpLuma((byte)dy, (byte)du, (byte)dv);
+				setLastAndRecordHash((byte)nr, (byte)ng, (byte)nb, a);
+				return;
+			}
+
+			saveOpRGB((byte)r, (byte)g, (byte)b);
+		} else {
+			saveOpRGBA((byte)r, (byte)g, (byte)b, a);
+		}
+
+		setLastAndRecordHash((byte)r, (byte)g, (byte)b, a);
+	}
+
+	private void setLastAndRecordHash(byte r, byte g, byte b, byte a) {
+		lastR = r;
+		lastG = g;
+		lastB = b;
+		lastA = a;
+		recordHash(r, g, b, a);
+	}
+
+	private void recordHash(byte r, byte g, byte b, byte a) {
+		int hash = hashOf(r, g, b, a);
+		colorHashTable[hash][0] = r;
+		colorHashTable[hash][1] = g;
+		colorHashTable[hash][2] = b;
+		colorHashTable[hash][3] = a;
+	}
+
+	@SuppressWarnings("OverlyComplexArithmeticExpression")
+	private static int hashOf(byte r, byte g, byte b, byte a) {
+		return (r * 3 + g * 5 + b * 7 + a * 11) & 0b00111111;
+	}
+
+	/**
+	 * @return the largest absolute difference.
+	 */
+	private static int error(int dr, int dg, int db) {
+		return Math.max(Math.abs(dr), Math.max(Math.abs(dg), Math.abs(db)));
+	}
+
+	private static int clamp(int value, int min, int max) {
+		return Math.max(min, Math.min(value, max));
+	}
+
+	@SuppressWarnings("ValueOfIncrementOrDecrementUsed")
+	private void saveOpRGBA(byte r, byte g, byte b, byte a) throws IOException {
+		ensureBufferSpace(5);
+		buffer[bufferPos++] = (byte)QOIImageWriter.QOI_OP_RGBA;
+		buffer[bufferPos++] = r;
+		buffer[bufferPos++] = g;
+		buffer[bufferPos++] = b;
+		buffer[bufferPos++] = a;
+	}
+
+	@SuppressWarnings("ValueOfIncrementOrDecrementUsed")
+	private void saveOpRGB(byte r, byte g, byte b) throws IOException {
+		ensureBufferSpace(4);
+		buffer[bufferPos++] = (byte)QOIImageWriter.QOI_OP_RGB;
+		buffer[bufferPos++] = r;
+		buffer[bufferPos++] = g;
+		buffer[bufferPos++] = b;
+	}
+
+	private void saveOpRun() throws IOException {
+		ensureBufferSpace(1);
+		buffer[bufferPos++] = (byte)(QOIImageWriter.QOI_OP_RUN | (repeatCount - 1));
+		repeatCount = 0;
+	}
+
+	@SuppressWarnings("ValueOfIncrementOrDecrementUsed")
+	private void saveOpLuma(byte dy, byte du, byte dv) throws IOException {
+		ensureBufferSpace(2);
+		buffer[bufferPos++] = (byte)(QOIImageWriter.QOI_OP_LUMA | (dy + 32));
+		buffer[bufferPos++] = (byte)((du + 8) << 4 | (dv + 8));
+	}
+
+	private void saveOpDiff(byte dr, byte dg, byte db) throws IOException {
+		ensureBufferSpace(1);
+		buffer[bufferPos++] = (byte)(QOIImageWriter.QOI_OP_DIFF | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
+	}
+
+	private void saveOpIndex(byte index) throws IOException {
+		ensureBufferSpace(1);
+		buffer[bufferPos++] = (byte)(QOIImageWriter.QOI_OP_INDEX | index);
+	}
+
+	private void ensureBufferSpace(int size) throws IOException {
+		if (bufferPos > bufferLimit - size) {
+			if (directOutput) {
+				throw new IIOException("Output buffer too small!");
+			}
+
+			flushBuffer();
+		}
+	}
+
+	void flushBuffer() throws IOException {
+		int length = bufferPos - bufferStart;
+
+		if (directOutput) {
+			bytesFlushed += length;
+			if (byteBuffer != null) {
+				byteBuffer.position(bufferPos - byteBuffer.arrayOffset());
+			}
+
+			bufferStart = bufferPos;
+			return;
+		}
+
+		if (deflater != null) {
+			// Own buffer, so bufferStart is 0
+			deflater.setInput(buffer, 0, length);
+			while (!deflater.needsInput()) {
+				writeOutput(deflateBuffer, deflateByteBuffer, deflater.deflate(deflateBuffer));
+			}
+		} else {
+			writeOutput(ownBuffer, ownByteBuffer, length);
+		}
+
+		bufferStart = 0;
+		bufferPos = 0;
+	}
+
+	/**
+	 * Moves past data already in the output, without writing it. Must be called on an empty buffer.
+	 */
+	private void skipOutput(long count) throws IOException {
+		if (sizeOnly) {
+			// Nothing to skip
+		} else if (directOutput) {
+			if (bufferStart > bufferLimit - count) {
+				throw new IIOException("Output buffer too small!");
+			}
+
+			// The ByteBuffer position is updated at the next flush
+			bufferStart += (int)count;
+			bufferPos = bufferStart;
+		} else if (stream != null) {
+			stream.seek(stream.getStreamPosition() + count);
+		} else if (channel instanceof SeekableByteChannel) {
+			SeekableByteChannel seekableChannel = (SeekableByteChannel)channel;
+			seekableChannel.position(seekableChannel.position() + count);
+		} else if (channel != null) {
+			throw new IIOException("Output channel is not seekable!");
+		} else if (byteArray != null) {
+			if (arrayPos > byteArray.length - count) {
+				throw new IIOException("Output buffer too small!");
+			}
+
+			arrayPos += (int)count;
+		} else {
+			if (count > byteBuffer.remaining()) {
+				throw new IIOException("Output buffer too small!");
+			}
+
+			byteBuffer.position(byteBuffer.position() + (int)count);
+		}
+	}
+
+	/**
+	 * Writes the start of one of the own buffers to the output.
+	 *
+	 * @param wrapper the {@link ByteBuffer} wrapping {@code data}, for channel output
+	 */
+	private void writeOutput(byte[] data, ByteBuffer wrapper, int length) throws IOException {
+		bytesFlushed += length;
+
+		if (sizeOnly || length == 0) {
+			// Nothing to write
+		} else if (stream != null) {
+			stream.write(data, 0, length);
+		} else if (channel != null) {
+			wrapper.limit(length);
+			wrapper.position(0);
+			while (wrapper.hasRemaining()) {
+				channel.write(wrapper);
+			}
+		} else if (byteArray != null) {
+			if (arrayPos > byteArray.length - length) {
+				throw new IIOException("Output buffer too small!");
+			}
+
+			System.arraycopy(data, 0, byteArray, arrayPos, length);
+			arrayPos += length;
+		} else {
+			try {
+				byteBuffer.put(data, 0, length);
+			} catch (BufferOverflowException ignored) {
+				throw new IIOException("Output buffer too small!");
+			}
+		}
+	}
+}
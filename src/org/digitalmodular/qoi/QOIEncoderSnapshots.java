@@ -0,0 +1,150 @@
+package org.digitalmodular.qoi;
+
+import java.util.Arrays;
+
+/**
+ * The encoder state at regular row intervals during a {@link QOIImageWriter} write, for re-encoding only the part of
+ * an image that changed later (see {@link QOIImageWriter#rewrite(java.awt.image.RenderedImage, QOIEncoderSnapshots,
+ * int)}).
+ * <p>
+ * Every snapshot holds the position in the output, the previous pixel, the length of the run in progress, and the
+ * color hash table, as they were right before encoding the first pixel of its row. This is everything the encoder
+ * needs to continue from that row, so the output before it can be kept as is. A snapshot takes about 270 bytes.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+public final class QOIEncoderSnapshots {
+	private final int width;
+	private final int height;
+	private final int channels;
+	private final int maxError;
+	private final int rowInterval;
+
+	// Per snapshot
+	private final long[] offsets;
+	private final int[]  lastPixels;
+	private final int[]  repeatCounts;
+	/** 64 entries of 4 bytes per snapshot */
+	private final byte[] hashTables;
+
+	QOIEncoderSnapshots(int width, int height, int channels, int maxError, int rowInterval) {
+		this.width = width;
+		this.height = height;
+		this.channels = channels;
+		this.maxError = maxError;
+		this.rowInterval = rowInterval;
+
+		int numSnapshots = (height + rowInterval - 1) / rowInterval;
+		offsets = new long[numSnapshots];
+		lastPixels = new int[numSnapshots];
+		repeatCounts = new int[numSnapshots];
+		hashTables = new byte[numSnapshots * 64 * 4];
+	}
+
+	/**
+	 * Creates a copy of the first snapshots of another set, for continuing from one of them.
+	 */
+	QOIEncoderSnapshots(QOIEncoderSnapshots other, int numSnapshots) {
+		this(other.width, other.height, other.channels, other.maxError, other.rowInterval);
+
+		System.arraycopy(other.offsets, 0, offsets, 0, numSnapshots);
+		System.arraycopy(other.lastPixels, 0, lastPixels, 0, numSnapshots);
+		System.arraycopy(other.repeatCounts, 0, repeatCounts, 0, numSnapshots);
+		System.arraycopy(other.hashTables, 0, hashTables, 0, numSnapshots * 64 * 4);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	/** @return the near-lossless tolerance the image was encoded with, see {@link QOIImageWriteParam#setMaxError}. */
+	public int getMaxError() {
+		return maxError;
+	}
+
+	/** @return the number of rows from one snapshot to the next. */
+	public int getRowInterval() {
+		return rowInterval;
+	}
+
+	public int getNumSnapshots() {
+		return offsets.length;
+	}
+
+	/**
+	 * @return the row encoding resumes from when rows from {@code firstChangedRow} on changed.
+	 */
+	public int getResumeRow(int firstChangedRow) {
+		return getSnapshotIndex(firstChangedRow) * rowInterval;
+	}
+
+	/**
+	 * @return the number of bytes of the encoding before the given snapshot, which don't change when re-encoding from
+	 * there.
+	 */
+	public long getOffset(int snapshot) {
+		return offsets[snapshot];
+	}
+
+	int getSnapshotIndex(int firstChangedRow) {
+		if (firstChangedRow < 0) {
+			throw new IllegalArgumentException("firstChangedRow < 0!");
+		}
+
+		return Math.min(firstChangedRow, height - 1) / rowInterval;
+	}
+
+	/**
+	 * @return the index of the snapshot to take before encoding the given row, or -1 if none.
+	 */
+	int getSnapshotIndexForRow(int row) {
+		return row % rowInterval == 0 ? row / rowInterval : -1;
+	}
+
+	void save(int snapshot, long offset, int lastPixel, int repeatCount, byte[][] hashTable) {
+		offsets[snapshot] = offset;
+		lastPixels[snapshot] = lastPixel;
+		repeatCounts[snapshot] = repeatCount;
+
+		int p = snapshot * 64 * 4;
+		for (byte[] entry : hashTable) {
+			hashTables[p++] = entry[0];
+			hashTables[p++] = entry[1];
+			hashTables[p++] = entry[2];
+			hashTables[p++] = entry[3];
+		}
+	}
+
+	int getLastPixel(int snapshot) {
+		return lastPixels[snapshot];
+	}
+
+	int getRepeatCount(int snapshot) {
+		return repeatCounts[snapshot];
+	}
+
+	void restoreHashTable(int snapshot, byte[][] hashTable) {
+		int p = snapshot * 64 * 4;
+		for (byte[] entry : hashTable) {
+			entry[0] = hashTables[p++];
+			entry[1] = hashTables[p++];
+			entry[2] = hashTables[p++];
+			entry[3] = hashTables[p++];
+		}
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + '[' + width + 'x' + height + ", every " + rowInterval + " rows, offsets " +
+		       Arrays.toString(Arrays.copyOf(offsets, Math.min(offsets.length, 8))) + (offsets.length > 8 ? "...]" : "]");
+	}
+}
@@ -0,0 +1,255 @@
+package org.digitalmodular.qoi;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import javax.imageio.IIOException;
+
+/**
+ * The header fields of a QOI image, and a fast way to get them from files without decoding, or even creating a
+ * reader.
+ * <p>
+ * {@link #probe(FileChannel, long)} reads the 14 header bytes with a single positional read, so it doesn't move the
+ * channel's position and many threads can probe through one channel. For compressed files (see
+ * {@link QOIImageWriter#QOI_DEFLATE_MAGIC}) only the first part of the compressed data is read and inflated. For
+ * sequences, this is the header of the first image.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+public final class QOIHeader {
+	/** The colorSpace of images with sRGB color and linear alpha */
+	public static final int COLOR_SPACE_SRGB   = 0;
+	/** The colorSpace of images with all channels linear */
+	public static final int COLOR_SPACE_LINEAR = 1;
+
+	/** Compressed data to read at a time, when the header is in a compressed file */
+	private static final int COMPRESSED_CHUNK_SIZE = 64;
+
+	private final int     width;
+	private final int     height;
+	private final int     channels;
+	private final int     colorSpace;
+	private final boolean compressed;
+
+	/**
+	 * @throws IllegalArgumentException when a field has a value the QOI specification doesn't allow.
+	 */
+	public QOIHeader(int width, int height, int channels, int colorSpace, boolean compressed) {
+		if (width <= 0) {
+			throw new IllegalArgumentException("width <= 0!");
+		} else if (height <= 0) {
+			throw new IllegalArgumentException("height <= 0!");
+		} else if (channels != 3 && channels != 4) {
+			throw new IllegalArgumentException("channels must be 3 or 4!");
+		} else if (colorSpace != COLOR_SPACE_SRGB && colorSpace != COLOR_SPACE_LINEAR) {
+			throw new IllegalArgumentException("colorSpace must be 0 or 1!");
+		}
+
+		this.width = width;
+		this.height = height;
+		this.channels = channels;
+		this.colorSpace = colorSpace;
+		this.compressed = compressed;
+	}
+
+	/**
+	 * Reads the header of a QOI file.
+	 *
+	 * @throws IIOException when the file is not a QOI file.
+	 */
+	public static QOIHeader probe(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			return probe(channel, 0, ByteBuffer.allocate(COMPRESSED_CHUNK_SIZE), null);
+		}
+	}
+
+	/**
+	 * Reads the header of the QOI file that starts at the given position in the channel, without changing the
+	 * channel's position.
+	 *
+	 * @throws IIOException when there is no QOI file at the position.
+	 */
+	public static QOIHeader probe(FileChannel channel, long position) throws IOException {
+		if (channel == null) {
+			throw new IllegalArgumentException("channel == null!");
+		} else if (position < 0) {
+			throw new IllegalArgumentException("position < 0!");
+		}
+
+		return probe(channel, position, ByteBuffer.allocate(COMPRESSED_CHUNK_SIZE), null);
+	}
+
+	/**
+	 * Reads the headers of many QOI files, reusing one buffer and one inflater for all of them.
+	 *
+	 * @return the headers, in the order of the files, with {@code null} for files that could not be read or are not
+	 * QOI files.
+	 */
+	public static List<QOIHeader> probeAll(List<Path> files) {
+		if (files == null) {
+			throw new IllegalArgumentException("files == null!");
+		}
+
+		List<QOIHeader> headers = new ArrayList<>(files.size());
+
+		ByteBuffer buffer   = ByteBuffer.allocate(COMPRESSED_CHUNK_SIZE);
+		Inflater   inflater = new Inflater();
+		try {
+			for (Path file : files) {
+				try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+					headers.add(probe(channel, 0, buffer, inflater));
+				} catch (IOException ignored) {
+					headers.add(null);
+				}
+			}
+		} finally {
+			inflater.end();
+		}
+
+		return headers;
+	}
+
+	/**
+	 * @param inflater the inflater to reuse, or {@code null} to create one when needed.
+	 */
+	private static QOIHeader probe(FileChannel channel, long position, ByteBuffer buffer, Inflater inflater)
+			throws IOException {
+		buffer.clear().limit(QOIImageWriter.HEADER_SIZE);
+		readFully(channel, position, buffer);
+		buffer.flip();
+
+		int magic = buffer.getInt(0);
+		if (magic == QOIImageWriter.QOI_MAGIC) {
+			return parse(buffer, false);
+		} else if (magic != QOIImageWriter.QOI_DEFLATE_MAGIC) {
+			throw new IIOException("Bad QOIF signature (" + Integer.toString(magic, 16) + ')');
+		}
+
+		boolean ownInflater = inflater == null;
+		if (ownInflater) {
+			inflater = new Inflater();
+		} else {
+			inflater.reset();
+		}
+
+		try {
+			return parse(inflateHeader(channel, position + 4, buffer, inflater), true);
+		} finally {
+			if (ownInflater) {
+				inflater.end();
+			}
+		}
+	}
+
+	/**
+	 * Inflates compressed data from the channel, a small chunk at a time, until the header is complete.
+	 */
+	private static ByteBuffer inflateHeader(FileChannel channel, long position, ByteBuffer buffer, Inflater inflater)
+			throws IOException {
+		byte[] compressed = buffer.array();
+		byte[] header     = new byte[QOIImageWriter.HEADER_SIZE];
+		int    length     = 0;
+
+		try {
+			while (length < header.length) {
+				length += inflater.inflate(header, length, header.length - length);
+
+				if (length < header.length) {
+					if (inflater.finished()) {
+						throw new EOFException();
+					} else if (inflater.needsDictionary()) {
+						throw new IIOException("Compressed QOI data needs a preset dictionary!");
+					}
+
+					buffer.clear();
+					int count = channel.read(buffer, position);
+					if (count <= 0) {
+						throw new EOFException();
+					}
+
+					inflater.setInput(compressed, 0, count);
+					position += count;
+				}
+			}
+		} catch (DataFormatException ex) {
+			throw new IIOException("Corrupt compressed QOI data", ex);
+		}
+
+		return ByteBuffer.wrap(header);
+	}
+
+	private static void readFully(FileChannel channel, long position, ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			int count = channel.read(buffer, position);
+			if (count < 0) {
+				throw new EOFException();
+			}
+
+			position += count;
+		}
+	}
+
+	private static QOIHeader parse(ByteBuffer header, boolean compressed) throws IIOException {
+		int magic      = header.getInt(0);
+		int width      = header.getInt(4);
+		int height     = header.getInt(8);
+		int channels   = header.get(12) & 0xFF;
+		int colorSpace = header.get(13) & 0xFF;
+
+		if (magic != QOIImageWriter.QOI_MAGIC) {
+			throw new IIOException("Bad QOIF signature (" + Integer.toString(magic, 16) + ')');
+		} else if (width <= 0) {
+			throw new IIOException("Image width <= 0!");
+		} else if (height <= 0) {
+			throw new IIOException("Image height <= 0!");
+		} else if (channels != 3 && channels != 4) {
+			throw new IIOException("'channels' must be 3 or 4!");
+		} else if (colorSpace > 1) {
+			throw new IIOException("'colorSpace' 0 or 1!");
+		}
+
+		return new QOIHeader(width, height, channels, colorSpace, compressed);
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getChannels() {
+		return channels;
+	}
+
+	/**
+	 * @return {@link #COLOR_SPACE_SRGB} or {@link #COLOR_SPACE_LINEAR}.
+	 */
+	public int getColorSpace() {
+		return colorSpace;
+	}
+
+	public boolean hasAlpha() {
+		return channels == 4;
+	}
+
+	/** @return whether the image is in a compressed file, see {@link QOIImageWriter#QOI_DEFLATE_MAGIC}. */
+	public boolean isCompressed() {
+		return compressed;
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + '[' + width + 'x' + height + ", " + channels + " channels, " +
+		       (colorSpace == COLOR_SPACE_SRGB ? "sRGB" : "linear") + (compressed ? ", compressed]" : "]");
+	}
+}
@@ -0,0 +1,331 @@
+package org.digitalmodular.qoi;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.imageio.IIOException;
+
+/**
+ * Thread-safe cache of decoded QOI images, bounded by the memory the pixels take.
+ * <p>
+ * Files are identified by their path, modification time and size, so a changed file is decoded again. In-memory data
+ * is identified by its SHA-256 hash. The least recently used images are evicted when the budget is exceeded. When soft
+ * spillover is enabled, evicted images remain reachable through soft references until the garbage collector needs the
+ * memory. Concurrent requests for the same image that is not cached yet are decoded only once, and all requesters get
+ * the same result.
+ * <p>
+ * Cached images are shared between all callers, so they must not be modified.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+public final class QOIImageCache {
+	private final long     maxBytes;
+	private final boolean  softSpillover;
+	private final QOICodec codec;
+
+	/** Guarded by itself. Iteration order is least recently used first */
+	private final LinkedHashMap<Key, BufferedImage> images    = new LinkedHashMap<>(16, 0.75f, true);
+	/** Guarded by {@link #images} */
+	private       long                              usedBytes = 0;
+
+	private final Map<Key, SoftEntry>                        softImages     = new ConcurrentHashMap<>();
+	private final ReferenceQueue<BufferedImage>              clearedEntries = new ReferenceQueue<>();
+	private final Map<Key, CompletableFuture<BufferedImage>> loading        = new ConcurrentHashMap<>();
+
+	// Metrics
+	private final LongAdder hitCount      = new LongAdder();
+	private final LongAdder softHitCount  = new LongAdder();
+	private final LongAdder missCount     = new LongAdder();
+	private final LongAdder evictionCount = new LongAdder();
+
+	public QOIImageCache(long maxBytes) {
+		this(maxBytes, false, new QOICodec());
+	}
+
+	/**
+	 * @param maxBytes      the maximum total size of the pixel data of the images held strongly.
+	 * @param softSpillover whether evicted images are kept softly reachable.
+	 * @param codec         the codec to decode with.
+	 */
+	public QOIImageCache(long maxBytes, boolean softSpillover, QOICodec codec) {
+		if (maxBytes < 1) {
+			throw new IllegalArgumentException("maxBytes < 1!");
+		} else if (codec == null) {
+			throw new IllegalArgumentException("codec == null!");
+		}
+
+		this.maxBytes = maxBytes;
+		this.softSpillover = softSpillover;
+		this.codec = codec;
+	}
+
+	/**
+	 * Returns the decoded file, from the cache if the file is unchanged since it was cached.
+	 */
+	public BufferedImage get(Path file) throws IOException {
+		if (file == null) {
+			throw new IllegalArgumentException("file == null!");
+		}
+
+		Path                absoluteFile = file.toAbsolutePath().normalize();
+		BasicFileAttributes attributes   = Files.readAttributes(absoluteFile, BasicFileAttributes.class);
+		long                modified     = attributes.lastModifiedTime().toMillis();
+		Key                 key          = new Key(absoluteFile, modified, attributes.size());
+
+		return get(key, () -> {
+			try (FileChannel channel = FileChannel.open(absoluteFile, StandardOpenOption.READ)) {
+				return codec.decode(channel);
+			}
+		});
+	}
+
+	/**
+	 * Returns the decoded data, from the cache if data with the same content was decoded before.
+	 */
+	public BufferedImage get(byte[] data) throws IOException {
+		if (data == null) {
+			throw new IllegalArgumentException("data == null!");
+		}
+
+		Key key = new Key(ByteBuffer.wrap(sha256(data)), 0, data.length);
+
+		return get(key, () -> codec.decode(data));
+	}
+
+	/**
+	 * Removes all images from the cache. Loads in progress are not affected.
+	 */
+	public void clear() {
+		synchronized (images) {
+			images.clear();
+			usedBytes = 0;
+		}
+
+		softImages.clear();
+	}
+
+	/** @return the number of requests served from the cache, including ones that waited for a concurrent load. */
+	public long getHitCount() {
+		return hitCount.sum();
+	}
+
+	/** @return the number of requests served from the soft spillover, also counted as hits. */
+	public long getSoftHitCount() {
+		return softHitCount.sum();
+	}
+
+	/** @return the number of requests that needed to decode. */
+	public long getMissCount() {
+		return missCount.sum();
+	}
+
+	/** @return the number of images evicted to stay within the budget. */
+	public long getEvictionCount() {
+		return evictionCount.sum();
+	}
+
+	/** @return the total size of the pixel data of the images held strongly. */
+	public long getUsedBytes() {
+		synchronized (images) {
+			return usedBytes;
+		}
+	}
+
+	public int getSize() {
+		synchronized (images) {
+			return images.size();
+		}
+	}
+
+	private BufferedImage get(Key key, Loader loader) throws IOException {
+		expungeClearedEntries();
+
+		BufferedImage image = getCached(key);
+		if (image != null) {
+			return image;
+		}
+
+		CompletableFuture<BufferedImage> future   = new CompletableFuture<>();
+		CompletableFuture<BufferedImage> existing = loading.putIfAbsent(key, future);
+		if (existing != null) {
+			hitCount.increment();
+			return await(existing);
+		}
+
+		try {
+			// Another thread may have finished loading between the lookup and registering the load
+			image = getCached(key);
+			if (image == null) {
+				missCount.increment();
+				image = loader.load();
+				put(key, image);
+			}
+
+			future.complete(image);
+			return image;
+		} catch (IOException | RuntimeException | Error ex) {
+			future.completeExceptionally(ex);
+			throw ex;
+		} finally {
+			loading.remove(key, future);
+		}
+	}
+
+	private BufferedImage getCached(Key key) {
+		BufferedImage image;
+		synchronized (images) {
+			image = images.get(key);
+		}
+
+		if (image != null) {
+			hitCount.increment();
+			return image;
+		}
+
+		if (softSpillover) {
+			SoftEntry entry = softImages.remove(key);
+			image = entry == null ? null : entry.get();
+			if (image != null) {
+				hitCount.increment();
+				softHitCount.increment();
+				put(key, image);
+				return image;
+			}
+		}
+
+		return null;
+	}
+
+	private void put(Key key, BufferedImage image) {
+		long size = getSizeInBytes(image);
+		if (size > maxBytes) {
+			return; // Would evict everything else and itself
+		}
+
+		synchronized (images) {
+			BufferedImage previous = images.put(key, image);
+			usedBytes += size;
+			if (previous != null) {
+				usedBytes -= getSizeInBytes(previous);
+			}
+
+			Iterator<Map.Entry<Key, BufferedImage>> iterator = images.entrySet().iterator();
+			while (usedBytes > maxBytes && iterator.hasNext()) {
+				Map.Entry<Key, BufferedImage> eldest = iterator.next();
+				iterator.remove();
+				usedBytes -= getSizeInBytes(eldest.getValue());
+				evictionCount.increment();
+
+				if (softSpillover) {
+					softImages.put(eldest.getKey(), new SoftEntry(eldest.getKey(), eldest.getValue(), clearedEntries));
+				}
+			}
+		}
+	}
+
+	private void expungeClearedEntries() {
+		SoftEntry entry;
+		while ((entry = (SoftEntry)clearedEntries.poll()) != null) {
+			softImages.remove(entry.key, entry);
+		}
+	}
+
+	private static BufferedImage await(CompletableFuture<BufferedImage> future) throws IOException {
+		try {
+			return future.join();
+		} catch (CompletionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException)cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException)cause;
+			} else if (cause instanceof Error) {
+				throw (Error)cause;
+			}
+
+			throw new IIOException("Loading failed", cause);
+		} catch (CancellationException ex) {
+			throw new IIOException("Loading was cancelled", ex);
+		}
+	}
+
+	private static long getSizeInBytes(BufferedImage image) {
+		DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+		long       sampleSize = DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8;
+		return (long)dataBuffer.getSize() * dataBuffer.getNumBanks() * sampleSize;
+	}
+
+	private static byte[] sha256(byte[] data) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(data);
+		} catch (NoSuchAlgorithmException ex) {
+			// Every Java platform is required to support SHA-256
+			throw new IllegalStateException(ex);
+		}
+	}
+
+	@FunctionalInterface
+	private interface Loader {
+		BufferedImage load() throws IOException;
+	}
+
+	/**
+	 * Identifies a file by path, modification time and size, or data by hash (with time 0) and size.
+	 */
+	private static final class Key {
+		private final Object id;
+		private final long   lastModified;
+		private final long   size;
+
+		Key(Object id, long lastModified, long size) {
+			this.id = id;
+			this.lastModified = lastModified;
+			this.size = size;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			} else if (!(o instanceof Key)) {
+				return false;
+			}
+
+			Key other = (Key)o;
+			return lastModified == other.lastModified && size == other.size && id.equals(other.id);
+		}
+
+		@Override
+		public int hashCode() {
+			return (id.hashCode() * 31 + Long.hashCode(lastModified)) * 31 + Long.hashCode(size);
+		}
+	}
+
+	private static final class SoftEntry extends SoftReference<BufferedImage> {
+		final Key key;
+
+		SoftEntry(Key key, BufferedImage image, ReferenceQueue<BufferedImage> queue) {
+			super(image, queue);
+			this.key = key;
+		}
+	}
+}
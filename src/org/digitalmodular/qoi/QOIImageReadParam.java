@@ -0,0 +1,34 @@
+package org.digitalmodular.qoi;
+
+import javax.imageio.ImageReadParam;
+
+/**
+ * QOI-specific read settings.
+ * <p>
+ * The update band height determines how often {@link javax.imageio.event.IIOReadUpdateListener}s are notified of
+ * decoded rows. Smaller bands give earlier feedback to progressive viewers at the cost of more notifications.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+public class QOIImageReadParam extends ImageReadParam {
+	public static final int DEFAULT_UPDATE_BAND_HEIGHT = 16;
+
+	private int updateBandHeight = DEFAULT_UPDATE_BAND_HEIGHT;
+
+	public int getUpdateBandHeight() {
+		return updateBandHeight;
+	}
+
+	/**
+	 * Sets the number of rows to decode between calls to
+	 * {@link javax.imageio.event.IIOReadUpdateListener#imageUpdate imageUpdate}.
+	 */
+	public void setUpdateBandHeight(int updateBandHeight) {
+		if (updateBandHeight < 1) {
+			throw new IllegalArgumentException("updateBandHeight < 1!");
+		}
+
+		this.updateBandHeight = updateBandHeight;
+	}
+}
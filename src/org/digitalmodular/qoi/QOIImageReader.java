@@ -5,10 +5,15 @@ import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
 import java.awt.image.DataBufferInt;
 import java.awt.image.WritableRaster;
+import java.io.EOFException;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Collection;
+import java.io.InputStream;
+import java.nio.ByteOrder;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import javax.imageio.IIOException;
 import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
@@ -23,13 +28,70 @@ import javax.imageio.stream.ImageInputStream;
 // Created 2022-05-14
 @SuppressWarnings({"ConstantConditions", "ReturnOfNull"})
 public class QOIImageReader extends ImageReader {
-	private ImageInputStream stream = null;
-
-	private boolean gotHeader  = false;
-	private int     width      = 0;
-	private int     height     = 0;
-	private int     channels   = 0;
-	private int     colorSpace = 0; // Currently unused
+	/** The largest number of pixels a {@link BufferedImage} can have (the JDK can't allocate larger arrays) */
+	public static final long MAX_PIXELS = Integer.MAX_VALUE - 2;
+
+	/**
+	 * Every op produces at most this many pixels, which gives a lower bound on the encoded size of an image.
+	 */
+	private static final int MAX_PIXELS_PER_OP = 62;
+	/** The size of the longest op, RGBA */
+	private static final int MAX_OP_SIZE       = 5;
+
+	// Kinds of op in OP_TABLE
+	private static final int OP_INDEX = 0;
+	private static final int OP_DIFF  = 1;
+	private static final int OP_LUMA  = 2;
+	private static final int OP_RUN   = 3;
+	private static final int OP_RGB   = 4;
+	private static final int OP_RGBA  = 5;
+
+	/**
+	 * The decoded first byte of every op, so the decoder needs only one lookup and one jump per op: the kind of op in
+	 * the low byte, and the operand above it. The operand of INDEX is the index, of DIFF the three differences packed
+	 * as RGB (modulo 256), of LUMA the green difference in all three channels, and of RUN the run length.
+	 */
+	private static final int[] OP_TABLE   = makeOpTable();
+	/** The decoded second byte of a LUMA op: the red and blue differences relative to green, packed as RGB */
+	private static final int[] LUMA_TABLE = makeLumaTable();
+
+	// Returned by getImageTypes(), the ImageTypeSpecifiers are immutable
+	private static final List<ImageTypeSpecifier> RGB_IMAGE_TYPES  = Arrays.asList(
+			ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_3BYTE_BGR),
+			ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_RGB));
+	private static final List<ImageTypeSpecifier> RGBA_IMAGE_TYPES = Arrays.asList(
+			ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_4BYTE_ABGR),
+			ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_ARGB));
+
+	/** Reused for every input, so its buffer is only allocated once */
+	private final QOIInputBuffer source         = new QOIInputBuffer();
+	/** Reused for every image, as ARGB */
+	private final int[]          colorHashTable = new int[64];
+	/** Whether {@link #source} is set up for the current {@link #input} */
+	private       boolean        sourceReady    = false;
+	/** Position in the input of the first image */
+	private       long           containerStart = 0;
+
+	// Sequence index, see QOIImageWriter.prepareWriteSequence()
+	private boolean gotSequenceIndex = false;
+	/** Offsets of the images relative to {@link #containerStart}, or {@code null} if the input is a single image */
+	private long[]  frameOffsets     = null;
+	/** The keyframe interval of a delta sequence, or 0 if the input is not a delta sequence */
+	private int     keyframeInterval = 0;
+
+	// Reconstruction state for delta sequences
+	/** The last image read from a delta sequence, the base for decoding the next image */
+	private BufferedImage previousFrame      = null;
+	private int           previousFrameIndex = -1;
+
+	/** Index of the image the header fields below belong to, or -1 */
+	private int     headerIndex = -1;
+	/** Whether the input is positioned right after the header of image {@link #headerIndex} */
+	private boolean atPixelData = false;
+	private int     width       = 0;
+	private int     height      = 0;
+	private int     channels    = 0;
+	private int     colorSpace  = 0;
 
 	// State for the progress reports
 	/** Number of pixels to read */
@@ -39,6 +101,16 @@ public class QOIImageReader extends ImageReader {
 	/** Notify image observers once per this amount of work */
 	private int nextUpdateAt = 0;
 
+	// State for the progressive image updates
+	/** Number of rows per image update */
+	private int updateBandHeight = QOIImageReadParam.DEFAULT_UPDATE_BAND_HEIGHT;
+	/** Number of rows already reported to the update listeners */
+	private int rowsUpdated      = 0;
+
+	// Protection against hostile input
+	private long    maxPixels = MAX_PIXELS;
+	private boolean strict    = false;
+
 	private BufferedImage theImage = null;
 
 	public QOIImageReader(ImageReaderSpi originatingProvider) {
@@ -47,65 +119,136 @@ public class QOIImageReader extends ImageReader {
 
 	@Override
 	public void setInput(Object input, boolean seekForwardOnly, boolean ignoreMetadata) {
-		super.setInput(input, seekForwardOnly, ignoreMetadata);
-		stream = (ImageInputStream)input; // Always works
+		if (input != null &&
+		    !(input instanceof ImageInputStream) &&
+		    !(input instanceof InputStream) &&
+		    !(input instanceof ReadableByteChannel)) {
+			throw new IllegalArgumentException("input not an ImageInputStream, InputStream or ReadableByteChannel!");
+		} else if (input instanceof SelectableChannel && !((SelectableChannel)input).isBlocking()) {
+			// The decoder can't wait for data to arrive without spinning
+			throw new IllegalArgumentException("input is a non-blocking channel!");
+		}
+
+		// Not calling super, which allocates a copy of the provider's input types every time
+		this.input = input;
+		if (input != null) {
+			this.seekForwardOnly = seekForwardOnly;
+			this.ignoreMetadata = ignoreMetadata;
+			minIndex = 0;
+		}
+
+		source.release();
+		sourceReady = false;
 
 		// Clear all values based on the previous stream contents
 		resetStreamSettings();
 	}
 
+	public long getMaxPixels() {
+		return maxPixels;
+	}
+
+	/**
+	 * Sets the largest image (width * height) this reader is willing to decode. Larger images are rejected right
+	 * after reading the header, before any memory is allocated for the destination.
+	 * <p>
+	 * The destination needs 3 or 4 bytes per pixel, so this is also the memory budget of the reader.
+	 */
+	public void setMaxPixels(long maxPixels) {
+		if (maxPixels < 1) {
+			throw new IllegalArgumentException("maxPixels < 1!");
+		} else if (maxPixels > MAX_PIXELS) {
+			throw new IllegalArgumentException("maxPixels > " + MAX_PIXELS + '!');
+		}
+
+		this.maxPixels = maxPixels;
+	}
+
+	public boolean isStrict() {
+		return strict;
+	}
+
+	/**
+	 * In strict mode, input that ends before all pixels are decoded causes a {@link QOITruncatedImageException}.
+	 * Otherwise the partially decoded image is returned, with the missing pixels left blank.
+	 * <p>
+	 * In both modes, an image is rejected before allocating the destination when the length of the input is known and
+	 * too short to hold the image (at least one byte per 62 pixels). When the length is unknown, strict mode reads
+	 * ahead to check the same, while in lenient mode only {@link #setMaxPixels(long)} limits the size of the
+	 * destination.
+	 */
+	public void setStrict(boolean strict) {
+		this.strict = strict;
+	}
+
+	/**
+	 * Returns the number of images in a QOI sequence (see {@link QOIImageWriter#prepareWriteSequence}), or 1 for a
+	 * plain QOI file.
+	 * <p>
+	 * The sequence index is stored at the end of the input, so it can only be found in {@link ImageInputStream}s of
+	 * known length. Other inputs are always treated as a single image.
+	 */
 	@Override
-	public int getNumImages(boolean allowSearch) {
-		if (stream == null) {
+	public int getNumImages(boolean allowSearch) throws IIOException {
+		if (input == null) {
 			throw new IllegalStateException("No input source set!");
 		} else if (seekForwardOnly && allowSearch) {
 			throw new IllegalStateException("seekForwardOnly and allowSearch can't both be true!");
 		}
 
-		return 1;
+		readSequenceIndex();
+
+		return frameOffsets == null ? 1 : frameOffsets.length;
 	}
 
-	@Override
-	public int getWidth(int imageIndex) throws IIOException {
-		if (imageIndex != 0) {
-			throw new IndexOutOfBoundsException("imageIndex != 0!");
+	/**
+	 * Returns the keyframe interval when the input is a delta sequence (see
+	 * {@link QOIImageWriter#setKeyframeInterval(int)}), or 0 otherwise.
+	 */
+	public int getKeyframeInterval() throws IIOException {
+		if (input == null) {
+			throw new IllegalStateException("No input source set!");
 		}
 
-		readHeader();
+		readSequenceIndex();
+
+		return keyframeInterval;
+	}
+
+	@Override
+	public int getWidth(int imageIndex) throws IIOException {
+		readHeader(imageIndex);
 
 		return width;
 	}
 
 	@Override
 	public int getHeight(int imageIndex) throws IIOException {
-		if (imageIndex != 0) {
-			throw new IndexOutOfBoundsException("imageIndex != 0!");
-		}
-
-		readHeader();
+		readHeader(imageIndex);
 
 		return height;
 	}
 
 	@Override
 	public Iterator<ImageTypeSpecifier> getImageTypes(int imageIndex) throws IOException {
-		if (imageIndex != 0) {
-			throw new IndexOutOfBoundsException("imageIndex != 0!");
-		}
+		readHeader(imageIndex);
 
-		readHeader();
+		return channels == 3 ? RGB_IMAGE_TYPES.iterator() : RGBA_IMAGE_TYPES.iterator();
+	}
 
-		Collection<ImageTypeSpecifier> imageTypeSpecifiers = new ArrayList<>(1);
+	/**
+	 * Returns the first of {@link #getImageTypes(int)}, without allocating an iterator.
+	 */
+	@Override
+	public ImageTypeSpecifier getRawImageType(int imageIndex) throws IOException {
+		readHeader(imageIndex);
 
-		if (channels == 3) {
-			imageTypeSpecifiers.add(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_3BYTE_BGR));
-			imageTypeSpecifiers.add(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_RGB));
-		} else {
-			imageTypeSpecifiers.add(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_4BYTE_ABGR));
-			imageTypeSpecifiers.add(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_ARGB));
-		}
+		return channels == 3 ? RGB_IMAGE_TYPES.get(0) : RGBA_IMAGE_TYPES.get(0);
+	}
 
-		return imageTypeSpecifiers.iterator();
+	@Override
+	public ImageReadParam getDefaultReadParam() {
+		return new QOIImageReadParam();
 	}
 
 	@Override
@@ -113,17 +256,43 @@ public class QOIImageReader extends ImageReader {
 		return null;
 	}
 
+	/**
+	 * Returns the header of the image as {@link QOIMetadata}. Only the header is read, not the pixel data.
+	 */
 	@Override
-	public IIOMetadata getImageMetadata(int imageIndex) {
-		return null;
+	public IIOMetadata getImageMetadata(int imageIndex) throws IIOException {
+		readHeader(imageIndex);
+
+		return new QOIMetadata(new QOIHeader(width, height, channels, colorSpace, source.isInflating()));
 	}
 
+	/**
+	 * Reads an image. When the input is a delta sequence, images other than keyframes are reconstructed by applying
+	 * their differences to the image before. Reading images in order is fast, because each image is built upon the
+	 * previous one. Reading any other image first decodes the nearest keyframe before it.
+	 * <p>
+	 * Normally a new image is returned each time. When the param has a destination (see
+	 * {@link ImageReadParam#setDestination(BufferedImage)}), the image is decoded into it instead, which must have the
+	 * size of the image and one of the types from {@link #getImageTypes(int)}. Playing a delta sequence by passing the
+	 * previously returned image as the destination updates it in place, so only the changed pixels are written.
+	 * <p>
+	 * The image returned from a delta sequence is also the base for the next image, so it should not be modified.
+	 */
 	@Override
 	public BufferedImage read(int imageIndex, ImageReadParam param) throws IOException {
-		if (imageIndex != 0) {
-			throw new IndexOutOfBoundsException("imageIndex != 0!");
+		// Also for the first image, which is the base of the next one in a delta sequence
+		readSequenceIndex();
+		readHeader(imageIndex, true);
+
+		BufferedImage destination = param == null ? null : param.getDestination();
+		if (destination != null) {
+			checkDestination(destination);
 		}
 
+		updateBandHeight = param instanceof QOIImageReadParam ?
+		                   ((QOIImageReadParam)param).getUpdateBandHeight() :
+		                   QOIImageReadParam.DEFAULT_UPDATE_BAND_HEIGHT;
+
 		//noinspection OverlyBroadCatchBlock
 		try {
 			clearAbortRequest();
@@ -131,8 +300,24 @@ public class QOIImageReader extends ImageReader {
 			if (abortRequested()) {
 				processReadAborted();
 			} else {
-				readHeader();
-				decodeImage();
+				if (keyframeInterval > 0 && imageIndex % keyframeInterval != 0) {
+					decodeDeltaImage(imageIndex, destination);
+				} else {
+					atPixelData = false;
+					decodeImage(destination, false);
+				}
+
+				source.syncStreamPosition();
+
+				if (keyframeInterval > 0) {
+					// An aborted image is incomplete, so it can't be the base of the next one
+					previousFrame = abortRequested() ? null : theImage;
+					previousFrameIndex = imageIndex;
+				}
+
+				if (seekForwardOnly) {
+					minIndex = imageIndex;
+				}
 
 				if (abortRequested()) {
 					processReadAborted();
@@ -140,66 +325,278 @@ public class QOIImageReader extends ImageReader {
 					processImageComplete();
 				}
 			}
-		} catch (IllegalArgumentException | IllegalStateException ex) {
+		} catch (IllegalArgumentException | IllegalStateException | QOITruncatedImageException ex) {
 			throw ex;
 		} catch (IOException ex) {
 			throw new IIOException("I/O error reading QOI image data", ex);
 		} catch (Throwable ex) {
 			throw new IIOException("Unexpected exception during read", ex);
+		} finally {
+			// Reading ahead in strict mode may have grown the buffer
+			source.trim();
 		}
 
 		return theImage;
 	}
 
-	private void readHeader() throws IIOException {
-		if (gotHeader) {
-			return;
+	private void checkDestination(BufferedImage destination) {
+		if (destination.getWidth() != width || destination.getHeight() != height) {
+			throw new IllegalArgumentException("Destination size " + destination.getWidth() + 'x' +
+			                                   destination.getHeight() + " differs from the image size " + width +
+			                                   'x' + height + '!');
 		}
 
-		if (stream == null) {
+		int type = destination.getType();
+		if (channels == 3 ? type != BufferedImage.TYPE_3BYTE_BGR && type != BufferedImage.TYPE_INT_RGB :
+		    type != BufferedImage.TYPE_4BYTE_ABGR && type != BufferedImage.TYPE_INT_ARGB) {
+			throw new IllegalArgumentException("Destination type " + type + " not supported for an image with " +
+			                                   channels + " channels!");
+		}
+	}
+
+	/**
+	 * Reconstructs an image of a delta sequence, starting from either the previous image, or the nearest keyframe.
+	 */
+	private void decodeDeltaImage(int imageIndex, BufferedImage destination) throws IOException {
+		int frame;
+		if (previousFrame != null && previousFrameIndex == imageIndex - 1) {
+			if (destination != previousFrame) {
+				destination = copyImage(previousFrame, destination);
+			}
+
+			frame = imageIndex;
+		} else {
+			int keyframe = imageIndex - imageIndex % keyframeInterval;
+			readHeader(keyframe, true);
+			atPixelData = false;
+			decodeImage(destination, false);
+			destination = theImage;
+			frame = keyframe + 1;
+		}
+
+		for (; frame <= imageIndex && !abortRequested(); frame++) {
+			readHeader(frame, true);
+			atPixelData = false;
+			decodeImage(destination, true);
+		}
+	}
+
+	private static BufferedImage copyImage(BufferedImage image, BufferedImage destination) {
+		if (destination == null) {
+			return new BufferedImage(image.getColorModel(), image.copyData(null), image.isAlphaPremultiplied(), null);
+		}
+
+		DataBuffer src = image.getRaster().getDataBuffer();
+		DataBuffer dst = destination.getRaster().getDataBuffer();
+		if (image.getType() == destination.getType() && src instanceof DataBufferByte) {
+			byte[] data = ((DataBufferByte)src).getData();
+			System.arraycopy(data, 0, ((DataBufferByte)dst).getData(), 0, data.length);
+		} else if (image.getType() == destination.getType() && src instanceof DataBufferInt) {
+			int[] data = ((DataBufferInt)src).getData();
+			System.arraycopy(data, 0, ((DataBufferInt)dst).getData(), 0, data.length);
+		} else {
+			destination.setData(image.getRaster());
+		}
+
+		return destination;
+	}
+
+	private QOIInputBuffer getSource() throws IOException {
+		if (input == null) {
 			throw new IllegalStateException("Input source not set!");
 		}
 
+		if (!sourceReady) {
+			// Random access to images in a sequence needs the earlier parts of the input
+			source.setInput(input, seekForwardOnly);
+			source.startInflatingIfCompressed();
+			containerStart = source.getPosition();
+			sourceReady = true;
+		}
+
+		return source;
+	}
+
+	/**
+	 * Looks for the index at the end of a QOI sequence. If there is none, the input is a single image.
+	 */
+	private void readSequenceIndex() throws IIOException {
+		if (gotSequenceIndex) {
+			return;
+		}
+
 		try {
-			int magic = stream.readInt();
+			getSource();
+			gotSequenceIndex = true;
 
-			if (magic != QOIImageWriter.QOI_MAGIC) { // "qoif" in big-endian
-				throw new IIOException("Bad QOIF signature (" + Integer.toString(magic, 16) + ')');
+			if (!(input instanceof ImageInputStream) || source.isInflating()) {
+				return; // Compressed input is always a single image
 			}
 
-			width = stream.readInt();
-			height = stream.readInt();
-			channels = stream.readByte() & 0xFF;
-			colorSpace = stream.readByte() & 0xFF;
-
-			stream.flushBefore(stream.getStreamPosition());
-
-			if (width <= 0) {
-				throw new IIOException("Image width <= 0!");
-			} else if (height <= 0) {
-				throw new IIOException("Image height <= 0!");
-			} else if (channels != 3 && channels != 4) {
-				throw new IIOException("'channels' must be 3 or 4!");
-			} else if (colorSpace > 1) {
-				throw new IIOException("'colorSpace' 0 or 1!");
+			ImageInputStream stream = (ImageInputStream)input;
+			long             length = stream.length() - containerStart;
+			if (length < QOIImageWriter.HEADER_SIZE + QOIImageWriter.SEQUENCE_TRAILER_SIZE) {
+				return; // Also when the length is unknown
+			}
+
+			ByteOrder byteOrder = stream.getByteOrder();
+			stream.mark();
+			try {
+				stream.setByteOrder(ByteOrder.BIG_ENDIAN);
+				stream.seek(containerStart + length - QOIImageWriter.SEQUENCE_TRAILER_SIZE);
+				int numFrames = stream.readInt();
+				int magic     = stream.readInt();
+
+				int trailerSize = QOIImageWriter.SEQUENCE_TRAILER_SIZE;
+				int interval    = 0;
+				if (magic == QOIImageWriter.QOI_DELTA_SEQUENCE_MAGIC) {
+					trailerSize = QOIImageWriter.DELTA_SEQUENCE_TRAILER_SIZE;
+					if (length < QOIImageWriter.HEADER_SIZE + trailerSize) {
+						return;
+					}
+
+					stream.seek(containerStart + length - trailerSize);
+					interval = stream.readInt();
+					if (interval < 1) {
+						throw new IIOException("Corrupt QOI delta sequence keyframe interval: " + interval);
+					}
+				} else if (magic != QOIImageWriter.QOI_SEQUENCE_MAGIC) {
+					return;
+				}
+
+				long indexStart = length - trailerSize - numFrames * 8L;
+				if (numFrames < 1 || indexStart < 0) {
+					return;
+				}
+
+				long[] offsets = new long[numFrames];
+				stream.seek(containerStart + indexStart);
+				stream.readFully(offsets, 0, numFrames);
+
+				for (int i = 0; i < numFrames; i++) {
+					long minOffset = i == 0 ? 0 : offsets[i - 1] + QOIImageWriter.HEADER_SIZE;
+					if (offsets[i] < minOffset || offsets[i] > indexStart - QOIImageWriter.HEADER_SIZE ||
+					    i == 0 && offsets[i] != 0) {
+						throw new IIOException("Corrupt QOI sequence index");
+					}
+				}
+
+				frameOffsets = offsets;
+				keyframeInterval = interval;
+			} finally {
+				stream.setByteOrder(byteOrder);
+				stream.reset();
 			}
+		} catch (IOException ex) {
+			throw new IIOException("I/O error reading QOI sequence index!", ex);
+		}
+	}
 
-			if ((long)width * height > Integer.MAX_VALUE - 2) {
-				// We are not able to properly decode image that has number
-				// of pixels greater than Integer.MAX_VALUE - 2
-				throw new IIOException("Image of the size " + width + " by " + height + " has too many pixels");
+	private void readHeader(int imageIndex) throws IIOException {
+		readHeader(imageIndex, false);
+	}
+
+	/**
+	 * @param forDecoding when {@code true}, the input will also be positioned at the pixel data of the image.
+	 */
+	private void readHeader(int imageIndex, boolean forDecoding) throws IIOException {
+		if (imageIndex < minIndex) {
+			throw new IndexOutOfBoundsException("imageIndex < " + minIndex + '!');
+		} else if (imageIndex > 0) {
+			readSequenceIndex();
+
+			int numImages = frameOffsets == null ? 1 : frameOffsets.length;
+			if (imageIndex >= numImages) {
+				throw new IndexOutOfBoundsException("imageIndex >= " + numImages + '!');
 			}
+		}
 
-			gotHeader = true;
+		if (headerIndex == imageIndex && (atPixelData || !forDecoding)) {
+			return;
+		}
+
+		headerIndex = -1;
+		atPixelData = false;
+		try {
+			seekToImage(imageIndex);
+			parseHeader();
+			headerIndex = imageIndex;
 		} catch (IOException ex) {
 			throw new IIOException("I/O error reading QOI header!", ex);
 		}
 	}
 
-	@SuppressWarnings("ValueOfIncrementOrDecrementUsed")
-	private void decodeImage() throws IOException {
+	private void seekToImage(int imageIndex) throws IOException {
+		getSource(); // Also determines containerStart
+		long position = containerStart + (imageIndex == 0 ? 0 : frameOffsets[imageIndex]);
+
+		if (source.getPosition() != position) {
+			source.seek(position);
+		}
+	}
+
+	private void parseHeader() throws IOException {
+		int magic = source.readInt();
+
+		if (magic != QOIImageWriter.QOI_MAGIC) { // "qoif" in big-endian
+			throw new IIOException("Bad QOIF signature (" + Integer.toString(magic, 16) + ')');
+		}
+
+		width = source.readInt();
+		height = source.readInt();
+		channels = source.read();
+		colorSpace = source.read();
+
+		source.flush();
+
+		if (width <= 0) {
+			throw new IIOException("Image width <= 0!");
+		} else if (height <= 0) {
+			throw new IIOException("Image height <= 0!");
+		} else if (colorSpace < 0) {
+			throw new EOFException();
+		} else if (channels != 3 && channels != 4) {
+			throw new IIOException("'channels' must be 3 or 4!");
+		} else if (colorSpace > 1) {
+			throw new IIOException("'colorSpace' 0 or 1!");
+		}
+
+		long numPixels = (long)width * height;
+		if (numPixels > MAX_PIXELS) {
+			// We are not able to properly decode image that has number
+			// of pixels greater than Integer.MAX_VALUE - 2
+			throw new IIOException("Image of the size " + width + " by " + height + " has too many pixels");
+		} else if (numPixels > maxPixels) {
+			throw new IIOException("Image of the size " + width + " by " + height + " exceeds the limit of " +
+			                       maxPixels + " pixels");
+		}
+
+		long minRemaining = getMinEncodedSize();
+		long remaining    = source.getRemaining();
+		if (remaining >= 0 && remaining < minRemaining) {
+			throw new IIOException("Image of the size " + width + " by " + height + " can't be encoded in " +
+			                       remaining + " bytes");
+		}
+
+		atPixelData = true;
+	}
+
+	/**
+	 * @param destination the image to decode into, or {@code null} to create one.
+	 * @param delta       whether to add the decoded values to the pixels in the destination (modulo 256 per channel),
+	 *                    instead of replacing them.
+	 */
+	@SuppressWarnings({"ValueOfIncrementOrDecrementUsed", "OverlyComplexMethod", "OverlyLongMethod"})
+	private void decodeImage(BufferedImage destination, boolean delta) throws IOException {
+		// In strict mode, don't allocate the destination before the input has proven to be at least plausibly long
+		// enough. When the length of the input is unknown, this reads ahead (at most one byte per 62 pixels).
+		if (strict && !source.prefetch((int)getMinEncodedSize())) {
+			throw new QOITruncatedImageException("QOI stream too short for an image of the size " + width + " by " +
+			                                     height);
+		}
+
 		// Construct a suitable target image
-		theImage = getDestination(null, getImageTypes(0), width, height);
+		theImage = destination != null ? destination : getDestination(null, getImageTypes(headerIndex), width, height);
 
 		checkReadParamBandSettings(null, channels, theImage.getSampleModel().getNumBands());
 
@@ -207,6 +604,7 @@ public class QOIImageReader extends ImageReader {
 		totalPixels = width * height;
 		pixelsDone = 0;
 		nextUpdateAt = 0;
+		rowsUpdated = 0;
 
 		int lineStride   = width;
 		int totalSamples = totalPixels;
@@ -225,104 +623,221 @@ public class QOIImageReader extends ImageReader {
 			intPixels = ((DataBufferInt)dataBuffer).getData();
 		}
 
-		byte     r              = 0;
-		byte     g              = 0;
-		byte     b              = 0;
-		byte     a              = (byte)255;
-		byte[][] colorHashTable = new byte[64][4];
+		// Decoder state, as ARGB
+		int   pixel          = 0xFF000000;
+		int[] colorHashTable = this.colorHashTable;
+		Arrays.fill(colorHashTable, 0);
 
 		processPassStarted(theImage, 0, 0, 0, 0, 0, 1, 1, null);
 
+		// The input, read directly from the buffer. Before each op, at least the longest op is buffered.
+		byte[] in      = source.getBuffer();
+		int    inPos   = source.getBufferPosition();
+		int    inLimit = source.getBufferLimit();
+
 		int p = 0;
 		while (p < totalSamples) {
 			if (checkUpdateAndAbort(p, lineStride)) {
 				break;
 			}
 
-			int     repeatCount = 1;
-			boolean recordHash  = true;
-
-			int code = stream.read();
-			if (code < 0) {
-				break; // EOF reached
-			} else if (code == QOIImageWriter.QOI_OP_RGBA) {
-				r = (byte)stream.read();
-				g = (byte)stream.read();
-				b = (byte)stream.read();
-				a = (byte)stream.read();
-			} else if (code == QOIImageWriter.QOI_OP_RGB) {
-				r = (byte)stream.read();
-				g = (byte)stream.read();
-				b = (byte)stream.read();
-			} else {
-				int op2 = code & 0b11000000;
-
-				if (op2 == QOIImageWriter.QOI_OP_INDEX) {
-					code &= 0b00111111;
-					byte[] c = colorHashTable[code];
-					r = c[0];
-					g = c[1];
-					b = c[2];
-					a = c[3];
-					recordHash = false;
-				} else if (op2 == QOIImageWriter.QOI_OP_DIFF) {
-					r += (code >> 4 & 0b00000011) - 2;
-					g += (code >> 2 & 0b00000011) - 2;
-					b += (code & 0b00000011) - 2;
-				} else if (op2 == QOIImageWriter.QOI_OP_LUMA) {
-					int dg = (code & 0b00111111) - 32;
-					g += dg;
-					code = stream.read();
-					r += dg + (code >> 4 & 0b00001111) - 8;
-					b += dg + (code & 0b00001111) - 8;
-				} else /*if (op2 == QOIImageWriter.QOI_OP_RUN)*/ {
-					repeatCount = (code & 0b00111111) + 1;
-					recordHash = p == 0;
+			if (inLimit - inPos < MAX_OP_SIZE) {
+				source.setBufferPosition(inPos);
+				int available = source.readAhead(MAX_OP_SIZE);
+				if (available == 0) {
+					break; // EOF reached, checked after the loop
 				}
-			}
 
-			if (recordHash) {
-				@SuppressWarnings("OverlyComplexArithmeticExpression")
-				int hash = (r * 3 + g * 5 + b * 7 + a * 11) & 0b00111111;
-				colorHashTable[hash][0] = r;
-				colorHashTable[hash][1] = g;
-				colorHashTable[hash][2] = b;
-				colorHashTable[hash][3] = a;
+				in = source.getBuffer();
+				inPos = source.getBufferPosition();
+				inLimit = source.getBufferLimit();
 			}
 
-			if (bytePixels != null) {
-				do {
-					if (channels == 4) {
-						if (p + 3 >= totalSamples) {
-							break;
-						}
-
-						bytePixels[p++] = a;
-					} else if (p + 2 >= totalSamples) {
-						break;
+			int op          = OP_TABLE[in[inPos++] & 0xFF];
+			int repeatCount = 1;
+
+			// At EOF, ops read padding that decodes as 0xFF, and the loop ends at the next op
+			switch (op & 0xFF) {
+				case OP_INDEX:
+					pixel = colorHashTable[op >>> 8];
+					break;
+				case OP_DIFF:
+					pixel = addRGB(pixel, op >>> 8);
+					colorHashTable[hash(pixel)] = pixel;
+					break;
+				case OP_LUMA:
+					pixel = addRGB(addRGB(pixel, op >>> 8), LUMA_TABLE[in[inPos++] & 0xFF]);
+					colorHashTable[hash(pixel)] = pixel;
+					break;
+				case OP_RUN:
+					repeatCount = op >>> 8;
+					if (p == 0) {
+						colorHashTable[hash(pixel)] = pixel;
 					}
-					bytePixels[p++] = b;
-					bytePixels[p++] = g;
-					bytePixels[p++] = r;
+					break;
+				case OP_RGB:
+					pixel = pixel & 0xFF000000 |
+					        (in[inPos] & 0xFF) << 16 |
+					        (in[inPos + 1] & 0xFF) << 8 |
+					        in[inPos + 2] & 0xFF;
+					inPos += 3;
+					colorHashTable[hash(pixel)] = pixel;
+					break;
+				default: // OP_RGBA
+					pixel = (in[inPos] & 0xFF) << 16 |
+					        (in[inPos + 1] & 0xFF) << 8 |
+					        in[inPos + 2] & 0xFF |
+					        in[inPos + 3] << 24;
+					inPos += 4;
+					colorHashTable[hash(pixel)] = pixel;
+			}
 
-					repeatCount--;
-				} while (repeatCount > 0);
+			if (delta && (pixel & 0x00FFFFFF) == 0 && (pixel >>> 24 == 0 || channels == 3)) {
+				// Unchanged pixels
+				p = Math.min(p + repeatCount * (bytePixels != null ? channels : 1), totalSamples);
+			} else if (bytePixels != null) {
+				// The samples are a multiple of the channels, so only whole pixels are written
+				repeatCount = Math.min(repeatCount, (totalSamples - p) / channels);
+
+				byte a = (byte)(pixel >> 24);
+				byte r = (byte)(pixel >> 16);
+				byte g = (byte)(pixel >> 8);
+				byte b = (byte)pixel;
+
+				if (channels == 4 && !delta) {
+					for (; repeatCount > 0; repeatCount--) {
+						bytePixels[p] = a;
+						bytePixels[p + 1] = b;
+						bytePixels[p + 2] = g;
+						bytePixels[p + 3] = r;
+						p += 4;
+					}
+				} else if (!delta) {
+					for (; repeatCount > 0; repeatCount--) {
+						bytePixels[p] = b;
+						bytePixels[p + 1] = g;
+						bytePixels[p + 2] = r;
+						p += 3;
+					}
+				} else if (channels == 4) {
+					for (; repeatCount > 0; repeatCount--) {
+						bytePixels[p] += a;
+						bytePixels[p + 1] += b;
+						bytePixels[p + 2] += g;
+						bytePixels[p + 3] += r;
+						p += 4;
+					}
+				} else {
+					for (; repeatCount > 0; repeatCount--) {
+						bytePixels[p] += b;
+						bytePixels[p + 1] += g;
+						bytePixels[p + 2] += r;
+						p += 3;
+					}
+				}
 			} else if (intPixels != null) {
-				int argb = (((a & 0xFF) << 8 |
-				             (r & 0xFF)) << 8 |
-				            (g & 0xFF)) << 8 |
-				           (b & 0xFF);
-				do {
-					intPixels[p++] = argb;
-
-					repeatCount--;
-				} while (repeatCount > 0);
+				repeatCount = Math.min(repeatCount, totalSamples - p);
+
+				if (delta) {
+					do {
+						intPixels[p] = addARGB(intPixels[p], pixel);
+						p++;
+
+						repeatCount--;
+					} while (repeatCount > 0);
+				} else {
+					do {
+						intPixels[p++] = pixel;
+
+						repeatCount--;
+					} while (repeatCount > 0);
+				}
 			}
 		}
 
+		source.setBufferPosition(inPos);
+
+		if (strict && !abortRequested() && (p < totalSamples || source.isEOF())) {
+			throw new QOITruncatedImageException("QOI stream ended after " + p / (totalSamples / totalPixels) +
+			                                     " of " + totalPixels + " pixels");
+		}
+
+		// Report the last (partial) band, including a partially decoded row if the stream ended prematurely
+		processBandUpdate(Math.min((p + lineStride - 1) / lineStride, height));
+
 		processPassComplete(theImage);
 	}
 
+	private static int[] makeOpTable() {
+		int[] table = new int[256];
+
+		for (int code = 0; code < 256; code++) {
+			int operand = code & 0b00111111;
+
+			if (code == QOIImageWriter.QOI_OP_RGBA) {
+				table[code] = OP_RGBA;
+			} else if (code == QOIImageWriter.QOI_OP_RGB) {
+				table[code] = OP_RGB;
+			} else if ((code & 0b11000000) == QOIImageWriter.QOI_OP_INDEX) {
+				table[code] = operand << 8 | OP_INDEX;
+			} else if ((code & 0b11000000) == QOIImageWriter.QOI_OP_DIFF) {
+				int dr = (operand >> 4 & 0b00000011) - 2;
+				int dg = (operand >> 2 & 0b00000011) - 2;
+				int db = (operand & 0b00000011) - 2;
+				table[code] = packRGB(dr, dg, db) << 8 | OP_DIFF;
+			} else if ((code & 0b11000000) == QOIImageWriter.QOI_OP_LUMA) {
+				int dg = operand - 32;
+				table[code] = packRGB(dg, dg, dg) << 8 | OP_LUMA;
+			} else /*if ((code & 0b11000000) == QOIImageWriter.QOI_OP_RUN)*/ {
+				table[code] = (operand + 1) << 8 | OP_RUN;
+			}
+		}
+
+		return table;
+	}
+
+	private static int[] makeLumaTable() {
+		int[] table = new int[256];
+
+		for (int code = 0; code < 256; code++) {
+			table[code] = packRGB((code >> 4 & 0b00001111) - 8, 0, (code & 0b00001111) - 8);
+		}
+
+		return table;
+	}
+
+	private static int packRGB(int r, int g, int b) {
+		return (r & 0xFF) << 16 | (g & 0xFF) << 8 | b & 0xFF;
+	}
+
+	/**
+	 * Adds the packed RGB differences to the color channels, modulo 256 per channel. Alpha is unchanged.
+	 */
+	private static int addRGB(int argb, int rgb) {
+		return (argb & 0xFF00FF00) + (rgb & 0x0000FF00) & 0xFF00FF00 |
+		       (argb & 0x00FF00FF) + (rgb & 0x00FF00FF) & 0x00FF00FF;
+	}
+
+	/**
+	 * Adds all four channels at once, modulo 256 per channel, with the carries masked off.
+	 */
+	private static int addARGB(int argb1, int argb2) {
+		return (argb1 & 0xFF00FF00) + (argb2 & 0xFF00FF00) & 0xFF00FF00 |
+		       (argb1 & 0x00FF00FF) + (argb2 & 0x00FF00FF) & 0x00FF00FF;
+	}
+
+	@SuppressWarnings("OverlyComplexArithmeticExpression")
+	private static int hash(int argb) {
+		return ((argb >> 16 & 0xFF) * 3 + (argb >> 8 & 0xFF) * 5 + (argb & 0xFF) * 7 + (argb >>> 24) * 11) & 0b00111111;
+	}
+
+	/**
+	 * @return the number of bytes the ops need even if every op were a maximum length run.
+	 */
+	private long getMinEncodedSize() {
+		return ((long)width * height + MAX_PIXELS_PER_OP - 1) / MAX_PIXELS_PER_OP;
+	}
+
 	private boolean checkUpdateAndAbort(int progressPosition, int progressInterval) {
 		if (progressPosition >= nextUpdateAt) {
 			nextUpdateAt += progressInterval;
@@ -330,20 +845,50 @@ public class QOIImageReader extends ImageReader {
 			pixelsDone += width;
 			processImageProgress(pixelsDone * 100.0f / totalPixels);
 
+			int rowsDone = progressPosition / progressInterval;
+			if (rowsDone - rowsUpdated >= updateBandHeight) {
+				processBandUpdate(rowsDone);
+			}
+
 			// If read has been aborted, just return. processReadAborted will be called later
 			return abortRequested();
 		}
 		return false;
 	}
 
+	/**
+	 * Notifies the update listeners that all rows up to (excluding) {@code rowsDone} have been decoded.
+	 */
+	private void processBandUpdate(int rowsDone) {
+		if (rowsDone > rowsUpdated) {
+			processImageUpdate(theImage, 0, rowsUpdated, width, rowsDone - rowsUpdated, 1, 1, null);
+			rowsUpdated = rowsDone;
+		}
+	}
+
+	@Override
+	public void dispose() {
+		source.dispose();
+		super.dispose();
+	}
+
 	@Override
 	public void reset() {
 		super.reset();
 		resetStreamSettings();
+		maxPixels = MAX_PIXELS;
+		strict = false;
 	}
 
 	private void resetStreamSettings() {
-		gotHeader = false;
+		gotSequenceIndex = false;
+		frameOffsets = null;
+		keyframeInterval = 0;
+		previousFrame = null;
+		previousFrameIndex = -1;
+		theImage = null;
+		headerIndex = -1;
+		atPixelData = false;
 		width = 0;
 		height = 0;
 		channels = 0;
@@ -1,6 +1,8 @@
 package org.digitalmodular.qoi;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Locale;
 import javax.imageio.ImageReader;
 import javax.imageio.spi.ImageReaderSpi;
@@ -26,16 +28,16 @@ public class QOIImageReaderSpi extends ImageReaderSpi {
 		      SUFFIXES,
 		      MIME_TYPES,
 		      READER_CLASS_NAME,
-		      new Class<?>[]{ImageInputStream.class},
+		      new Class<?>[]{ImageInputStream.class, InputStream.class, ReadableByteChannel.class},
 		      WRITER_SPI_NAMES,
 		      false,
 		      null,
 		      null,
 		      null,
 		      null,
-		      false,
-		      null,
-		      null,
+		      true,
+		      QOIMetadata.NATIVE_FORMAT_NAME,
+		      QOIMetadata.NATIVE_FORMAT_CLASS_NAME,
 		      null,
 		      null
 		);
@@ -48,16 +50,24 @@ public class QOIImageReaderSpi extends ImageReaderSpi {
 
 	@Override
 	public boolean canDecodeInput(Object input) throws IOException {
-		if (!(input instanceof ImageInputStream)) {
-			return false;
-		}
+		if (input instanceof ImageInputStream) {
+			ImageInputStream stream = (ImageInputStream)input;
+			stream.mark();
+			int magic = stream.readInt();
+			stream.reset();
+
+			return magic == QOIImageWriter.QOI_MAGIC || magic == QOIImageWriter.QOI_DEFLATE_MAGIC;
+		} else if (input instanceof InputStream && ((InputStream)input).markSupported()) {
+			// Can't peek into channels or InputStreams without mark support
+			InputStream in = (InputStream)input;
+			in.mark(4);
+			int magic = in.read() << 24 | in.read() << 16 | in.read() << 8 | in.read();
+			in.reset();
 
-		ImageInputStream stream = (ImageInputStream)input;
-		stream.mark();
-		int magic = stream.readInt();
-		stream.reset();
+			return magic == QOIImageWriter.QOI_MAGIC || magic == QOIImageWriter.QOI_DEFLATE_MAGIC;
+		}
 
-		return magic == QOIImageWriter.QOI_MAGIC;
+		return false;
 	}
 
 	@Override
@@ -0,0 +1,97 @@
+package org.digitalmodular.qoi;
+
+import java.util.Locale;
+import java.util.zip.Deflater;
+import javax.imageio.ImageWriteParam;
+
+/**
+ * QOI-specific write settings.
+ * <p>
+ * QOI itself has no compression settings, but the output can optionally be compressed a second time with Deflate
+ * (see {@link QOIImageWriter#QOI_DEFLATE_MAGIC}), which makes photo-like images a lot smaller at the cost of encoding
+ * and decoding time. To enable it, set the compression mode to {@link #MODE_EXPLICIT}. The compression quality
+ * maps to the Deflate level the same way as for PNG: quality 0 is the strongest compression (level 9), and quality 1
+ * is no compression (level 0). The default quality when this mode is enabled is that of the default Deflate level.
+ * <p>
+ * Other compression modes write plain QOI.
+ * <p>
+ * Independently of that, the encoding can be made near-lossless with {@link #setMaxError(int)}. The output is still
+ * standard QOI, which any decoder can read.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+public class QOIImageWriteParam extends ImageWriteParam {
+	public static final String DEFLATE_COMPRESSION = "Deflate";
+
+	/** The compression quality corresponding to the default Deflate level (6) */
+	public static final float DEFAULT_COMPRESSION_QUALITY = 1 - 6 / 9.0f;
+
+	private int maxError = 0;
+
+	public QOIImageWriteParam(Locale locale) {
+		super(locale);
+
+		canWriteCompressed = true;
+		compressionTypes = new String[]{DEFLATE_COMPRESSION};
+		compressionType = DEFLATE_COMPRESSION;
+		compressionQuality = DEFAULT_COMPRESSION_QUALITY;
+	}
+
+	public int getMaxError() {
+		return maxError;
+	}
+
+	/**
+	 * Sets the largest difference allowed per color channel between a pixel and how it will be decoded. When non-zero,
+	 * pixels that are close to a color that QOI can encode in fewer bytes (the previous pixel, a recently seen color,
+	 * or a small step from the previous pixel) are encoded as that color instead. This mainly helps noisy content like
+	 * photos and renders, where small variations otherwise prevent the cheap ops. Alpha is always exact.
+	 * <p>
+	 * Errors are measured against the pixels as the decoder reconstructs them, so they don't accumulate along a row.
+	 * Images between keyframes of a delta sequence (see {@link QOIImageWriter#setKeyframeInterval(int)}) are always
+	 * encoded losslessly.
+	 *
+	 * @param maxError the tolerance, from 0 (lossless, the default) to 255.
+	 */
+	public void setMaxError(int maxError) {
+		if (maxError < 0) {
+			throw new IllegalArgumentException("maxError < 0!");
+		} else if (maxError > 255) {
+			throw new IllegalArgumentException("maxError > 255!");
+		}
+
+		this.maxError = maxError;
+	}
+
+	@Override
+	public void unsetCompression() {
+		super.unsetCompression();
+
+		compressionType = DEFLATE_COMPRESSION;
+		compressionQuality = DEFAULT_COMPRESSION_QUALITY;
+	}
+
+	@Override
+	public boolean isCompressionLossless() {
+		super.isCompressionLossless(); // Checks the state
+
+		return maxError == 0;
+	}
+
+	static int getMaxError(ImageWriteParam param) {
+		return param instanceof QOIImageWriteParam ? ((QOIImageWriteParam)param).maxError : 0;
+	}
+
+	/**
+	 * @return the Deflate level to compress with, or -1 when compression is not enabled.
+	 */
+	static int getDeflateLevel(ImageWriteParam param) {
+		if (param == null || !param.canWriteCompressed() || param.getCompressionMode() != MODE_EXPLICIT ||
+		    !DEFLATE_COMPRESSION.equals(param.getCompressionType())) {
+			return -1;
+		}
+
+		return Math.round((1 - param.getCompressionQuality()) * Deflater.BEST_COMPRESSION);
+	}
+}
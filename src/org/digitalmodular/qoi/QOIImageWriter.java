@@ -1,19 +1,24 @@
 package org.digitalmodular.qoi;
 
 import java.awt.Graphics2D;
+import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.image.BufferedImage;
 import java.awt.image.ColorModel;
 import java.awt.image.ComponentColorModel;
 import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
 import java.awt.image.DataBufferInt;
 import java.awt.image.DirectColorModel;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.io.IOException;
-import java.util.Objects;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
 import javax.imageio.IIOException;
 import javax.imageio.IIOImage;
 import javax.imageio.ImageTypeSpecifier;
@@ -39,7 +44,60 @@ public final class QOIImageWriter extends ImageWriter {
 	static final int QOI_OP_DIFF  = 0b01000000; // 01DrDgDb
 	static final int QOI_OP_INDEX = 0b00000000; // 00Index_
 
-	private ImageOutputStream stream = null;
+	@SuppressWarnings("CharUsedInArithmeticContext")
+	static final int QOI_SEQUENCE_MAGIC       = (('q' << 8 | 'o') << 8 | 'i') << 8 | 's'; // "qois", big-endian
+	@SuppressWarnings("CharUsedInArithmeticContext")
+	static final int QOI_DELTA_SEQUENCE_MAGIC = (('q' << 8 | 'o') << 8 | 'i') << 8 | 'd'; // "qoid", big-endian
+	/**
+	 * Magic of a Deflate-compressed QOI file: {@code "qoiz"}, followed by the complete QOI file (header to footer)
+	 * compressed as a zlib stream. See {@link QOIImageWriteParam}.
+	 */
+	@SuppressWarnings("CharUsedInArithmeticContext")
+	public static final int QOI_DEFLATE_MAGIC = (('q' << 8 | 'o') << 8 | 'i') << 8 | 'z'; // "qoiz", big-endian
+
+	static final int HEADER_SIZE = 14;
+	static final int FOOTER_SIZE = 8;
+	/** Image count and sequence magic */
+	static final int SEQUENCE_TRAILER_SIZE       = 8;
+	/** Keyframe interval, image count and delta sequence magic */
+	static final int DELTA_SEQUENCE_TRAILER_SIZE = 12;
+
+	/** Encoder state and output buffering */
+	private final QOIEncoder encoder      = new QOIEncoder();
+	/** See {@link #getBytesWritten()} */
+	private       long       bytesWritten = 0;
+	/** Created on first use of compression */
+	private       Deflater   deflater     = null;
+
+	// Incremental re-encoding
+	/** See {@link #setSnapshotInterval(int)} */
+	private int                 snapshotInterval   = 0;
+	/** The snapshots being recorded during a write, or {@code null} */
+	private QOIEncoderSnapshots recordingSnapshots = null;
+	/** See {@link #getSnapshots()} */
+	private QOIEncoderSnapshots snapshots          = null;
+	/** The first row to encode, when resuming from a snapshot */
+	private int                 startRow           = 0;
+
+	// Sequence state
+	/** Offsets of the images written so far, relative to the start of the sequence, or {@code null} */
+	private long[] frameOffsets   = null;
+	private int    numFrames      = 0;
+	/** Number of bytes written since the start of the sequence, or 0 if not writing a sequence */
+	private long   sequenceLength = 0;
+
+	// Delta sequence state
+	/** See {@link #setKeyframeInterval(int)} */
+	private int   keyframeInterval = 0;
+	/** The keyframe interval of the sequence being written, or 0 if it's not a delta sequence */
+	private int   deltaInterval    = 0;
+	/** The pixels of the last image written, as ARGB */
+	private int[] previousFrame    = null;
+	/** The pixels of the image being written, as ARGB */
+	private int[] currentFrame     = null;
+	private int   frameWidth       = 0;
+	private int   frameHeight      = 0;
+	private int   frameChannels    = 0;
 
 	// QOI header data
 	private int width      = 0;
@@ -47,13 +105,23 @@ public final class QOIImageWriter extends ImageWriter {
 	private int channels   = 0;
 	private int colorSpace = 0; // Currently unused
 
-	// QOI encoder state
-	private       byte     lastR          = 0;
-	private       byte     lastG          = 0;
-	private       byte     lastB          = 0;
-	private       byte     lastA          = (byte)255;
-	private       int      repeatCount    = 0;
-	private final byte[][] colorHashTable = new byte[64][4];
+	// The part of the source to encode, see prepareEncoder()
+	/** Position of the first pixel to encode, in the coordinates of the source image or raster */
+	private int   sourceX     = 0;
+	private int   sourceY     = 0;
+	/** Subsampling periods */
+	private int   xPeriod     = 1;
+	private int   yPeriod     = 1;
+	/** The bands to encode, or {@code null} for all */
+	private int[] sourceBands = null;
+
+	// The layout of the last sample model encoded, because sample models return it in a new array every time
+	private       SampleModel layoutSampleModel = null;
+	/** The bit offsets of a {@link SinglePixelPackedSampleModel}, or band offsets of a {@link ComponentSampleModel} */
+	private       int[]       layoutOffsets     = null;
+	private       int[]       layoutBankIndices = null;
+	/** Per band of a {@link ComponentSampleModel}: the index of the first sample to encode in its bank */
+	private final int[]       bandStarts        = new int[4];
 
 	// State for the progress reports
 	/** Number of pixels to write */
@@ -69,22 +137,90 @@ public final class QOIImageWriter extends ImageWriter {
 
 	@Override
 	public void setOutput(Object output) {
-		super.setOutput(output);
+		// Not calling super, which allocates a copy of the provider's output types every time
+		encoder.setOutput(output);
+		this.output = output;
 
-		if (Objects.equals(stream, output)) {
-			return;
+		frameOffsets = null;
+		numFrames = 0;
+		sequenceLength = 0;
+		endDeltaSequence();
+	}
+
+	/**
+	 * Returns the number of bytes written by the last call to {@code write} or {@code writeToSequence}, or the size of
+	 * the complete sequence after {@code endWriteSequence}.
+	 * <p>
+	 * This is mainly useful for {@code byte[]} output, which is filled from the start. {@link ByteBuffer} output is
+	 * filled from its position, and the position is advanced past the written data.
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	public int getKeyframeInterval() {
+		return keyframeInterval;
+	}
+
+	/**
+	 * Sets whether sequences are written as delta sequences, where only every {@code keyframeInterval}th image (a
+	 * keyframe) is encoded as is, and the others are encoded as the difference with the image before. Pixels that
+	 * didn't change then encode as runs, which makes sequences of similar images (e.g. animations, screen recordings,
+	 * or time-lapses) a lot smaller. The keyframes are the points a reader can start decoding from, so the interval
+	 * trades size against the time to seek to a random image.
+	 * <p>
+	 * All images of a delta sequence must have the same size and the same number of channels. The setting takes effect
+	 * at the next {@link #prepareWriteSequence(IIOMetadata)}, and doesn't affect single images.
+	 *
+	 * @param keyframeInterval the number of images from one keyframe to the next, or 0 (the default) to write regular
+	 *                         sequences.
+	 */
+	public void setKeyframeInterval(int keyframeInterval) {
+		if (keyframeInterval < 0) {
+			throw new IllegalArgumentException("keyframeInterval < 0!");
 		}
 
-		if (output != null && !(output instanceof ImageOutputStream)) {
-			throw new IllegalArgumentException("output not an ImageOutputStream!");
+		this.keyframeInterval = keyframeInterval;
+	}
+
+	public int getSnapshotInterval() {
+		return snapshotInterval;
+	}
+
+	/**
+	 * Sets whether {@code write} records the encoder state at regular row intervals, so the image can later be saved
+	 * again by re-encoding only the rows that changed (see {@link #rewrite(RenderedImage, QOIEncoderSnapshots, int)}).
+	 * Smaller intervals re-encode fewer unchanged rows, at the cost of about 270 bytes per snapshot.
+	 * <p>
+	 * Snapshots are not recorded for compressed images, images in sequences, rasters, and images written with a
+	 * source region, subsampling or source bands.
+	 *
+	 * @param snapshotInterval the number of rows from one snapshot to the next, or 0 (the default) to not record
+	 *                         snapshots.
+	 */
+	public void setSnapshotInterval(int snapshotInterval) {
+		if (snapshotInterval < 0) {
+			throw new IllegalArgumentException("snapshotInterval < 0!");
 		}
 
-		stream = (ImageOutputStream)output;
+		this.snapshotInterval = snapshotInterval;
+	}
+
+	/**
+	 * @return the snapshots recorded during the last {@code write} or {@code rewrite}, or {@code null} if none were
+	 * recorded or it was aborted.
+	 * @see #setSnapshotInterval(int)
+	 */
+	public QOIEncoderSnapshots getSnapshots() {
+		return snapshots;
 	}
 
+	/**
+	 * The returned param supports optional Deflate compression, see {@link QOIImageWriteParam}.
+	 */
 	@Override
 	public ImageWriteParam getDefaultWriteParam() {
-		return null;
+		return new QOIImageWriteParam(getLocale());
 	}
 
 	@Override
@@ -111,28 +247,33 @@ public final class QOIImageWriter extends ImageWriter {
 	public void write(IIOMetadata streamMetadata, IIOImage image, ImageWriteParam param) throws IIOException {
 		if (image == null) {
 			throw new IllegalArgumentException("image == null!");
-		} else if (stream == null) {
+		} else if (output == null) {
 			throw new IllegalStateException("output == null!");
-		} else if (image.hasRaster()) {
-			throw new UnsupportedOperationException("IIOImage has a Raster!");
 		}
 
-		RenderedImage renderedImage = image.getRenderedImage();
-		ColorModel    colorModel    = renderedImage.getColorModel();
-		boolean       hasAlpha      = colorModel.hasAlpha();
+		int deflateLevel = QOIImageWriteParam.getDeflateLevel(param);
+		if (deflateLevel >= 0 && frameOffsets != null) {
+			throw new UnsupportedOperationException("Compression is not supported in sequences!");
+		}
 
-		width = renderedImage.getWidth();
-		height = renderedImage.getHeight();
-		channels = hasAlpha ? 4 : 3;
-		colorSpace = 0;
-		repeatCount = 0;
-		lastR = 0;
-		lastG = 0;
-		lastB = 0;
-		lastA = (byte)255;
+		prepareEncoder(image, param);
 
-		if (channels < 1 || channels > 4) {
-			throw new UnsupportedOperationException("Cannot encode image with " + channels + " channels");
+		if (deflateLevel >= 0) {
+			if (deflater == null) {
+				deflater = new Deflater(deflateLevel);
+			} else {
+				deflater.setLevel(deflateLevel);
+			}
+
+			encoder.setDeflater(deflater);
+		}
+
+		int maxError = QOIImageWriteParam.getMaxError(param);
+		encoder.setMaxError(maxError);
+
+		snapshots = null;
+		if (snapshotInterval > 0 && deflateLevel < 0 && frameOffsets == null && isWholeSource(image)) {
+			recordingSnapshots = new QOIEncoderSnapshots(width, height, channels, maxError, snapshotInterval);
 		}
 
 		try {
@@ -141,13 +282,17 @@ public final class QOIImageWriter extends ImageWriter {
 			if (abortRequested()) {
 				processWriteAborted();
 			} else {
-				writeHeader();
-				encodeImage(renderedImage);
-				writeFooter();
+				// When writing a sequence, continue after the previous image
+				encoder.prepareBuffer((int)sequenceLength);
+				encoder.startImage(width, height, channels, colorSpace);
+				encodeImage(image);
+				encoder.endImage();
+				bytesWritten = encoder.getBytesFlushed();
 
 				if (abortRequested()) {
 					processWriteAborted();
 				} else {
+					snapshots = recordingSnapshots;
 					processImageComplete();
 				}
 			}
@@ -157,87 +302,650 @@ public final class QOIImageWriter extends ImageWriter {
 			throw new IIOException("I/O error writing QOI data", ex);
 		} catch (Throwable ex) {
 			throw new IIOException("Unexpected exception during write", ex);
+		} finally {
+			encoder.setDeflater(null);
+			encoder.setMaxError(0);
+			recordingSnapshots = null;
 		}
 	}
 
-	private void writeHeader() throws IOException {
-		stream.writeInt(QOI_MAGIC);
-		stream.writeInt(width);
-		stream.writeInt(height);
-		stream.writeByte(channels);
-		stream.writeByte(colorSpace);
+	/**
+	 * Saves an image again after it changed, re-encoding only from the changed rows on. Encoding resumes from the last
+	 * snapshot at or before {@code firstChangedRow}, and the output before that is left as it is. The result is
+	 * identical to writing the whole image again. New snapshots are recorded with the same interval, and are available
+	 * from {@link #getSnapshots()} afterwards.
+	 * <p>
+	 * The output must be set to the same place as for the write that recorded the snapshots, and still hold its
+	 * result: {@code byte[]} output from the start, {@link ByteBuffer} output from the position, and stream and channel
+	 * output from the current position. Channels must be {@link java.nio.channels.SeekableByteChannel}s, and are
+	 * truncated after the image, in case it got shorter. Old data after the image in other outputs is left as it is,
+	 * so e.g. files written through an {@link javax.imageio.stream.ImageOutputStream} should be truncated to
+	 * {@link #getBytesWritten()} by the caller.
+	 * <p>
+	 * The image must have the same size and the same number of channels as when the snapshots were recorded. It's
+	 * encoded with the same {@link QOIImageWriteParam#setMaxError(int) maxError}, and is never compressed.
+	 *
+	 * @param snapshots       the snapshots of the previous write, see {@link #getSnapshots()}.
+	 * @param firstChangedRow the first row that is different from the previous write. Rows after it may be different
+	 *                        too.
+	 */
+	public void rewrite(RenderedImage image, QOIEncoderSnapshots snapshots, int firstChangedRow) throws IIOException {
+		if (image == null) {
+			throw new IllegalArgumentException("image == null!");
+		} else if (snapshots == null) {
+			throw new IllegalArgumentException("snapshots == null!");
+		} else if (output == null) {
+			throw new IllegalStateException("output == null!");
+		} else if (frameOffsets != null) {
+			throw new IllegalStateException("Can't rewrite an image in a sequence!");
+		}
+
+		IIOImage iioImage = new IIOImage(image, null, null);
+		prepareEncoder(iioImage, null);
+
+		if (width != snapshots.getWidth() || height != snapshots.getHeight()) {
+			throw new IllegalArgumentException("Image size differs from the snapshots: " + width + 'x' + height +
+			                                   " vs. " + snapshots.getWidth() + 'x' + snapshots.getHeight());
+		} else if (channels != snapshots.getChannels()) {
+			throw new IllegalArgumentException("Number of channels differs from the snapshots: " + channels +
+			                                   " vs. " + snapshots.getChannels());
+		}
+
+		int snapshot = snapshots.getSnapshotIndex(firstChangedRow);
+
+		encoder.setMaxError(snapshots.getMaxError());
+		this.snapshots = null;
+		recordingSnapshots = new QOIEncoderSnapshots(snapshots, snapshot + 1);
+		startRow = snapshot * snapshots.getRowInterval();
+
+		try {
+			clearAbortRequest();
+			processImageStarted(0);
+			if (abortRequested()) {
+				processWriteAborted();
+			} else {
+				encoder.prepareBuffer(0);
+				encoder.resumeImage(snapshots, snapshot);
+				encodeImage(iioImage);
+				encoder.endImage();
+				encoder.truncateOutput();
+				bytesWritten = snapshots.getOffset(snapshot) + encoder.getBytesFlushed();
+
+				if (abortRequested()) {
+					processWriteAborted();
+				} else {
+					this.snapshots = recordingSnapshots;
+					processImageComplete();
+				}
+			}
+		} catch (IllegalArgumentException | IllegalStateException | UnsupportedOperationException ex) {
+			throw ex;
+		} catch (IOException ex) {
+			throw new IIOException("I/O error writing QOI data", ex);
+		} catch (Throwable ex) {
+			throw new IIOException("Unexpected exception during write", ex);
+		} finally {
+			encoder.setMaxError(0);
+			recordingSnapshots = null;
+			startRow = 0;
+		}
 	}
 
-	private void encodeImage(RenderedImage image) throws IOException {
+	/**
+	 * Calculates the exact size of the QOI file the given image encodes to, including header and footer, without
+	 * writing anything. This runs the complete encoder, so it takes about as long as encoding.
+	 * <p>
+	 * No output needs to be set, and listeners don't get notified.
+	 *
+	 * @see #getMaxEncodedSize(int, int, int)
+	 */
+	public long computeEncodedSize(RenderedImage image) throws IIOException {
+		if (image == null) {
+			throw new IllegalArgumentException("image == null!");
+		}
+
+		IIOImage iioImage = new IIOImage(image, null, null);
+		prepareEncoder(iioImage, null);
+
+		encoder.setSizeOnly(true);
+		try {
+			clearAbortRequest();
+			encoder.prepareBuffer(0);
+			encoder.startImage(width, height, channels, colorSpace);
+			encodeImage(iioImage);
+			encoder.endImage();
+
+			return encoder.getBytesFlushed();
+		} catch (IllegalArgumentException | IllegalStateException | UnsupportedOperationException ex) {
+			throw ex;
+		} catch (IOException ex) {
+			throw new IIOException("I/O error computing QOI size", ex);
+		} catch (Throwable ex) {
+			throw new IIOException("Unexpected exception computing QOI size", ex);
+		} finally {
+			encoder.setSizeOnly(false);
+		}
+	}
+
+	/**
+	 * Calculates an upper bound for the size of a QOI file, including header and footer, without looking at the
+	 * pixels. The worst case is every pixel being encoded as an uncompressed literal.
+	 *
+	 * @see #computeEncodedSize(RenderedImage)
+	 */
+	public static long getMaxEncodedSize(int width, int height, int channels) {
+		if (width <= 0) {
+			throw new IllegalArgumentException("width <= 0!");
+		} else if (height <= 0) {
+			throw new IllegalArgumentException("height <= 0!");
+		} else if (channels != 3 && channels != 4) {
+			throw new IllegalArgumentException("'channels' must be 3 or 4!");
+		}
+
+		return HEADER_SIZE + (long)width * height * (channels + 1) + FOOTER_SIZE;
+	}
+
+	@Override
+	public void dispose() {
+		if (deflater != null) {
+			deflater.end();
+			deflater = null;
+		}
+
+		super.dispose();
+	}
+
+	/**
+	 * Determines the size and channels of the QOI image, and the part of the source to encode, from the image and the
+	 * source region, subsampling and source bands of the param.
+	 */
+	private void prepareEncoder(IIOImage image, ImageWriteParam param) {
+		// The region to encode, as edges rather than a Rectangle to not allocate
+		int minX;
+		int minY;
+		int maxX;
+		int maxY;
+		int numBands;
+		if (image.hasRaster()) {
+			Raster raster = image.getRaster();
+			minX = raster.getMinX();
+			minY = raster.getMinY();
+			maxX = minX + raster.getWidth();
+			maxY = minY + raster.getHeight();
+			numBands = raster.getNumBands();
+		} else {
+			RenderedImage renderedImage = image.getRenderedImage();
+			minX = renderedImage.getMinX();
+			minY = renderedImage.getMinY();
+			maxX = minX + renderedImage.getWidth();
+			maxY = minY + renderedImage.getHeight();
+			numBands = renderedImage.getSampleModel().getNumBands();
+		}
+
+		xPeriod = 1;
+		yPeriod = 1;
+		sourceBands = null;
+
+		if (param != null) {
+			Rectangle sourceRegion = param.getSourceRegion();
+			if (sourceRegion != null) {
+				minX = Math.max(minX, sourceRegion.x);
+				minY = Math.max(minY, sourceRegion.y);
+				maxX = Math.min(maxX, sourceRegion.x + sourceRegion.width);
+				maxY = Math.min(maxY, sourceRegion.y + sourceRegion.height);
+			}
+
+			minX += param.getSubsamplingXOffset();
+			minY += param.getSubsamplingYOffset();
+
+			xPeriod = param.getSourceXSubsampling();
+			yPeriod = param.getSourceYSubsampling();
+
+			sourceBands = param.getSourceBands();
+			if (sourceBands != null) {
+				for (int band : sourceBands) {
+					if (band < 0 || band >= numBands) {
+						throw new IllegalArgumentException("Source band " + band + " does not exist!");
+					}
+				}
+
+				numBands = sourceBands.length;
+			}
+		}
+
+		if (minX >= maxX || minY >= maxY) {
+			throw new IllegalArgumentException("Source region is empty!");
+		}
+
+		sourceX = minX;
+		sourceY = minY;
+		width = (maxX - minX + xPeriod - 1) / xPeriod;
+		height = (maxY - minY + yPeriod - 1) / yPeriod;
+		colorSpace = 0;
+
+		if (image.hasRaster() || sourceBands != null) {
+			// Without a color model, the bands are gray, gray and alpha, RGB, or RGBA
+			if (numBands < 1 || numBands > 4) {
+				throw new UnsupportedOperationException("Cannot encode " + numBands + " bands");
+			}
+
+			channels = numBands == 2 || numBands == 4 ? 4 : 3;
+		} else {
+			channels = image.getRenderedImage().getColorModel().hasAlpha() ? 4 : 3;
+		}
+	}
+
+	/**
+	 * @return whether all pixels of the source are encoded, in which case the output can be rewritten from snapshots.
+	 */
+	private boolean isWholeSource(IIOImage image) {
+		return !image.hasRaster() && sourceBands == null && xPeriod == 1 && yPeriod == 1 &&
+		       width == image.getRenderedImage().getWidth() && height == image.getRenderedImage().getHeight();
+	}
+
+	/**
+	 * Rasters are encoded as gray (1 band), gray with alpha (2 bands), RGB (3 bands), or RGBA (4 bands). Samples that
+	 * are not 8 bits are scaled.
+	 */
+	@Override
+	public boolean canWriteRasters() {
+		return true;
+	}
+
+	/**
+	 * Writes a raster, see {@link #canWriteRasters()}.
+	 */
+	public void write(Raster raster) throws IIOException {
+		write(null, new IIOImage(raster, null, null), null);
+	}
+
+	@Override
+	public boolean canWriteSequence() {
+		return true;
+	}
+
+	/**
+	 * Starts a QOI sequence. A sequence is a concatenation of complete QOI files, followed by an index of the offsets
+	 * of all images, the number of images, and the magic {@code "qois"}:
+	 * <pre>
+	 * image 0 ... image n-1, offset[0] ... offset[n-1] (8 bytes each), n (4 bytes), "qois"
+	 * </pre>
+	 * Offsets are relative to the start of the first image, and all values are big-endian. Because the sequence
+	 * starts with a regular QOI file, readers unaware of sequences see only the first image. {@link QOIImageReader}
+	 * uses the index to seek directly to any image.
+	 * <p>
+	 * When a {@link #setKeyframeInterval(int) keyframe interval} is set, the images between keyframes are encoded as
+	 * differences, and the index ends with the keyframe interval and the magic {@code "qoid"} instead:
+	 * <pre>
+	 * image 0 ... image n-1, offset[0] ... offset[n-1] (8 bytes each), interval (4 bytes), n (4 bytes), "qoid"
+	 * </pre>
+	 * Image {@code i} is a keyframe when {@code i % interval == 0}. The first image is always a keyframe, so readers
+	 * unaware of sequences still see the first image correctly.
+	 */
+	@Override
+	public void prepareWriteSequence(IIOMetadata streamMetadata) {
+		if (output == null) {
+			throw new IllegalStateException("output == null!");
+		} else if (frameOffsets != null) {
+			throw new IllegalStateException("Already writing a sequence!");
+		}
+
+		frameOffsets = new long[16];
+		numFrames = 0;
+		sequenceLength = 0;
+		deltaInterval = keyframeInterval;
+	}
+
+	@Override
+	public void writeToSequence(IIOImage image, ImageWriteParam param) throws IIOException {
+		if (frameOffsets == null) {
+			throw new IllegalStateException("prepareWriteSequence() not called!");
+		}
+
+		if (numFrames == frameOffsets.length) {
+			frameOffsets = Arrays.copyOf(frameOffsets, numFrames * 2);
+		}
+
+		if (deltaInterval > 0 && image != null) {
+			prepareEncoder(image, param);
+			prepareDeltaFrame();
+		}
+
+		long frameOffset = sequenceLength;
+		try {
+			write(null, image, param);
+		} finally {
+			encoder.setFrames(null, null);
+		}
+
+		sequenceLength += bytesWritten;
+
+		if (!abortRequested()) {
+			frameOffsets[numFrames] = frameOffset;
+			numFrames++;
+
+			if (deltaInterval > 0) {
+				// Only a completely written image can be the base of the next one
+				int[] swap = previousFrame;
+				previousFrame = currentFrame;
+				currentFrame = swap;
+			}
+		}
+	}
+
+	/**
+	 * Checks the size and channels prepared by {@link #prepareEncoder} against the first frame.
+	 */
+	private void prepareDeltaFrame() {
+		if (numFrames == 0) {
+			long numPixels = (long)width * height;
+			if (numPixels > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Image too large for a delta sequence: " + numPixels + " pixels");
+			}
+
+			if (previousFrame == null || previousFrame.length != numPixels) {
+				previousFrame = new int[(int)numPixels];
+				currentFrame = new int[(int)numPixels];
+			}
+
+			frameWidth = width;
+			frameHeight = height;
+			frameChannels = channels;
+		} else if (width != frameWidth || height != frameHeight || channels != frameChannels) {
+			throw new IllegalArgumentException("All images of a delta sequence must have the same size and channels!");
+		}
+
+		boolean keyframe = numFrames % deltaInterval == 0;
+		encoder.setFrames(currentFrame, keyframe ? null : previousFrame);
+	}
+
+	private void endDeltaSequence() {
+		deltaInterval = 0;
+		previousFrame = null;
+		currentFrame = null;
+	}
+
+	@Override
+	public void endWriteSequence() throws IIOException {
+		if (frameOffsets == null) {
+			throw new IllegalStateException("prepareWriteSequence() not called!");
+		}
+
+		try {
+			encoder.prepareBuffer((int)sequenceLength);
+
+			for (int i = 0; i < numFrames; i++) {
+				encoder.writeInt((int)(frameOffsets[i] >> 32));
+				encoder.writeInt((int)frameOffsets[i]);
+			}
+
+			if (deltaInterval > 0) {
+				encoder.writeInt(deltaInterval);
+				encoder.writeInt(numFrames);
+				encoder.writeInt(QOI_DELTA_SEQUENCE_MAGIC);
+			} else {
+				encoder.writeInt(numFrames);
+				encoder.writeInt(QOI_SEQUENCE_MAGIC);
+			}
+			encoder.flushBuffer();
+
+			bytesWritten = sequenceLength + encoder.getBytesFlushed();
+		} catch (IOException ex) {
+			throw new IIOException("I/O error writing QOI sequence index", ex);
+		} finally {
+			frameOffsets = null;
+			numFrames = 0;
+			sequenceLength = 0;
+			endDeltaSequence();
+		}
+	}
+
+	private void encodeImage(IIOImage image) throws IOException {
 		// Prepare progress notification variables
-		totalPixels = width * height;
+		totalPixels = width * (height - startRow);
 		pixelsDone = 0;
 		nextUpdateAt = 0;
 
-		ColorModel colorModel  = image.getColorModel();
-		int[]      sampleSizes = image.getSampleModel().getSampleSize();
-		int        srcChannels = sampleSizes.length;
+		if (image.hasRaster()) {
+			encodeRaster(selectBands(image.getRaster()), null, null);
+		} else if (sourceBands != null) {
+			encodeRaster(selectBands(getRasterWithoutCopy(image.getRenderedImage())), null, null);
+		} else {
+			RenderedImage renderedImage = image.getRenderedImage();
+			encodeRaster(getRasterWithoutCopy(renderedImage), renderedImage.getColorModel(), renderedImage);
+		}
+	}
+
+	/**
+	 * @param colorModel the color model of the samples, or {@code null} to interpret the bands as gray, gray and alpha,
+	 *                   RGB, or RGBA.
+	 * @param image      the image containing the raster, if any.
+	 */
+	private void encodeRaster(Raster raster, ColorModel colorModel, RenderedImage image) throws IOException {
+		SampleModel sampleModel = raster.getSampleModel();
+		DataBuffer  dataBuffer  = raster.getDataBuffer();
+		int         srcChannels = sampleModel.getNumBands();
 
-		boolean byteSamples = true;
-		for (int sampleSize : sampleSizes) {
-			if (sampleSize != 8) {
+		boolean byteSamples = colorModel == null || !colorModel.isAlphaPremultiplied();
+		for (int band = 0; band < srcChannels; band++) {
+			if (sampleModel.getSampleSize(band) != 8) {
 				byteSamples = false;
 				break;
 			}
 		}
 
-		if (byteSamples && colorModel instanceof DirectColorModel) {
-			encodeDirectColorModelImage(image.getData(), srcChannels);
-		} else if (byteSamples && colorModel instanceof ComponentColorModel) {
-			encodeComponentColorModelImage(image.getData(), srcChannels);
+		// Location of the first pixel to encode in the sample model
+		int x0 = sourceX - raster.getSampleModelTranslateX();
+		int y0 = sourceY - raster.getSampleModelTranslateY();
+
+		if (byteSamples && (colorModel == null ? srcChannels >= 3 : colorModel instanceof DirectColorModel) &&
+		    sampleModel instanceof SinglePixelPackedSampleModel && dataBuffer instanceof DataBufferInt) {
+			encodeDirectColorModelImage(raster, x0, y0, srcChannels);
+		} else if (byteSamples && (colorModel == null || colorModel instanceof ComponentColorModel) &&
+		           sampleModel instanceof ComponentSampleModel && dataBuffer instanceof DataBufferByte) {
+			encodeComponentColorModelImage(raster, x0, y0, srcChannels);
+		} else if (colorModel == null) {
+			encodeGenericRaster(raster);
+		} else if (image instanceof BufferedImage) {
+			encodeBufferedImage((BufferedImage)image);
 		} else {
 			encodeIncompatibleImage(image);
 		}
 	}
 
+	/**
+	 * @return a raster sharing the samples of the given raster, with only the {@link #sourceBands}, if set.
+	 */
+	private Raster selectBands(Raster raster) {
+		if (sourceBands == null) {
+			return raster;
+		}
+
+		return raster.createChild(raster.getMinX(), raster.getMinY(), raster.getWidth(), raster.getHeight(),
+		                          raster.getMinX(), raster.getMinY(), sourceBands);
+	}
+
+	/**
+	 * Returns a raster containing the image, without copying pixels where possible. Only images consisting of
+	 * multiple tiles need to be copied into a single raster, and then only the part that's encoded.
+	 */
+	private Raster getRasterWithoutCopy(RenderedImage image) {
+		if (image instanceof BufferedImage) {
+			return ((BufferedImage)image).getRaster();
+		} else if (image.getNumXTiles() == 1 && image.getNumYTiles() == 1) {
+			return image.getTile(image.getMinTileX(), image.getMinTileY());
+		} else {
+			return image.getData(new Rectangle(sourceX, sourceY, getSpanWidth(), getSpanHeight()));
+		}
+	}
+
+	/** @return the width of the part of the source that contains the encoded pixels. */
+	private int getSpanWidth() {
+		return (width - 1) * xPeriod + 1;
+	}
+
+	/** @return the height of the part of the source that contains the encoded pixels. */
+	private int getSpanHeight() {
+		return (height - 1) * yPeriod + 1;
+	}
+
 	private void encodeIncompatibleImage(RenderedImage image) throws IOException {
 		int           imageType      = channels == 4 ? BufferedImage.TYPE_4BYTE_ABGR : BufferedImage.TYPE_3BYTE_BGR;
-		BufferedImage convertedImage = new BufferedImage(width, height, imageType);
+		BufferedImage convertedImage = new BufferedImage(getSpanWidth(), getSpanHeight(), imageType);
 
 		Graphics2D g = convertedImage.createGraphics();
 		try {
-			g.drawRenderedImage(image, new AffineTransform());
+			g.drawRenderedImage(image, AffineTransform.getTranslateInstance(-sourceX, -sourceY));
 		} finally {
 			g.dispose();
 		}
 
-		encodeComponentColorModelImage(convertedImage.getRaster(), channels);
+		encodeComponentColorModelImage(convertedImage.getRaster(), 0, 0, channels);
+	}
+
+	/**
+	 * Encodes any {@link BufferedImage} that has no specialized encoder, converting one row at a time to sRGB.
+	 */
+	private void encodeBufferedImage(BufferedImage image) throws IOException {
+		int   spanWidth = getSpanWidth();
+		int[] row       = new int[spanWidth];
+
+		for (int y = startRow; y < height; y++) {
+			if (beginRow(y)) {
+				break;
+			}
+
+			image.getRGB(sourceX, sourceY + y * yPeriod, spanWidth, 1, row, 0, spanWidth);
+
+			for (int x = 0; x < spanWidth; x += xPeriod) {
+				int  pixel = row[x];
+				byte r     = (byte)(pixel >> 16);
+				byte g     = (byte)(pixel >> 8);
+				byte b     = (byte)pixel;
+				byte a     = channels == 4 ? (byte)(pixel >> 24) : (byte)255;
+				encoder.encodeColor(r, g, b, a);
+			}
+		}
+	}
+
+	/**
+	 * Encodes the bands of any raster without a specialized encoder as gray, gray and alpha, RGB, or RGBA, scaling
+	 * samples that are not 8 bits.
+	 */
+	private void encodeGenericRaster(Raster raster) throws IOException {
+		int dataType = raster.getSampleModel().getDataType();
+		if (dataType == DataBuffer.TYPE_FLOAT || dataType == DataBuffer.TYPE_DOUBLE) {
+			throw new UnsupportedOperationException("Cannot encode raster with floating point samples");
+		}
+
+		int   numBands   = raster.getNumBands();
+		int[] sampleSize = raster.getSampleModel().getSampleSize();
+		int[] maxValues  = new int[numBands];
+		for (int band = 0; band < numBands; band++) {
+			maxValues[band] = (1 << sampleSize[band]) - 1;
+		}
+
+		int   spanWidth = getSpanWidth();
+		int[] row       = new int[spanWidth * numBands];
+		int   step      = xPeriod * numBands;
+		int   end       = spanWidth * numBands;
+
+		for (int y = startRow; y < height; y++) {
+			if (beginRow(y)) {
+				break;
+			}
+
+			raster.getPixels(sourceX, sourceY + y * yPeriod, spanWidth, 1, row);
+
+			for (int p = 0; p < end; p += step) {
+				byte r = scaleSample(row[p], maxValues[0]);
+				byte g = numBands < 3 ? r : scaleSample(row[p + 1], maxValues[1]);
+				byte b = numBands < 3 ? r : scaleSample(row[p + 2], maxValues[2]);
+				byte a = numBands == 2 ? scaleSample(row[p + 1], maxValues[1]) :
+				         numBands == 4 ? scaleSample(row[p + 3], maxValues[3]) : (byte)255;
+				encoder.encodeColor(r, g, b, a);
+			}
+		}
+	}
+
+	private static byte scaleSample(int sample, int maxValue) {
+		return maxValue == 255 ? (byte)sample : (byte)((sample * 255L + (maxValue >> 1)) / maxValue);
+	}
+
+	/**
+	 * Gets the layout of the sample model, unless it's the same as the layout of the last one.
+	 */
+	private void updateLayout(SampleModel sampleModel) {
+		if (sampleModel == layoutSampleModel || sampleModel.equals(layoutSampleModel)) {
+			return;
+		}
+
+		if (sampleModel instanceof SinglePixelPackedSampleModel) {
+			layoutOffsets = ((SinglePixelPackedSampleModel)sampleModel).getBitOffsets();
+			layoutBankIndices = null;
+		} else {
+			layoutOffsets = ((ComponentSampleModel)sampleModel).getBandOffsets();
+			layoutBankIndices = ((ComponentSampleModel)sampleModel).getBankIndices();
+		}
+
+		layoutSampleModel = sampleModel;
 	}
 
-	private void encodeDirectColorModelImage(Raster raster, int srcChannels) throws IOException {
-		int[] pixels     = ((DataBufferInt)raster.getDataBuffer()).getData();
-		int[] bitOffsets = ((SinglePixelPackedSampleModel)raster.getSampleModel()).getBitOffsets();
-		int   lineStride = width * channels;
+	private void encodeDirectColorModelImage(Raster raster, int x0, int y0, int srcChannels) throws IOException {
+		SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel)raster.getSampleModel();
+		DataBufferInt                dataBuffer  = (DataBufferInt)raster.getDataBuffer();
 
-		if (srcChannels == 3 && channels == 3) {
-			for (int i = 0; i < pixels.length; i++) {
-				if (checkUpdateAndAbort(i, lineStride)) {
+		updateLayout(sampleModel);
+
+		int[] pixels         = dataBuffer.getData();
+		int[] bitOffsets     = layoutOffsets;
+		int   scanlineStride = sampleModel.getScanlineStride();
+		int   start          = dataBuffer.getOffset() + y0 * scanlineStride + x0;
+		int   rowStride      = scanlineStride * yPeriod;
+		int   end            = width * xPeriod;
+
+		// Whether the pixels are already ARGB (or RGB), like TYPE_INT_ARGB and TYPE_INT_RGB
+		boolean argb = bitOffsets[0] == 16 && bitOffsets[1] == 8 && bitOffsets[2] == 0 &&
+		               (srcChannels == 3 || bitOffsets[3] == 24);
+
+		if (argb && srcChannels == channels && xPeriod == 1) {
+			for (int y = startRow; y < height; y++) {
+				if (beginRow(y)) {
 					break;
 				}
 
-				int  pixel = pixels[i];
-				byte r     = (byte)(pixel >> bitOffsets[0]);
-				byte g     = (byte)(pixel >> bitOffsets[1]);
-				byte b     = (byte)(pixel >> bitOffsets[2]);
-				encodeColor(r, g, b, (byte)255);
+				encoder.encodePixels(pixels, start + y * rowStride, width, channels == 3);
+			}
+		} else if (srcChannels == 3 && channels == 3) {
+			for (int y = startRow; y < height; y++) {
+				if (beginRow(y)) {
+					break;
+				}
+
+				int i = start + y * rowStride;
+				for (int x = 0; x < end; x += xPeriod) {
+					int  pixel = pixels[i + x];
+					byte r     = (byte)(pixel >> bitOffsets[0]);
+					byte g     = (byte)(pixel >> bitOffsets[1]);
+					byte b     = (byte)(pixel >> bitOffsets[2]);
+					encoder.encodeColor(r, g, b, (byte)255);
+				}
 			}
 		} else if (srcChannels == 4 && channels == 4) {
-			for (int i = 0; i < pixels.length; i++) {
-				if (checkUpdateAndAbort(i, lineStride)) {
+			for (int y = startRow; y < height; y++) {
+				if (beginRow(y)) {
 					break;
 				}
 
-				int  pixel = pixels[i];
-				byte r     = (byte)(pixel >> bitOffsets[0]);
-				byte g     = (byte)(pixel >> bitOffsets[1]);
-				byte b     = (byte)(pixel >> bitOffsets[2]);
-				byte a     = (byte)(pixel >> bitOffsets[3]);
-				encodeColor(r, g, b, a);
+				int i = start + y * rowStride;
+				for (int x = 0; x < end; x += xPeriod) {
+					int  pixel = pixels[i + x];
+					byte r     = (byte)(pixel >> bitOffsets[0]);
+					byte g     = (byte)(pixel >> bitOffsets[1]);
+					byte b     = (byte)(pixel >> bitOffsets[2]);
+					byte a     = (byte)(pixel >> bitOffsets[3]);
+					encoder.encodeColor(r, g, b, a);
+				}
 			}
 		} else if (channels == 4) {
 			throw new UnsupportedOperationException(
@@ -248,57 +956,111 @@ public final class QOIImageWriter extends ImageWriter {
 		}
 	}
 
-	@SuppressWarnings("ValueOfIncrementOrDecrementUsed")
-	private void encodeComponentColorModelImage(Raster raster, int srcChannels) throws IOException {
-		byte[] samples     = ((DataBufferByte)raster.getDataBuffer()).getData();
-		int[]  bandOffsets = ((ComponentSampleModel)raster.getSampleModel()).getBandOffsets();
-		int    lineStride  = width * channels;
-		int    p           = 0;
+	/**
+	 * Encodes byte samples in any layout a {@link ComponentSampleModel} can describe, including sub-images and
+	 * banded rasters, by walking the data buffer with the sample model's strides and offsets.
+	 */
+	private void encodeComponentColorModelImage(Raster raster, int x0, int y0, int srcChannels) throws IOException {
+		ComponentSampleModel sampleModel = (ComponentSampleModel)raster.getSampleModel();
+		DataBufferByte       dataBuffer  = (DataBufferByte)raster.getDataBuffer();
+
+		updateLayout(sampleModel);
+
+		int   scanlineStride = sampleModel.getScanlineStride();
+		int   pixelStride    = sampleModel.getPixelStride();
+		int[] bankIndices    = layoutBankIndices;
+		int[] bandOffsets    = layoutOffsets;
+		int   origin         = y0 * scanlineStride + x0 * pixelStride;
+		int   rowStride      = scanlineStride * yPeriod;
+		int   step           = pixelStride * xPeriod;
+
+		// Only a data buffer with multiple banks needs a copy of the bank offsets
+		int[] bankOffsets = dataBuffer.getNumBanks() == 1 ? null : dataBuffer.getOffsets();
+
+		// Per band, the index of the first sample of the image. More than 4 bands are rejected below.
+		int[] starts = bandStarts;
+		for (int band = 0; band < Math.min(srcChannels, starts.length); band++) {
+			int bankOffset = bankOffsets == null ? dataBuffer.getOffset() : bankOffsets[bankIndices[band]];
+			starts[band] = bankOffset + bandOffsets[band] + origin;
+		}
 
 		if (srcChannels == 1 && channels == 3) {
-			while (p < samples.length) {
-				if (checkUpdateAndAbort(p, lineStride)) {
+			byte[] ySamples = dataBuffer.getData(bankIndices[0]);
+
+			for (int y = startRow; y < height; y++) {
+				if (beginRow(y)) {
 					break;
 				}
 
-				byte sample = samples[p++];
-				encodeColor(sample, sample, sample, (byte)255);
+				int p = starts[0] + y * rowStride;
+				for (int x = 0; x < width; x++) {
+					byte sample = ySamples[p];
+					p += step;
+					encoder.encodeColor(sample, sample, sample, (byte)255);
+				}
 			}
 		} else if (srcChannels == 2 && channels == 4) {
-			while (p < samples.length) {
-				if (checkUpdateAndAbort(p, lineStride)) {
+			byte[] ySamples = dataBuffer.getData(bankIndices[0]);
+			byte[] aSamples = dataBuffer.getData(bankIndices[1]);
+			int    aOffset  = starts[1] - starts[0];
+
+			for (int y = startRow; y < height; y++) {
+				if (beginRow(y)) {
 					break;
 				}
 
-				byte y = samples[p + bandOffsets[0]];
-				byte a = samples[p + bandOffsets[1]];
-				p += 2;
-				encodeColor(y, y, y, a);
+				int p = starts[0] + y * rowStride;
+				for (int x = 0; x < width; x++) {
+					byte sample = ySamples[p];
+					byte a      = aSamples[p + aOffset];
+					p += step;
+					encoder.encodeColor(sample, sample, sample, a);
+				}
 			}
 		} else if (srcChannels == 3 && channels == 3) {
-			while (p < samples.length) {
-				if (checkUpdateAndAbort(p, lineStride)) {
+			byte[] rSamples = dataBuffer.getData(bankIndices[0]);
+			byte[] gSamples = dataBuffer.getData(bankIndices[1]);
+			byte[] bSamples = dataBuffer.getData(bankIndices[2]);
+			int    gOffset  = starts[1] - starts[0];
+			int    bOffset  = starts[2] - starts[0];
+
+			for (int y = startRow; y < height; y++) {
+				if (beginRow(y)) {
 					break;
 				}
 
-				byte r = samples[p + bandOffsets[0]];
-				byte g = samples[p + bandOffsets[1]];
-				byte b = samples[p + bandOffsets[2]];
-				p += 3;
-				encodeColor(r, g, b, (byte)255);
+				int p = starts[0] + y * rowStride;
+				for (int x = 0; x < width; x++) {
+					byte r = rSamples[p];
+					byte g = gSamples[p + gOffset];
+					byte b = bSamples[p + bOffset];
+					p += step;
+					encoder.encodeColor(r, g, b, (byte)255);
+				}
 			}
 		} else if (srcChannels == 4 && channels == 4) {
-			while (p < samples.length) {
-				if (checkUpdateAndAbort(p, lineStride)) {
+			byte[] rSamples = dataBuffer.getData(bankIndices[0]);
+			byte[] gSamples = dataBuffer.getData(bankIndices[1]);
+			byte[] bSamples = dataBuffer.getData(bankIndices[2]);
+			byte[] aSamples = dataBuffer.getData(bankIndices[3]);
+			int    gOffset  = starts[1] - starts[0];
+			int    bOffset  = starts[2] - starts[0];
+			int    aOffset  = starts[3] - starts[0];
+
+			for (int y = startRow; y < height; y++) {
+				if (beginRow(y)) {
 					break;
 				}
 
-				byte r = samples[p + bandOffsets[0]];
-				byte g = samples[p + bandOffsets[1]];
-				byte b = samples[p + bandOffsets[2]];
-				byte a = samples[p + bandOffsets[3]];
-				p += 4;
-				encodeColor(r, g, b, a);
+				int p = starts[0] + y * rowStride;
+				for (int x = 0; x < width; x++) {
+					byte r = rSamples[p];
+					byte g = gSamples[p + gOffset];
+					byte b = bSamples[p + bOffset];
+					byte a = aSamples[p + aOffset];
+					p += step;
+					encoder.encodeColor(r, g, b, a);
+				}
 			}
 		} else if (channels == 4) {
 			throw new UnsupportedOperationException(
@@ -309,108 +1071,20 @@ public final class QOIImageWriter extends ImageWriter {
 		}
 	}
 
-	private void encodeColor(byte r, byte g, byte b, byte a) throws IOException {
-		@SuppressWarnings("OverlyComplexArithmeticExpression")
-		int hash = (r * 3 + g * 5 + b * 7 + a * 11) & 0b00111111;
-
-		if (lastR == r && lastG == g && lastB == b && lastA == a) {
-			repeatCount++;
-			if (repeatCount == 62) {
-				saveOpRun();
-			}
-		} else {
-			if (repeatCount != 0) {
-				saveOpRun();
-			}
-
-			if (colorHashTable[hash][0] == r && colorHashTable[hash][1] == g &&
-			    colorHashTable[hash][2] == b && colorHashTable[hash][3] == a) {
-				saveOpIndex((byte)hash);
-			} else if (lastA != a) {
-				saveOpRGBA(r, g, b, a);
-			} else {
-				byte dr = (byte)(r - lastR);
-				byte dg = (byte)(g - lastG);
-				byte db = (byte)(b - lastB);
-
-				if (dg >= -2 && dg < 2 && // Ordered by largest chance to fail this test
-				    dr >= -2 && dr < 2 &&
-				    db >= -2 && db < 2) {
-					saveOpDiff(dr, dg, db);
-				} else {
-					//        // dg is now dy (Y in YUV)
-					dr -= dg; // dr is now du (U in YUV)
-					db -= dg; // db is now dv (V in YUV)
-
-					if (dr >= -8 && dr < 8 && // Ordered by largest chance to fail this test
-					    db >= -8 && db < 8 &&
-					    dg >= -32 && dg < 32) {
-						saveOpLuma(dg, dr, db);
-					} else {
-						saveOpRGB(r, g, b);
-					}
-				}
+	/**
+	 * Records a snapshot when one is due, and notifies progress.
+	 *
+	 * @return whether the write has been aborted
+	 */
+	private boolean beginRow(int y) {
+		if (recordingSnapshots != null) {
+			int snapshot = recordingSnapshots.getSnapshotIndexForRow(y);
+			if (snapshot >= 0) {
+				encoder.saveState(recordingSnapshots, snapshot);
 			}
 		}
 
-		lastR = r;
-		lastG = g;
-		lastB = b;
-		lastA = a;
-
-		colorHashTable[hash][0] = r;
-		colorHashTable[hash][1] = g;
-		colorHashTable[hash][2] = b;
-		colorHashTable[hash][3] = a;
-	}
-
-	private void saveOpRGBA(byte r, byte g, byte b, byte a) throws IOException {
-		stream.writeByte(QOI_OP_RGBA);
-		stream.writeByte(r);
-		stream.writeByte(g);
-		stream.writeByte(b);
-		stream.writeByte(a);
-	}
-
-	private void saveOpRGB(byte r, byte g, byte b) throws IOException {
-		stream.writeByte(QOI_OP_RGB);
-		stream.writeByte(r);
-		stream.writeByte(g);
-		stream.writeByte(b);
-	}
-
-	private void saveOpRun() throws IOException {
-		stream.writeByte(QOI_OP_RUN | (repeatCount - 1));
-		repeatCount = 0;
-	}
-
-	private void saveOpLuma(byte dy, byte du, byte dv) throws IOException {
-		stream.writeByte(QOI_OP_LUMA | (dy + 32));
-		stream.writeByte((du + 8) << 4 | (dv + 8));
-	}
-
-	private void saveOpDiff(byte dr, byte dg, byte db) throws IOException {
-		stream.writeByte(QOI_OP_DIFF | (dr + 2) << 4 | (dg + 2) << 2 | (db + 2));
-	}
-
-	private void saveOpIndex(byte index) throws IOException {
-		stream.writeByte(QOI_OP_INDEX | index);
-	}
-
-	private void writeFooter() throws IOException {
-		if (repeatCount > 0) {
-			saveOpRun();
-		}
-
-		// The stream's end marker (I have no idea why this exists)
-		stream.writeByte(0x00);
-		stream.writeByte(0x00);
-		stream.writeByte(0x00);
-		stream.writeByte(0x00);
-		stream.writeByte(0x00);
-		stream.writeByte(0x00);
-		stream.writeByte(0x00);
-		stream.writeByte(0x01);
+		return checkUpdateAndAbort((y - startRow) * width, width);
 	}
 
 	private boolean checkUpdateAndAbort(int progressPosition, int progressInterval) {
@@ -418,7 +1092,9 @@ public final class QOIImageWriter extends ImageWriter {
 			nextUpdateAt += progressInterval;
 
 			pixelsDone += width;
-			processImageProgress(pixelsDone * 100.0f / totalPixels);
+			if (!encoder.isSizeOnly()) {
+				processImageProgress(pixelsDone * 100.0f / totalPixels);
+			}
 
 			// If write has been aborted, just return. processWriteAborted will be called later
 			return abortRequested();
@@ -2,6 +2,8 @@ package org.digitalmodular.qoi;
 
 import java.awt.image.ColorModel;
 import java.awt.image.IndexColorModel;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Locale;
 import javax.imageio.ImageTypeSpecifier;
 import javax.imageio.ImageWriter;
@@ -28,7 +30,7 @@ public class QOIImageWriterSpi extends ImageWriterSpi {
 		      SUFFIXES,
 		      MIME_TYPES,
 		      WRITER_CLASS_NAME,
-		      new Class<?>[]{ImageOutputStream.class},
+		      new Class<?>[]{ImageOutputStream.class, byte[].class, ByteBuffer.class, WritableByteChannel.class},
 		      READER_SPI_NAMES,
 		      false,
 		      null,
@@ -0,0 +1,511 @@
+package org.digitalmodular.qoi;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import javax.imageio.IIOException;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Buffered byte input for the decoder.
+ * <p>
+ * Reads from an {@link ImageInputStream}, a plain {@link InputStream} or a {@link ReadableByteChannel} in blocks, so
+ * the decoder doesn't pay for a virtual call into the stream implementation per byte. When reading from an
+ * {@link ImageInputStream} with flushing enabled, everything before the current block is flushed each time a new block
+ * is read, so caching streams wrapping non-seekable sources don't accumulate the entire compressed file.
+ * <p>
+ * Input compressed with Deflate (see {@link QOIImageWriter#QOI_DEFLATE_MAGIC}) is inflated transparently, after which
+ * all positions refer to the inflated data.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+final class QOIInputBuffer {
+	private static final int BUFFER_SIZE = 8192;
+
+	// The input, depending on its type, at most one of these is set
+	private ImageInputStream    stream  = null;
+	private InputStream         in      = null;
+	private ReadableByteChannel channel = null;
+	/** Whether consumed data may be discarded from the {@link ImageInputStream} cache */
+	private boolean             flush   = false;
+
+	private byte[]     buffer        = new byte[BUFFER_SIZE];
+	private ByteBuffer channelBuffer = ByteBuffer.wrap(buffer);
+
+	/** Index of the next byte to return */
+	private int     position    = 0;
+	/** Number of valid bytes in the buffer */
+	private int     limit       = 0;
+	/** Number of bytes consumed from the input before the start of the buffer */
+	private long    bufferStart = 0;
+	/** Whether an attempt was made to read past the end of the input */
+	private boolean eof         = false;
+
+	// Second stage decompression
+	/** Reused for every input, and only used when {@link #inflating} */
+	private Inflater   inflater             = null;
+	private boolean    inflating            = false;
+	private byte[]     compressedBuffer     = null;
+	private ByteBuffer compressedByteBuffer = null;
+	/** Position in the underlying input of the first compressed byte */
+	private long       compressedStart      = 0;
+	/** Position in the underlying input of the first compressed byte not yet passed to the inflater */
+	private long       rawPosition          = 0;
+
+	/**
+	 * Starts reading from a new input. The buffer is kept, so instances can be reused without reallocating it.
+	 */
+	void setInput(Object input, boolean flush) throws IOException {
+		release();
+		this.flush = flush;
+
+		if (input instanceof ImageInputStream) {
+			stream = (ImageInputStream)input;
+			bufferStart = stream.getStreamPosition();
+		} else if (input instanceof InputStream) {
+			in = (InputStream)input;
+		} else if (input instanceof ReadableByteChannel) {
+			channel = (ReadableByteChannel)input;
+		} else {
+			throw new IllegalArgumentException("input not an ImageInputStream, InputStream or ReadableByteChannel!");
+		}
+	}
+
+	/**
+	 * Forgets the input, so it can be garbage collected while this instance is kept around.
+	 */
+	void release() {
+		if (buffer.length > BUFFER_SIZE) {
+			buffer = new byte[BUFFER_SIZE];
+			channelBuffer = ByteBuffer.wrap(buffer);
+		}
+
+		stream = null;
+		in = null;
+		channel = null;
+		flush = false;
+		position = 0;
+		limit = 0;
+		bufferStart = 0;
+		eof = false;
+		inflating = false;
+	}
+
+	/**
+	 * Frees the native resources of the inflater. This instance can't be used afterwards.
+	 */
+	void dispose() {
+		release();
+
+		if (inflater != null) {
+			inflater.end();
+			inflater = null;
+		}
+	}
+
+	/**
+	 * If the input continues with the magic of a compressed QOI file, consumes it and continues with inflating the
+	 * compressed data after it. Positions are then relative to the start of the inflated data.
+	 *
+	 * @return whether the input is compressed.
+	 */
+	boolean startInflatingIfCompressed() throws IOException {
+		if (!prefetch(4)) {
+			return false;
+		}
+
+		int magic = (((buffer[position] & 0xFF) << 8 |
+		              (buffer[position + 1] & 0xFF)) << 8 |
+		             (buffer[position + 2] & 0xFF)) << 8 |
+		            (buffer[position + 3] & 0xFF);
+		if (magic != QOIImageWriter.QOI_DEFLATE_MAGIC) {
+			return false;
+		}
+
+		position += 4;
+
+		if (inflater == null) {
+			inflater = new Inflater();
+		} else {
+			inflater.reset();
+		}
+
+		// The rest of the buffer is compressed data
+		int available = limit - position;
+		if (compressedBuffer == null || compressedBuffer.length < Math.max(available, BUFFER_SIZE)) {
+			compressedBuffer = new byte[Math.max(available, BUFFER_SIZE)];
+			compressedByteBuffer = ByteBuffer.wrap(compressedBuffer);
+		}
+
+		System.arraycopy(buffer, position, compressedBuffer, 0, available);
+		inflater.setInput(compressedBuffer, 0, available);
+
+		compressedStart = getPosition();
+		rawPosition = compressedStart + available;
+		inflating = true;
+
+		bufferStart = 0;
+		position = 0;
+		limit = 0;
+		return true;
+	}
+
+	boolean isInflating() {
+		return inflating;
+	}
+
+	/**
+	 * @return the next byte (0-255) or -1 at the end of the input.
+	 */
+	int read() throws IOException {
+		if (position == limit && !fill()) {
+			return -1;
+		}
+
+		return buffer[position++] & 0xFF;
+	}
+
+	int readInt() throws IOException {
+		int b0 = read();
+		int b1 = read();
+		int b2 = read();
+		int b3 = read();
+		if ((b0 | b1 | b2 | b3) < 0) {
+			throw new EOFException();
+		}
+
+		return ((b0 << 8 | b1) << 8 | b2) << 8 | b3;
+	}
+
+	/**
+	 * @return the number of bytes consumed so far (for {@link ImageInputStream}s, this is the stream position).
+	 */
+	long getPosition() {
+		return bufferStart + position;
+	}
+
+	/**
+	 * @return the number of bytes left in the input, or -1 if unknown.
+	 */
+	long getRemaining() throws IOException {
+		long length = -1;
+		if (inflating) {
+			// Unknown
+		} else if (stream != null) {
+			length = stream.length();
+			if (length >= 0) {
+				length -= getPosition();
+			}
+		} else if (channel instanceof SeekableByteChannel) {
+			SeekableByteChannel seekableChannel = (SeekableByteChannel)channel;
+			length = seekableChannel.size() - seekableChannel.position() + limit - position;
+		}
+
+		return length;
+	}
+
+	/**
+	 * Reads ahead until at least {@code count} unconsumed bytes are buffered, growing the buffer if necessary. The
+	 * buffer grows no faster than data arrives (at most doubling each time it's full), so a large {@code count} from
+	 * untrusted input costs no more memory than the input actually has. See {@link #trim()} to shrink it again.
+	 *
+	 * @return {@code false} if the end of the input was reached first.
+	 */
+	boolean prefetch(int count) throws IOException {
+		int available = limit - position;
+		if (available >= count) {
+			return true;
+		}
+
+		System.arraycopy(buffer, position, buffer, 0, available);
+		bufferStart += position;
+		position = 0;
+		limit = available;
+
+		while (limit < count) {
+			if (limit == buffer.length) {
+				resize((int)Math.min(count, buffer.length * 2L));
+			}
+
+			int n = readBlock(limit);
+			if (n <= 0) {
+				eof = true;
+				return false;
+			}
+
+			limit += n;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Shrinks the buffer back to its normal size after {@link #prefetch(int)} grew it, if the unconsumed bytes fit.
+	 */
+	void trim() {
+		int available = limit - position;
+		if (buffer.length > BUFFER_SIZE && available <= BUFFER_SIZE) {
+			System.arraycopy(buffer, position, buffer, 0, available);
+			bufferStart += position;
+			position = 0;
+			limit = available;
+
+			resize(BUFFER_SIZE);
+		}
+	}
+
+	/**
+	 * Replaces the buffer by one of the given size, keeping the bytes up to the limit.
+	 */
+	private void resize(int size) {
+		buffer = Arrays.copyOf(buffer, size);
+		channelBuffer = ByteBuffer.wrap(buffer);
+	}
+
+	/**
+	 * Reads ahead like {@link #prefetch(int)}, for callers that read directly from the buffer (see
+	 * {@link #getBuffer()}) and want to read {@code count} bytes without checking each one. When the input ends first,
+	 * the buffer is padded after the limit with bytes 0xFF, like {@link #read()} returning -1. Unlike
+	 * {@code prefetch}, this only counts as reaching the end of the input when no bytes are left at all.
+	 *
+	 * @return the number of unconsumed bytes in the buffer, less than {@code count} only at the end of the input.
+	 */
+	int readAhead(int count) throws IOException {
+		boolean wasEOF = eof;
+		if (!prefetch(count)) {
+			// Prefetch moved the remaining bytes to the start of the buffer, so the padding fits
+			Arrays.fill(buffer, limit, count, (byte)0xFF);
+			eof = wasEOF || limit == position;
+		}
+
+		return limit - position;
+	}
+
+	/**
+	 * @return the buffer, for reading directly from {@link #getBufferPosition()} up to {@link #getBufferLimit()}. It
+	 * changes when the buffer grows.
+	 */
+	byte[] getBuffer() {
+		return buffer;
+	}
+
+	int getBufferPosition() {
+		return position;
+	}
+
+	int getBufferLimit() {
+		return limit;
+	}
+
+	/**
+	 * Consumes the bytes up to the given position after reading them directly from the buffer. A position past the
+	 * limit means the caller read padding (see {@link #readAhead(int)}), which counts as reaching the end of the input.
+	 */
+	void setBufferPosition(int position) {
+		if (position > limit) {
+			eof = true;
+			position = limit;
+		}
+
+		this.position = position;
+	}
+
+	boolean isEOF() {
+		return eof;
+	}
+
+	/**
+	 * Discards all consumed data from the cache of the underlying {@link ImageInputStream}, if any.
+	 */
+	void flush() throws IOException {
+		if (flush && stream != null) {
+			stream.flushBefore(inflating ? compressedStart + inflater.getBytesRead() : getPosition());
+		}
+	}
+
+	/**
+	 * Moves the position of the underlying {@link ImageInputStream} back to right after the last consumed byte, so
+	 * read-ahead data is not lost to subsequent users of the stream.
+	 */
+	void syncStreamPosition() throws IOException {
+		if (inflating) {
+			syncCompressedStreamPosition();
+		} else if (stream != null && position < limit) {
+			stream.seek(getPosition());
+			bufferStart = getPosition();
+			position = 0;
+			limit = 0;
+		}
+	}
+
+	/**
+	 * Moves to the given position in the underlying {@link ImageInputStream}.
+	 */
+	void seek(long newPosition) throws IOException {
+		if (stream == null) {
+			throw new IllegalStateException("Input is not seekable!");
+		}
+
+		if (newPosition >= bufferStart && newPosition <= bufferStart + limit) {
+			position = (int)(newPosition - bufferStart);
+		} else if (inflating) {
+			seekInflated(newPosition);
+		} else {
+			stream.seek(newPosition);
+			bufferStart = newPosition;
+			position = 0;
+			limit = 0;
+		}
+
+		eof = false;
+	}
+
+	/**
+	 * Inflates the rest of the compressed data (normally only the QOI footer), which also verifies its checksum, and
+	 * moves the position of the underlying {@link ImageInputStream} to right after it. Gives up after inflating
+	 * {@link #BUFFER_SIZE} bytes, so junk at the end of the compressed data costs no significant time.
+	 */
+	private void syncCompressedStreamPosition() throws IOException {
+		if (limit == buffer.length) {
+			// No room to inflate into without losing the buffered data
+			bufferStart += limit;
+			position = 0;
+			limit = 0;
+		}
+
+		// Inflate into the unused end of the buffer, and discard it
+		int discarded = 0;
+		while (discarded < BUFFER_SIZE) {
+			int n = inflateBlock(limit);
+			if (n <= 0) {
+				break;
+			}
+
+			discarded += n;
+		}
+
+		if (stream != null && inflater.finished()) {
+			stream.seek(compressedStart + inflater.getBytesRead());
+		}
+	}
+
+	/**
+	 * Restarts inflating when seeking backwards, and inflates and discards data up to the new position.
+	 */
+	private void seekInflated(long newPosition) throws IOException {
+		if (newPosition < bufferStart) {
+			stream.seek(compressedStart);
+			inflater.reset();
+			rawPosition = compressedStart;
+			bufferStart = 0;
+			position = 0;
+			limit = 0;
+		}
+
+		eof = false;
+		while (getPosition() < newPosition) {
+			if (position == limit && !fill()) {
+				throw new EOFException();
+			}
+
+			position += (int)Math.min(limit - position, newPosition - getPosition());
+		}
+	}
+
+	private boolean fill() throws IOException {
+		bufferStart += limit;
+		position = 0;
+		limit = 0;
+
+		int n = readBlock(0);
+		if (n <= 0) {
+			eof = true;
+			return false;
+		}
+
+		limit = n;
+		return true;
+	}
+
+	/**
+	 * Reads as many bytes as readily available into the buffer, from {@code offset} up to the end of the buffer.
+	 *
+	 * @return the number of bytes read, or -1 at the end of the input.
+	 */
+	private int readBlock(int offset) throws IOException {
+		if (inflating) {
+			return inflateBlock(offset);
+		}
+
+		return readRaw(buffer, channelBuffer, offset, bufferStart);
+	}
+
+	/**
+	 * Inflates as many bytes as possible into the buffer, from {@code offset} up to the end of the buffer.
+	 *
+	 * @return the number of bytes inflated, or -1 at the end of the compressed data or the input.
+	 */
+	private int inflateBlock(int offset) throws IOException {
+		try {
+			while (true) {
+				int n = inflater.inflate(buffer, offset, buffer.length - offset);
+				if (n > 0) {
+					return n;
+				} else if (inflater.finished()) {
+					return -1;
+				} else if (inflater.needsDictionary()) {
+					throw new IIOException("Deflate stream needs a preset dictionary");
+				} else if (inflater.needsInput()) {
+					int length = readRaw(compressedBuffer, compressedByteBuffer, 0, rawPosition);
+					if (length <= 0) {
+						return -1;
+					}
+
+					rawPosition += length;
+					inflater.setInput(compressedBuffer, 0, length);
+				}
+			}
+		} catch (DataFormatException ex) {
+			throw new IIOException("Corrupt Deflate stream", ex);
+		}
+	}
+
+	/**
+	 * Reads as many bytes as readily available from the input into the array, from {@code offset} up to the end.
+	 *
+	 * @param wrapper       the {@link ByteBuffer} wrapping {@code array}, for channel input
+	 * @param flushPosition everything before this position of an {@link ImageInputStream} is no longer needed
+	 * @return the number of bytes read, or -1 at the end of the input.
+	 */
+	private int readRaw(byte[] array, ByteBuffer wrapper, int offset, long flushPosition) throws IOException {
+		int length = array.length - offset;
+
+		if (stream != null) {
+			if (flush) {
+				stream.flushBefore(flushPosition);
+			}
+
+			return stream.read(array, offset, length);
+		} else if (in != null) {
+			return in.read(array, offset, length);
+		} else {
+			wrapper.limit(offset + length);
+			wrapper.position(offset);
+
+			// Non-blocking channels, which would make this spin, are rejected by QOIImageReader.setInput()
+			int n;
+			do {
+				n = channel.read(wrapper);
+			} while (n == 0);
+
+			return n;
+		}
+	}
+}
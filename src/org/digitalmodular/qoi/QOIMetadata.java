@@ -0,0 +1,124 @@
+package org.digitalmodular.qoi;
+
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+import javax.imageio.metadata.IIOMetadataNode;
+import org.w3c.dom.Node;
+
+/**
+ * The metadata of a QOI image, which is just its header. It's available in the native format (see
+ * {@link QOIMetadataFormat}) and in the standard format. It's read-only, because a QOI file has nowhere to store
+ * anything else.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+public final class QOIMetadata extends IIOMetadata {
+	public static final String NATIVE_FORMAT_NAME       = "org_digitalmodular_qoi_1.0";
+	public static final String NATIVE_FORMAT_CLASS_NAME = "org.digitalmodular.qoi.QOIMetadataFormat";
+
+	private final QOIHeader header;
+
+	public QOIMetadata(QOIHeader header) {
+		super(true, NATIVE_FORMAT_NAME, NATIVE_FORMAT_CLASS_NAME, null, null);
+
+		if (header == null) {
+			throw new IllegalArgumentException("header == null!");
+		}
+
+		this.header = header;
+	}
+
+	public QOIHeader getHeader() {
+		return header;
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+
+	@Override
+	public Node getAsTree(String formatName) {
+		if (formatName == null) {
+			throw new IllegalArgumentException("formatName == null!");
+		} else if (formatName.equals(NATIVE_FORMAT_NAME)) {
+			return getNativeTree();
+		} else if (formatName.equals(IIOMetadataFormatImpl.standardMetadataFormatName)) {
+			return getStandardTree();
+		} else {
+			throw new IllegalArgumentException("Unsupported format name: " + formatName);
+		}
+	}
+
+	private Node getNativeTree() {
+		IIOMetadataNode headerNode = new IIOMetadataNode("QOIHeader");
+		headerNode.setAttribute("width", Integer.toString(header.getWidth()));
+		headerNode.setAttribute("height", Integer.toString(header.getHeight()));
+		headerNode.setAttribute("channels", Integer.toString(header.getChannels()));
+		headerNode.setAttribute("colorSpace", Integer.toString(header.getColorSpace()));
+		headerNode.setAttribute("compressed", header.isCompressed() ? "TRUE" : "FALSE");
+
+		IIOMetadataNode root = new IIOMetadataNode(NATIVE_FORMAT_NAME);
+		root.appendChild(headerNode);
+		return root;
+	}
+
+	@Override
+	protected IIOMetadataNode getStandardChromaNode() {
+		IIOMetadataNode chroma = new IIOMetadataNode("Chroma");
+		chroma.appendChild(newNode("ColorSpaceType", "name", "RGB"));
+		chroma.appendChild(newNode("NumChannels", "value", Integer.toString(header.getChannels())));
+		chroma.appendChild(newNode("Gamma", "value",
+		                           header.getColorSpace() == QOIHeader.COLOR_SPACE_LINEAR ? "1.0" : "2.2"));
+		return chroma;
+	}
+
+	/**
+	 * Has no {@code Lossless} node: the format itself is lossless, but the pixels may have been approximated by a
+	 * near-lossless encoder (see {@link QOIImageWriteParam#setMaxError(int)}), which the file doesn't record.
+	 */
+	@Override
+	protected IIOMetadataNode getStandardCompressionNode() {
+		IIOMetadataNode compression = new IIOMetadataNode("Compression");
+		compression.appendChild(newNode("CompressionTypeName", "value", header.isCompressed() ? "QOI+Deflate" : "QOI"));
+		return compression;
+	}
+
+	@Override
+	protected IIOMetadataNode getStandardDataNode() {
+		IIOMetadataNode data = new IIOMetadataNode("Data");
+		data.appendChild(newNode("PlanarConfiguration", "value", "PixelInterleaved"));
+		data.appendChild(newNode("SampleFormat", "value", "UnsignedIntegral"));
+		data.appendChild(newNode("BitsPerSample", "value", header.hasAlpha() ? "8 8 8 8" : "8 8 8"));
+		return data;
+	}
+
+	@Override
+	protected IIOMetadataNode getStandardTransparencyNode() {
+		IIOMetadataNode transparency = new IIOMetadataNode("Transparency");
+		transparency.appendChild(newNode("Alpha", "value", header.hasAlpha() ? "nonpremultiplied" : "none"));
+		return transparency;
+	}
+
+	private static IIOMetadataNode newNode(String name, String attribute, String value) {
+		IIOMetadataNode node = new IIOMetadataNode(name);
+		node.setAttribute(attribute, value);
+		return node;
+	}
+
+	@Override
+	public void mergeTree(String formatName, Node root) {
+		throw new IllegalStateException("Metadata is read-only!");
+	}
+
+	@Override
+	public void reset() {
+		throw new IllegalStateException("Metadata is read-only!");
+	}
+
+	@Override
+	public String toString() {
+		return getClass().getSimpleName() + '[' + header + ']';
+	}
+}
@@ -0,0 +1,50 @@
+package org.digitalmodular.qoi;
+
+import java.util.Arrays;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadataFormat;
+import javax.imageio.metadata.IIOMetadataFormatImpl;
+
+/**
+ * Describes the native metadata format of QOI images, {@value QOIMetadata#NATIVE_FORMAT_NAME}:
+ * <pre>{@code
+ * <!ELEMENT "org_digitalmodular_qoi_1.0" (QOIHeader)>
+ *   <!ELEMENT "QOIHeader" EMPTY>
+ *     <!ATTLIST "QOIHeader" "width"      #CDATA #REQUIRED> <!-- 1 or more -->
+ *     <!ATTLIST "QOIHeader" "height"     #CDATA #REQUIRED> <!-- 1 or more -->
+ *     <!ATTLIST "QOIHeader" "channels"   ("3" | "4") #REQUIRED>
+ *     <!ATTLIST "QOIHeader" "colorSpace" ("0" | "1") #REQUIRED> <!-- sRGB, or linear -->
+ *     <!ATTLIST "QOIHeader" "compressed" ("TRUE" | "FALSE") "FALSE">
+ * }</pre>
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+public final class QOIMetadataFormat extends IIOMetadataFormatImpl {
+	private static final QOIMetadataFormat INSTANCE = new QOIMetadataFormat();
+
+	private QOIMetadataFormat() {
+		super(QOIMetadata.NATIVE_FORMAT_NAME, CHILD_POLICY_ALL);
+
+		addElement("QOIHeader", QOIMetadata.NATIVE_FORMAT_NAME, CHILD_POLICY_EMPTY);
+		addAttribute("QOIHeader", "width", DATATYPE_INTEGER, true, null,
+		             "1", Integer.toString(Integer.MAX_VALUE), true, true);
+		addAttribute("QOIHeader", "height", DATATYPE_INTEGER, true, null,
+		             "1", Integer.toString(Integer.MAX_VALUE), true, true);
+		addAttribute("QOIHeader", "channels", DATATYPE_INTEGER, true, null, Arrays.asList("3", "4"));
+		addAttribute("QOIHeader", "colorSpace", DATATYPE_INTEGER, true, null, Arrays.asList("0", "1"));
+		addBooleanAttribute("QOIHeader", "compressed", true, false);
+	}
+
+	/**
+	 * Called by {@link javax.imageio.metadata.IIOMetadata#getMetadataFormat(String)}.
+	 */
+	public static IIOMetadataFormat getInstance() {
+		return INSTANCE;
+	}
+
+	@Override
+	public boolean canNodeAppear(String elementName, ImageTypeSpecifier imageType) {
+		return true;
+	}
+}
@@ -0,0 +1,59 @@
+package org.digitalmodular.qoi;
+
+/**
+ * Computes per-pixel data for the encoder in bulk, ahead of the serial encoding loop: the hash of every pixel, and
+ * whether it's the same as the pixel before it (which makes it part of a run).
+ * <p>
+ * The only implementation uses the incubating Vector API. It's in a separate source folder ({@code src-vector}),
+ * because it has to be compiled with {@code --add-modules jdk.incubator.vector}. It's used when that class is on the
+ * class path, the module is added at run time too, and the system property {@value #ENABLE_PROPERTY} is
+ * {@code true}. Otherwise the encoder hashes and compares each pixel as it goes, with the same result.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+abstract class QOIPrepass {
+	static final String ENABLE_PROPERTY = "org.digitalmodular.qoi.vector";
+
+	/** Flag in the pixel info, set when the pixel is the same as the pixel before it */
+	static final int SAME_AS_PREVIOUS = 0b01000000;
+
+	private static final String VECTOR_CLASS_NAME = "org.digitalmodular.qoi.QOIVectorPrepass";
+
+	private static final QOIPrepass INSTANCE = createInstance();
+
+	/**
+	 * @return the prepass, or {@code null} if it's not enabled or not available.
+	 */
+	static QOIPrepass getInstance() {
+		return INSTANCE;
+	}
+
+	private static QOIPrepass createInstance() {
+		if (!Boolean.getBoolean(ENABLE_PROPERTY)) {
+			return null;
+		}
+
+		try {
+			return (QOIPrepass)Class.forName(VECTOR_CLASS_NAME).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException | LinkageError ignored) {
+			// Not compiled in, or the module is not added
+			return null;
+		}
+	}
+
+	/**
+	 * Computes the info of a number of pixels: the hash in the low 6 bits, and {@link #SAME_AS_PREVIOUS}.
+	 *
+	 * @param pixels   the pixels as ARGB
+	 * @param previous the pixel before the first one, as ARGB, including {@code alpha}
+	 * @param alpha    bits to set in every pixel, to make pixels without alpha opaque
+	 * @param info     where to store the info, starting at index 0
+	 */
+	abstract void prepare(int[] pixels, int offset, int count, int previous, int alpha, int[] info);
+
+	@SuppressWarnings("OverlyComplexArithmeticExpression")
+	static int hash(int argb) {
+		return ((argb >> 16 & 0xFF) * 3 + (argb >> 8 & 0xFF) * 5 + (argb & 0xFF) * 7 + (argb >>> 24) * 11) & 0b00111111;
+	}
+}
@@ -0,0 +1,369 @@
+package org.digitalmodular.qoi;
+
+import java.awt.Graphics2D;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.Arrays;
+import javax.imageio.IIOException;
+
+/**
+ * Encodes an image and its successive half-resolution versions (a mipmap pyramid) to separate QOI outputs, reading
+ * the source only once.
+ * <p>
+ * Source rows are streamed into the level 0 encoder, and every pair of rows is box-filtered into a row of the next
+ * level, which is fed to its own encoder, and so on. Memory use is a few rows per level, independent of the image
+ * height. Level dimensions are halved rounding up, so odd edges are averaged over fewer pixels instead of dropped.
+ * Averaging is alpha-weighted, so fully transparent pixels don't bleed their (arbitrary) color into the result.
+ * <p>
+ * Level 0 is identical to what {@link QOIImageWriter} produces for the same image. Like the writer, images with a
+ * {@link ComponentColorModel} and 8-bit samples are encoded from their raw samples, so gray images keep their gray
+ * values instead of being gamma-converted by {@link BufferedImage#getRGB}. Other images are converted to sRGB.
+ * <p>
+ * Instances can be reused, but not shared between threads.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+public final class QOIPyramidWriter {
+	private QOIEncoder[] encoders     = new QOIEncoder[0];
+	private long[]       bytesWritten = new long[0];
+
+	// Per level
+	private int[]     widths     = null;
+	private int[]     heights    = null;
+	/** The even row of the level above, waiting for the odd row to be averaged with */
+	private int[][]   pending    = null;
+	private boolean[] hasPending = null;
+	/** The downsampled row of each level */
+	private int[][]   scaled     = null;
+
+	private int channels = 0;
+
+	/**
+	 * @return the number of levels down to and including 1x1 pixels.
+	 */
+	public static int getMaxLevels(int width, int height) {
+		if (width <= 0) {
+			throw new IllegalArgumentException("width <= 0!");
+		} else if (height <= 0) {
+			throw new IllegalArgumentException("height <= 0!");
+		}
+
+		int levels = 1;
+		while (width > 1 || height > 1) {
+			width = (width + 1) / 2;
+			height = (height + 1) / 2;
+			levels++;
+		}
+
+		return levels;
+	}
+
+	/**
+	 * @return the size of the given level along one axis, when level 0 has the given size.
+	 */
+	public static int getLevelSize(int size, int level) {
+		if (size <= 0) {
+			throw new IllegalArgumentException("size <= 0!");
+		} else if (level < 0) {
+			throw new IllegalArgumentException("level < 0!");
+		}
+
+		for (int i = 0; i < level && size > 1; i++) {
+			size = (size + 1) / 2;
+		}
+
+		return size;
+	}
+
+	/**
+	 * Returns the number of bytes written to the output of the given level by the last call to
+	 * {@link #write(RenderedImage, Object...)}.
+	 */
+	public long getBytesWritten(int level) {
+		if (level < 0 || level >= bytesWritten.length) {
+			throw new IndexOutOfBoundsException("level out of range: " + level);
+		}
+
+		return bytesWritten[level];
+	}
+
+	/**
+	 * Writes level {@code i} of the pyramid to {@code outputs[i]}, so the number of outputs determines the number of
+	 * levels. Outputs can be of any type accepted by {@link QOIImageWriter#setOutput(Object)}.
+	 *
+	 * @throws IllegalArgumentException when there are no outputs, more outputs than
+	 *                                  {@link #getMaxLevels(int, int) levels}, or an output is of the wrong type.
+	 */
+	public void write(RenderedImage image, Object... outputs) throws IIOException {
+		if (image == null) {
+			throw new IllegalArgumentException("image == null!");
+		} else if (outputs == null || outputs.length == 0) {
+			throw new IllegalArgumentException("No outputs!");
+		}
+
+		int levels = outputs.length;
+		if (levels > getMaxLevels(image.getWidth(), image.getHeight())) {
+			throw new IllegalArgumentException("More outputs than levels: " + levels);
+		}
+
+		prepareLevels(image, outputs);
+
+		try {
+			for (int level = 0; level < levels; level++) {
+				encoders[level].prepareBuffer(0);
+				encoders[level].startImage(widths[level], heights[level], channels, 0);
+			}
+
+			encodeLevels(image);
+
+			for (int level = 0; level < levels; level++) {
+				encoders[level].endImage();
+				bytesWritten[level] = encoders[level].getBytesFlushed();
+			}
+		} catch (IOException ex) {
+			throw new IIOException("I/O error writing QOI pyramid", ex);
+		} finally {
+			for (int level = 0; level < levels; level++) {
+				encoders[level].setOutput(null);
+			}
+		}
+	}
+
+	private void prepareLevels(RenderedImage image, Object... outputs) {
+		int levels = outputs.length;
+
+		if (encoders.length < levels) {
+			int oldLength = encoders.length;
+			encoders = Arrays.copyOf(encoders, levels);
+			for (int level = oldLength; level < levels; level++) {
+				encoders[level] = new QOIEncoder();
+			}
+		}
+
+		bytesWritten = new long[levels];
+
+		for (int level = 0; level < levels; level++) {
+			if (outputs[level] == null) {
+				throw new IllegalArgumentException("outputs[" + level + "] == null!");
+			}
+
+			encoders[level].setOutput(outputs[level]);
+		}
+
+		channels = image.getColorModel().hasAlpha() ? 4 : 3;
+
+		widths = new int[levels];
+		heights = new int[levels];
+		pending = new int[levels][];
+		hasPending = new boolean[levels];
+		scaled = new int[levels][];
+
+		for (int level = 0; level < levels; level++) {
+			widths[level] = getLevelSize(image.getWidth(), level);
+			heights[level] = getLevelSize(image.getHeight(), level);
+
+			if (level > 0) {
+				pending[level] = new int[widths[level - 1]];
+				scaled[level] = new int[widths[level]];
+			}
+		}
+	}
+
+	private void encodeLevels(RenderedImage image) throws IOException {
+		int   width  = widths[0];
+		int   height = heights[0];
+		int[] row    = new int[width];
+
+		// Like QOIImageWriter, 8-bit samples of a ComponentColorModel are used as-is instead of converting to sRGB
+		int[] samples = isRawSampleImage(image) ? new int[width * image.getSampleModel().getNumBands()] : null;
+
+		// For images other than BufferedImage, each row is copied into a one-row image. Like QOIImageWriter, rows that
+		// need converting are drawn onto an sRGB image instead, which can round differently than getRGB.
+		BufferedImage rowImage       = null;
+		BufferedImage convertedRow   = null;
+		byte[]        convertedBytes = null;
+		if (image instanceof BufferedImage) {
+			// Read directly
+		} else if (samples != null || isPackedByteImage(image)) {
+			ColorModel     colorModel = image.getColorModel();
+			WritableRaster raster     = colorModel.createCompatibleWritableRaster(width, 1);
+			rowImage = new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
+		} else {
+			int imageType = channels == 4 ? BufferedImage.TYPE_4BYTE_ABGR : BufferedImage.TYPE_3BYTE_BGR;
+			convertedRow = new BufferedImage(width, 1, imageType);
+			convertedBytes = ((DataBufferByte)convertedRow.getRaster().getDataBuffer()).getData();
+			rowImage = convertedRow;
+		}
+
+		for (int y = 0; y < height; y++) {
+			BufferedImage rowSource = rowImage;
+			int           rowY      = 0;
+			if (rowImage == null) {
+				rowSource = (BufferedImage)image;
+				rowY = y;
+			} else if (convertedRow == null) {
+				image.copyData(rowImage.getRaster().createWritableTranslatedChild(image.getMinX(), image.getMinY() + y));
+			} else {
+				Arrays.fill(convertedBytes, (byte)0);
+				Graphics2D g = convertedRow.createGraphics();
+				try {
+					g.drawRenderedImage(image, AffineTransform.getTranslateInstance(-image.getMinX(),
+					                                                                -image.getMinY() - y));
+				} finally {
+					g.dispose();
+				}
+			}
+
+			if (samples == null) {
+				rowSource.getRGB(0, rowY, width, 1, row, 0, width);
+			} else {
+				getRawRow(rowSource.getRaster(), rowY, samples, row);
+			}
+
+			addRow(0, row);
+		}
+
+		// Levels with an odd number of source rows still have the last row pending
+		for (int level = 1; level < widths.length; level++) {
+			if (hasPending[level]) {
+				hasPending[level] = false;
+				downsample(pending[level], null, widths[level - 1], scaled[level]);
+				addRow(level, scaled[level]);
+			}
+		}
+	}
+
+	private static boolean isRawSampleImage(RenderedImage image) {
+		return image.getColorModel() instanceof ComponentColorModel && image.getSampleModel().getNumBands() <= 4 &&
+		       hasByteSamples(image);
+	}
+
+	/**
+	 * @return whether the image has 8-bit samples packed in ints, which {@link BufferedImage#getRGB} reads unchanged.
+	 */
+	private static boolean isPackedByteImage(RenderedImage image) {
+		return image.getColorModel() instanceof DirectColorModel &&
+		       image.getSampleModel() instanceof SinglePixelPackedSampleModel &&
+		       image.getSampleModel().getDataType() == DataBuffer.TYPE_INT && hasByteSamples(image);
+	}
+
+	private static boolean hasByteSamples(RenderedImage image) {
+		SampleModel sampleModel = image.getSampleModel();
+		if (image.getColorModel().isAlphaPremultiplied()) {
+			return false;
+		}
+
+		for (int band = 0; band < sampleModel.getNumBands(); band++) {
+			if (sampleModel.getSampleSize(band) != 8) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Gets a row of raw samples as ARGB, interpreting the bands as gray, gray and alpha, RGB, or RGBA.
+	 */
+	private static void getRawRow(Raster raster, int y, int[] samples, int[] row) {
+		int width    = row.length;
+		int numBands = raster.getNumBands();
+		raster.getPixels(raster.getMinX(), raster.getMinY() + y, width, 1, samples);
+
+		for (int x = 0, p = 0; x < width; x++, p += numBands) {
+			int r = samples[p];
+			int g = numBands < 3 ? r : samples[p + 1];
+			int b = numBands < 3 ? r : samples[p + 2];
+			int a = numBands == 2 ? samples[p + 1] : numBands == 4 ? samples[p + 3] : 255;
+			row[x] = ((a << 8 | r) << 8 | g) << 8 | b;
+		}
+	}
+
+	/**
+	 * Encodes a row of the given level, and passes it on to the next level.
+	 */
+	private void addRow(int level, int[] row) throws IOException {
+		encodeRow(encoders[level], row, widths[level]);
+
+		int nextLevel = level + 1;
+		if (nextLevel == widths.length) {
+			return;
+		}
+
+		if (hasPending[nextLevel]) {
+			hasPending[nextLevel] = false;
+			downsample(pending[nextLevel], row, widths[level], scaled[nextLevel]);
+			addRow(nextLevel, scaled[nextLevel]);
+		} else {
+			hasPending[nextLevel] = true;
+			System.arraycopy(row, 0, pending[nextLevel], 0, widths[level]);
+		}
+	}
+
+	private void encodeRow(QOIEncoder encoder, int[] row, int width) throws IOException {
+		for (int x = 0; x < width; x++) {
+			int  pixel = row[x];
+			byte r     = (byte)(pixel >> 16);
+			byte g     = (byte)(pixel >> 8);
+			byte b     = (byte)pixel;
+			byte a     = channels == 4 ? (byte)(pixel >> 24) : (byte)255;
+			encoder.encodeColor(r, g, b, a);
+		}
+	}
+
+	/**
+	 * Averages each 2x2 block of ARGB pixels, weighted by alpha. At the right edge, and when {@code row1} is
+	 * {@code null}, fewer pixels are averaged.
+	 */
+	private static void downsample(int[] row0, int[] row1, int srcWidth, int[] dst) {
+		int dstWidth = (srcWidth + 1) / 2;
+		int numRows  = row1 == null ? 1 : 2;
+
+		for (int x = 0; x < dstWidth; x++) {
+			int sx    = x * 2;
+			int sxEnd = Math.min(sx + 2, srcWidth);
+
+			int count = 0;
+			int sumA  = 0;
+			int sumR  = 0;
+			int sumG  = 0;
+			int sumB  = 0;
+
+			for (int rowIndex = 0; rowIndex < numRows; rowIndex++) {
+				int[] row = rowIndex == 0 ? row0 : row1;
+
+				for (int i = sx; i < sxEnd; i++) {
+					int pixel = row[i];
+					int a     = pixel >>> 24;
+					count++;
+					sumA += a;
+					sumR += (pixel >> 16 & 0xFF) * a;
+					sumG += (pixel >> 8 & 0xFF) * a;
+					sumB += (pixel & 0xFF) * a;
+				}
+			}
+
+			if (sumA == 0) {
+				dst[x] = 0;
+			} else {
+				int a = (sumA + count / 2) / count;
+				int r = (sumR + sumA / 2) / sumA;
+				int g = (sumG + sumA / 2) / sumA;
+				int b = (sumB + sumA / 2) / sumA;
+				dst[x] = ((a << 8 | r) << 8 | g) << 8 | b;
+			}
+		}
+	}
+}
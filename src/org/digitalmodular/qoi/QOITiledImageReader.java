@@ -0,0 +1,422 @@
+package org.digitalmodular.qoi;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import javax.imageio.IIOException;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Reads the tiled QOI container written by {@link QOITiledImageWriter}. Only the tiles overlapping the requested
+ * source region are decoded, so the input must be a seekable {@link ImageInputStream} of known length.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+@SuppressWarnings("ReturnOfNull")
+public class QOITiledImageReader extends ImageReader {
+	private ImageInputStream stream = null;
+
+	/** Decodes the individual tiles */
+	private final QOIImageReader tileReader = new QOIImageReader(null);
+
+	private boolean gotHeader      = false;
+	private long    containerStart = 0;
+	private int     width          = 0;
+	private int     height         = 0;
+	private int     tileWidth      = 0;
+	private int     tileHeight     = 0;
+	private int     numTilesX      = 0;
+	private int     numTilesY      = 0;
+	private int     channels       = 0;
+	private int     colorSpace     = 0; // Currently unused
+	private long[]  tileOffsets    = null;
+
+	public QOITiledImageReader(ImageReaderSpi originatingProvider) {
+		super(originatingProvider);
+	}
+
+	@Override
+	public void setInput(Object input, boolean seekForwardOnly, boolean ignoreMetadata) {
+		super.setInput(input, seekForwardOnly, ignoreMetadata);
+
+		if (input != null && !(input instanceof ImageInputStream)) {
+			throw new IllegalArgumentException("input not an ImageInputStream!");
+		}
+
+		stream = (ImageInputStream)input;
+
+		resetStreamSettings();
+	}
+
+	@Override
+	public int getNumImages(boolean allowSearch) {
+		if (stream == null) {
+			throw new IllegalStateException("No input source set!");
+		} else if (seekForwardOnly && allowSearch) {
+			throw new IllegalStateException("seekForwardOnly and allowSearch can't both be true!");
+		}
+
+		return 1;
+	}
+
+	@Override
+	public int getWidth(int imageIndex) throws IIOException {
+		checkImageIndex(imageIndex);
+		readHeader();
+
+		return width;
+	}
+
+	@Override
+	public int getHeight(int imageIndex) throws IIOException {
+		checkImageIndex(imageIndex);
+		readHeader();
+
+		return height;
+	}
+
+	@Override
+	public boolean isImageTiled(int imageIndex) {
+		checkImageIndex(imageIndex);
+
+		return true;
+	}
+
+	@Override
+	public int getTileWidth(int imageIndex) throws IIOException {
+		checkImageIndex(imageIndex);
+		readHeader();
+
+		return tileWidth;
+	}
+
+	@Override
+	public int getTileHeight(int imageIndex) throws IIOException {
+		checkImageIndex(imageIndex);
+		readHeader();
+
+		return tileHeight;
+	}
+
+	@Override
+	public boolean isRandomAccessEasy(int imageIndex) {
+		checkImageIndex(imageIndex);
+
+		return true;
+	}
+
+	@Override
+	public Iterator<ImageTypeSpecifier> getImageTypes(int imageIndex) throws IOException {
+		checkImageIndex(imageIndex);
+		readHeader();
+
+		Collection<ImageTypeSpecifier> imageTypeSpecifiers = new ArrayList<>(1);
+
+		// Same types as QOIImageReader, so tiles can be copied without conversion
+		if (channels == 3) {
+			imageTypeSpecifiers.add(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_3BYTE_BGR));
+			imageTypeSpecifiers.add(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_RGB));
+		} else {
+			imageTypeSpecifiers.add(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_4BYTE_ABGR));
+			imageTypeSpecifiers.add(ImageTypeSpecifier.createFromBufferedImageType(BufferedImage.TYPE_INT_ARGB));
+		}
+
+		return imageTypeSpecifiers.iterator();
+	}
+
+	@Override
+	public IIOMetadata getStreamMetadata() {
+		return null;
+	}
+
+	@Override
+	public IIOMetadata getImageMetadata(int imageIndex) {
+		return null;
+	}
+
+	@Override
+	public BufferedImage readTile(int imageIndex, int tileX, int tileY) throws IOException {
+		checkImageIndex(imageIndex);
+		readHeader();
+
+		if (tileX < 0 || tileX >= numTilesX) {
+			throw new IllegalArgumentException("tileX out of range: " + tileX);
+		} else if (tileY < 0 || tileY >= numTilesY) {
+			throw new IllegalArgumentException("tileY out of range: " + tileY);
+		}
+
+		try {
+			return decodeTile(tileX, tileY);
+		} catch (IllegalArgumentException | IllegalStateException ex) {
+			throw ex;
+		} catch (IOException ex) {
+			throw new IIOException("I/O error reading tiled QOI image data", ex);
+		}
+	}
+
+	@Override
+	public BufferedImage read(int imageIndex, ImageReadParam param) throws IOException {
+		checkImageIndex(imageIndex);
+		readHeader();
+
+		BufferedImage theImage;
+
+		//noinspection OverlyBroadCatchBlock
+		try {
+			clearAbortRequest();
+			processImageStarted(0);
+
+			theImage = getDestination(param, getImageTypes(0), width, height);
+
+			Rectangle sourceRegion      = new Rectangle();
+			Rectangle destinationRegion = new Rectangle();
+			computeRegions(param, width, height, theImage, sourceRegion, destinationRegion);
+
+			int periodX = param == null ? 1 : param.getSourceXSubsampling();
+			int periodY = param == null ? 1 : param.getSourceYSubsampling();
+
+			checkReadParamBandSettings(param, channels, theImage.getSampleModel().getNumBands());
+
+			if (abortRequested()) {
+				processReadAborted();
+			} else {
+				WritableRaster destination      = theImage.getRaster();
+				int[]          sourceBands      = param == null ? null : param.getSourceBands();
+				int[]          destinationBands = param == null ? null : param.getDestinationBands();
+				if (destinationBands != null) {
+					destination = destination.createWritableChild(0, 0, destination.getWidth(),
+					                                              destination.getHeight(), 0, 0, destinationBands);
+				}
+
+				decodeRegion(destination, sourceBands, sourceRegion, destinationRegion, periodX, periodY);
+
+				if (abortRequested()) {
+					processReadAborted();
+				} else {
+					processImageComplete();
+				}
+			}
+		} catch (IllegalArgumentException | IllegalStateException ex) {
+			throw ex;
+		} catch (IOException ex) {
+			throw new IIOException("I/O error reading tiled QOI image data", ex);
+		} catch (Throwable ex) {
+			throw new IIOException("Unexpected exception during read", ex);
+		}
+
+		return theImage;
+	}
+
+	@Override
+	public void abort() {
+		super.abort();
+		tileReader.abort();
+	}
+
+	private static void checkImageIndex(int imageIndex) {
+		if (imageIndex != 0) {
+			throw new IndexOutOfBoundsException("imageIndex != 0!");
+		}
+	}
+
+	private void readHeader() throws IIOException {
+		if (gotHeader) {
+			return;
+		}
+
+		if (stream == null) {
+			throw new IllegalStateException("Input source not set!");
+		}
+
+		ByteOrder byteOrder = stream.getByteOrder();
+		try {
+			stream.setByteOrder(ByteOrder.BIG_ENDIAN);
+
+			containerStart = stream.getStreamPosition();
+			long length = stream.length() - containerStart;
+			if (length < 0) {
+				throw new IIOException("Tiled QOI needs an input of known length");
+			}
+
+			int magic = stream.readInt();
+			if (magic != QOITiledImageWriter.QOI_TILED_MAGIC) { // "qoit" in big-endian
+				throw new IIOException("Bad QOIT signature (" + Integer.toString(magic, 16) + ')');
+			}
+
+			width = stream.readInt();
+			height = stream.readInt();
+			tileWidth = stream.readInt();
+			tileHeight = stream.readInt();
+			channels = stream.readByte() & 0xFF;
+			colorSpace = stream.readByte() & 0xFF;
+
+			if (width <= 0) {
+				throw new IIOException("Image width <= 0!");
+			} else if (height <= 0) {
+				throw new IIOException("Image height <= 0!");
+			} else if (tileWidth <= 0 || tileWidth > width) {
+				throw new IIOException("Tile width out of range: " + tileWidth);
+			} else if (tileHeight <= 0 || tileHeight > height) {
+				throw new IIOException("Tile height out of range: " + tileHeight);
+			} else if (channels != 3 && channels != 4) {
+				throw new IIOException("'channels' must be 3 or 4!");
+			} else if (colorSpace > 1) {
+				throw new IIOException("'colorSpace' 0 or 1!");
+			}
+
+			numTilesX = (width + tileWidth - 1) / tileWidth;
+			numTilesY = (height + tileHeight - 1) / tileHeight;
+
+			long numTiles = (long)numTilesX * numTilesY;
+			long dataSize = length - QOITiledImageWriter.TILED_HEADER_SIZE - QOITiledImageWriter.TILED_TRAILER_SIZE;
+			if (numTiles * (8 + QOIImageWriter.HEADER_SIZE) > dataSize) {
+				throw new IIOException("Tiled QOI file too short for " + numTiles + " tiles");
+			}
+
+			stream.seek(containerStart + length - QOITiledImageWriter.TILED_TRAILER_SIZE);
+			long indexOffset = stream.readLong();
+			magic = stream.readInt();
+			if (magic != QOITiledImageWriter.QOI_TILED_MAGIC) {
+				throw new IIOException("Tiled QOI index not found");
+			} else if (indexOffset != length - QOITiledImageWriter.TILED_TRAILER_SIZE - numTiles * 8) {
+				throw new IIOException("Corrupt tiled QOI index offset: " + indexOffset);
+			}
+
+			tileOffsets = new long[(int)numTiles];
+			stream.seek(containerStart + indexOffset);
+			stream.readFully(tileOffsets, 0, tileOffsets.length);
+
+			for (long tileOffset : tileOffsets) {
+				if (tileOffset < QOITiledImageWriter.TILED_HEADER_SIZE || tileOffset >= indexOffset) {
+					throw new IIOException("Corrupt tiled QOI index");
+				}
+			}
+
+			gotHeader = true;
+		} catch (IOException ex) {
+			throw new IIOException("I/O error reading tiled QOI header!", ex);
+		} finally {
+			stream.setByteOrder(byteOrder);
+		}
+	}
+
+	/**
+	 * Decodes the tiles overlapping the source region, and copies the (subsampled) pixels to the destination. When
+	 * {@code sourceBands} isn't {@code null}, only those bands of each tile are copied, in that order, to the bands of
+	 * the destination.
+	 */
+	private void decodeRegion(WritableRaster destination,
+	                          int[] sourceBands,
+	                          Rectangle sourceRegion,
+	                          Rectangle destinationRegion,
+	                          int periodX,
+	                          int periodY) throws IOException {
+		int firstTileX = sourceRegion.x / tileWidth;
+		int firstTileY = sourceRegion.y / tileHeight;
+		int lastTileX  = (sourceRegion.x + sourceRegion.width - 1) / tileWidth;
+		int lastTileY  = (sourceRegion.y + sourceRegion.height - 1) / tileHeight;
+
+		int numTiles  = (lastTileX - firstTileX + 1) * (lastTileY - firstTileY + 1);
+		int tilesDone = 0;
+
+		int[] samples = new int[Math.min(tileWidth, sourceRegion.width) * channels];
+
+		for (int tileY = firstTileY; tileY <= lastTileY; tileY++) {
+			for (int tileX = firstTileX; tileX <= lastTileX; tileX++) {
+				Raster tile = decodeTile(tileX, tileY).getRaster();
+				if (abortRequested()) {
+					return;
+				}
+
+				if (sourceBands != null) {
+					tile = tile.createChild(0, 0, tile.getWidth(), tile.getHeight(), 0, 0, sourceBands);
+				}
+
+				int tileLeft = tileX * tileWidth;
+				int tileTop  = tileY * tileHeight;
+
+				// The source pixels in this tile that are not skipped by subsampling
+				int x0 = firstSampleIn(sourceRegion.x, periodX, tileLeft);
+				int y0 = firstSampleIn(sourceRegion.y, periodY, tileTop);
+				int x1 = Math.min(tileLeft + tile.getWidth(), sourceRegion.x + sourceRegion.width);
+				int y1 = Math.min(tileTop + tile.getHeight(), sourceRegion.y + sourceRegion.height);
+
+				int count = (x1 - x0 + periodX - 1) / periodX;
+				if (count > 0) {
+					int dx = destinationRegion.x + (x0 - sourceRegion.x) / periodX;
+
+					for (int y = y0; y < y1; y += periodY) {
+						int dy = destinationRegion.y + (y - sourceRegion.y) / periodY;
+
+						if (periodX == 1) {
+							samples = tile.getPixels(x0 - tileLeft, y - tileTop, count, 1, samples);
+							destination.setPixels(dx, dy, count, 1, samples);
+						} else {
+							for (int i = 0; i < count; i++) {
+								samples = tile.getPixel(x0 - tileLeft + i * periodX, y - tileTop, samples);
+								destination.setPixel(dx + i, dy, samples);
+							}
+						}
+					}
+				}
+
+				tilesDone++;
+				processImageProgress(tilesDone * 100.0f / numTiles);
+			}
+		}
+	}
+
+	/**
+	 * @return the first coordinate {@code >= tileStart} of the sampling grid {@code start + n * period}.
+	 */
+	private static int firstSampleIn(int start, int period, int tileStart) {
+		if (tileStart <= start) {
+			return start;
+		}
+
+		return start + (tileStart - start + period - 1) / period * period;
+	}
+
+	private BufferedImage decodeTile(int tileX, int tileY) throws IOException {
+		int tileIndex = tileY * numTilesX + tileX;
+		int expectedW = Math.min(tileWidth, width - tileX * tileWidth);
+		int expectedH = Math.min(tileHeight, height - tileY * tileHeight);
+
+		stream.seek(containerStart + tileOffsets[tileIndex]);
+		tileReader.setInput(stream, false, true);
+
+		if (tileReader.getWidth(0) != expectedW || tileReader.getHeight(0) != expectedH) {
+			throw new IIOException("Tile (" + tileX + ", " + tileY + ") has the wrong size");
+		}
+
+		BufferedImage tile = tileReader.read(0);
+		if (tile.getSampleModel().getNumBands() != channels) {
+			throw new IIOException("Tile (" + tileX + ", " + tileY + ") has the wrong number of channels");
+		}
+
+		return tile;
+	}
+
+	@Override
+	public void reset() {
+		super.reset();
+		resetStreamSettings();
+	}
+
+	private void resetStreamSettings() {
+		gotHeader = false;
+		tileOffsets = null;
+	}
+}
@@ -0,0 +1,67 @@
+package org.digitalmodular.qoi;
+
+import java.io.IOException;
+import java.util.Locale;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+public class QOITiledImageReaderSpi extends ImageReaderSpi {
+	private static final String   VENDOR_NAME       = "phoboslab";
+	private static final String   VERSION           = "1.0";
+	private static final String[] FORMAT_NAMES      = {"qoit", "QOIT"};
+	private static final String[] SUFFIXES          = {"qoit"};
+	private static final String[] MIME_TYPES        = {"image/x-qoi-tiled"};
+	private static final String   READER_CLASS_NAME = "org.digitalmodular.qoi.QOITiledImageReader";
+	private static final String[] WRITER_SPI_NAMES  = {"org.digitalmodular.qoi.QOITiledImageWriterSpi"};
+
+	public QOITiledImageReaderSpi() {
+		super(VENDOR_NAME,
+		      VERSION,
+		      FORMAT_NAMES,
+		      SUFFIXES,
+		      MIME_TYPES,
+		      READER_CLASS_NAME,
+		      new Class<?>[]{ImageInputStream.class},
+		      WRITER_SPI_NAMES,
+		      false,
+		      null,
+		      null,
+		      null,
+		      null,
+		      false,
+		      null,
+		      null,
+		      null,
+		      null
+		);
+	}
+
+	@Override
+	public String getDescription(Locale locale) {
+		return "Tiled Quite OK Image Format reader";
+	}
+
+	@Override
+	public boolean canDecodeInput(Object input) throws IOException {
+		if (!(input instanceof ImageInputStream)) {
+			return false;
+		}
+
+		ImageInputStream stream = (ImageInputStream)input;
+		stream.mark();
+		int magic = stream.readInt();
+		stream.reset();
+
+		return magic == QOITiledImageWriter.QOI_TILED_MAGIC;
+	}
+
+	@Override
+	public ImageReader createReaderInstance(Object extension) {
+		return new QOITiledImageReader(this);
+	}
+}
@@ -0,0 +1,338 @@
+package org.digitalmodular.qoi;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.imageio.IIOException;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Writes a tiled QOI container, in which every tile is an independent QOI image, so regions can be decoded without
+ * decoding the entire image. Tiles are encoded in parallel.
+ * <p>
+ * The source region of the write param is honored. Source subsampling and source bands are not supported.
+ * <p>
+ * Layout (all values big-endian, offsets relative to the start of the container):
+ * <pre>
+ * "qoit", width (4), height (4), tile width (4), tile height (4), channels (1), colorSpace (1)
+ * tile[0] ... tile[n-1]         complete QOI images, in row-major order; edge tiles are cropped to the image
+ * offset[0] ... offset[n-1]     8 bytes each
+ * index offset (8), "qoit"
+ * </pre>
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+@SuppressWarnings("ReturnOfNull")
+public final class QOITiledImageWriter extends ImageWriter {
+	@SuppressWarnings("CharUsedInArithmeticContext")
+	static final int QOI_TILED_MAGIC = (('q' << 8 | 'o') << 8 | 'i') << 8 | 't'; // "qoit", big-endian
+
+	static final int TILED_HEADER_SIZE  = 22;
+	static final int TILED_TRAILER_SIZE = 12;
+
+	public static final int DEFAULT_TILE_SIZE = 512;
+
+	/** Every tile must fit in a byte array, even if it doesn't compress at all */
+	private static final long MAX_TILE_PIXELS =
+			(Integer.MAX_VALUE - QOIImageWriter.HEADER_SIZE - QOIImageWriter.FOOTER_SIZE) / 5;
+
+	private ImageOutputStream stream = null;
+
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+
+	// Container header data
+	private int width      = 0;
+	private int height     = 0;
+	private int tileWidth  = 0;
+	private int tileHeight = 0;
+	private int numTilesX  = 0;
+	private int numTilesY  = 0;
+	private int channels   = 0;
+	private int colorSpace = 0; // Currently unused
+
+	/** Top-left of the source region, relative to the top-left of the image */
+	private int sourceX = 0;
+	private int sourceY = 0;
+
+	public QOITiledImageWriter(ImageWriterSpi originatingProvider) {
+		super(originatingProvider);
+	}
+
+	@Override
+	public void setOutput(Object output) {
+		super.setOutput(output);
+
+		if (output != null && !(output instanceof ImageOutputStream)) {
+			throw new IllegalArgumentException("output not an ImageOutputStream!");
+		}
+
+		stream = (ImageOutputStream)output;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * Sets the number of threads encoding tiles. The default is the number of available processors.
+	 */
+	public void setParallelism(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism < 1!");
+		}
+
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * The returned param supports explicit tiling. Tile grid offsets are ignored. When no tiling is specified, tiles
+	 * are {@value #DEFAULT_TILE_SIZE} pixels square.
+	 */
+	@Override
+	public ImageWriteParam getDefaultWriteParam() {
+		return new TiledWriteParam(getLocale());
+	}
+
+	@Override
+	public IIOMetadata getDefaultStreamMetadata(ImageWriteParam param) {
+		return null;
+	}
+
+	@Override
+	public IIOMetadata getDefaultImageMetadata(ImageTypeSpecifier imageType, ImageWriteParam param) {
+		return null;
+	}
+
+	@Override
+	public IIOMetadata convertStreamMetadata(IIOMetadata inData, ImageWriteParam param) {
+		return null;
+	}
+
+	@Override
+	public IIOMetadata convertImageMetadata(IIOMetadata inData, ImageTypeSpecifier imageType, ImageWriteParam param) {
+		return null;
+	}
+
+	@Override
+	public void write(IIOMetadata streamMetadata, IIOImage image, ImageWriteParam param) throws IIOException {
+		if (image == null) {
+			throw new IllegalArgumentException("image == null!");
+		} else if (stream == null) {
+			throw new IllegalStateException("output == null!");
+		} else if (image.hasRaster()) {
+			throw new UnsupportedOperationException("IIOImage has a Raster!");
+		}
+
+		RenderedImage renderedImage = image.getRenderedImage();
+
+		int minX = renderedImage.getMinX();
+		int minY = renderedImage.getMinY();
+		int maxX = minX + renderedImage.getWidth();
+		int maxY = minY + renderedImage.getHeight();
+
+		if (param != null) {
+			if (param.getSourceXSubsampling() != 1 || param.getSourceYSubsampling() != 1 ||
+			    param.getSubsamplingXOffset() != 0 || param.getSubsamplingYOffset() != 0) {
+				throw new IllegalArgumentException("Source subsampling is not supported!");
+			} else if (param.getSourceBands() != null) {
+				throw new IllegalArgumentException("Source bands are not supported!");
+			}
+
+			Rectangle sourceRegion = param.getSourceRegion();
+			if (sourceRegion != null) {
+				minX = Math.max(minX, sourceRegion.x);
+				minY = Math.max(minY, sourceRegion.y);
+				maxX = Math.min(maxX, sourceRegion.x + sourceRegion.width);
+				maxY = Math.min(maxY, sourceRegion.y + sourceRegion.height);
+			}
+		}
+
+		if (minX >= maxX || minY >= maxY) {
+			throw new IllegalArgumentException("Source region is empty!");
+		}
+
+		sourceX = minX - renderedImage.getMinX();
+		sourceY = minY - renderedImage.getMinY();
+		width = maxX - minX;
+		height = maxY - minY;
+		channels = renderedImage.getColorModel().hasAlpha() ? 4 : 3;
+		colorSpace = 0;
+
+		if (param != null && param.canWriteTiles() && param.getTilingMode() == ImageWriteParam.MODE_EXPLICIT) {
+			tileWidth = Math.min(param.getTileWidth(), width);
+			tileHeight = Math.min(param.getTileHeight(), height);
+		} else {
+			tileWidth = Math.min(DEFAULT_TILE_SIZE, width);
+			tileHeight = Math.min(DEFAULT_TILE_SIZE, height);
+		}
+
+		if ((long)tileWidth * tileHeight > MAX_TILE_PIXELS) {
+			throw new IllegalArgumentException("Tiles of " + tileWidth + " by " + tileHeight + " are too large");
+		}
+
+		numTilesX = (width + tileWidth - 1) / tileWidth;
+		numTilesY = (height + tileHeight - 1) / tileHeight;
+
+		//noinspection OverlyBroadCatchBlock
+		try {
+			clearAbortRequest();
+			processImageStarted(0);
+			if (abortRequested()) {
+				processWriteAborted();
+			} else {
+				writeTiles(renderedImage);
+
+				if (abortRequested()) {
+					processWriteAborted();
+				} else {
+					processImageComplete();
+				}
+			}
+		} catch (IllegalArgumentException | IllegalStateException | UnsupportedOperationException ex) {
+			throw ex;
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof UnsupportedOperationException) {
+				throw (UnsupportedOperationException)cause;
+			}
+
+			throw new IIOException("Error encoding QOI tile", cause);
+		} catch (IOException ex) {
+			throw new IIOException("I/O error writing tiled QOI data", ex);
+		} catch (Throwable ex) {
+			throw new IIOException("Unexpected exception during write", ex);
+		}
+	}
+
+	private void writeTiles(RenderedImage image) throws IOException, InterruptedException, ExecutionException {
+		long containerStart = stream.getStreamPosition();
+
+		stream.writeInt(QOI_TILED_MAGIC);
+		stream.writeInt(width);
+		stream.writeInt(height);
+		stream.writeInt(tileWidth);
+		stream.writeInt(tileHeight);
+		stream.writeByte(channels);
+		stream.writeByte(colorSpace);
+
+		int    numTiles    = numTilesX * numTilesY;
+		long[] tileOffsets = new long[numTiles];
+
+		// Encoders and their output buffers, reused between tiles
+		Queue<TileEncoder> encoders = new ConcurrentLinkedQueue<>();
+
+		// Limit the number of encoded tiles waiting to be written
+		int                   maxPending = parallelism * 2;
+		Deque<Future<byte[]>> pending    = new ArrayDeque<>(maxPending);
+		ExecutorService       executor   = Executors.newFixedThreadPool(parallelism, runnable -> {
+			Thread thread = new Thread(runnable, "QOI tile encoder");
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		try {
+			int nextTile = 0;
+			for (int tile = 0; tile < numTiles; tile++) {
+				while (nextTile < numTiles && pending.size() < maxPending) {
+					int tileIndex = nextTile;
+					pending.addLast(executor.submit(() -> encodeTile(image, tileIndex, encoders)));
+					nextTile++;
+				}
+
+				byte[] encodedTile = pending.removeFirst().get();
+
+				tileOffsets[tile] = stream.getStreamPosition() - containerStart;
+				stream.write(encodedTile);
+
+				processImageProgress((tile + 1) * 100.0f / numTiles);
+				if (abortRequested()) {
+					return;
+				}
+			}
+		} finally {
+			for (Future<byte[]> future : pending) {
+				future.cancel(true);
+			}
+
+			executor.shutdownNow();
+		}
+
+		long indexOffset = stream.getStreamPosition() - containerStart;
+		stream.writeLongs(tileOffsets, 0, numTiles);
+		stream.writeLong(indexOffset);
+		stream.writeInt(QOI_TILED_MAGIC);
+	}
+
+	private byte[] encodeTile(RenderedImage image, int tileIndex, Queue<TileEncoder> encoders) throws IOException {
+		int x = tileIndex % numTilesX * tileWidth;
+		int y = tileIndex / numTilesX * tileHeight;
+		int w = Math.min(tileWidth, width - x);
+		int h = Math.min(tileHeight, height - y);
+
+		RenderedImage tile = getTileImage(image, sourceX + x, sourceY + y, w, h);
+
+		TileEncoder encoder = encoders.poll();
+		if (encoder == null) {
+			encoder = new TileEncoder((int)QOIImageWriter.getMaxEncodedSize(tileWidth, tileHeight, channels));
+		}
+
+		try {
+			encoder.writer.setOutput(encoder.buffer);
+			encoder.writer.write(tile);
+			return Arrays.copyOf(encoder.buffer, (int)encoder.writer.getBytesWritten());
+		} finally {
+			encoders.add(encoder);
+		}
+	}
+
+	/**
+	 * Returns the tile as a separate image, with {@code x} and {@code y} relative to the top-left of the image. For
+	 * {@link BufferedImage}s this is a view on the same pixels.
+	 */
+	private static RenderedImage getTileImage(RenderedImage image, int x, int y, int w, int h) {
+		if (image instanceof BufferedImage) {
+			return ((BufferedImage)image).getSubimage(x, y, w, h);
+		}
+
+		ColorModel     colorModel = image.getColorModel();
+		WritableRaster raster     = colorModel.createCompatibleWritableRaster(w, h);
+		image.copyData(raster.createWritableTranslatedChild(image.getMinX() + x, image.getMinY() + y));
+		return new BufferedImage(colorModel, raster, colorModel.isAlphaPremultiplied(), null);
+	}
+
+	private static final class TileEncoder {
+		final QOIImageWriter writer = new QOIImageWriter(null);
+		final byte[]         buffer;
+
+		TileEncoder(int bufferSize) {
+			buffer = new byte[bufferSize];
+		}
+	}
+
+	private static final class TiledWriteParam extends ImageWriteParam {
+		TiledWriteParam(Locale locale) {
+			super(locale);
+			canWriteTiles = true;
+		}
+	}
+}
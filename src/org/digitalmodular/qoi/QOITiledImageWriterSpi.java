@@ -0,0 +1,61 @@
+package org.digitalmodular.qoi;
+
+import java.util.Locale;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriter;
+import javax.imageio.spi.ImageWriterSpi;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+public class QOITiledImageWriterSpi extends ImageWriterSpi {
+	private static final String   VENDOR_NAME       = "phoboslab";
+	private static final String   VERSION           = "1.0";
+	private static final String[] FORMAT_NAMES      = {"qoit", "QOIT"};
+	private static final String[] SUFFIXES          = {"qoit"};
+	private static final String[] MIME_TYPES        = {"image/x-qoi-tiled"};
+	private static final String   WRITER_CLASS_NAME = "org.digitalmodular.qoi.QOITiledImageWriter";
+	private static final String[] READER_SPI_NAMES  = {"org.digitalmodular.qoi.QOITiledImageReaderSpi"};
+
+	private final QOIImageWriterSpi tileWriterSpi = new QOIImageWriterSpi();
+
+	public QOITiledImageWriterSpi() {
+		super(VENDOR_NAME,
+		      VERSION,
+		      FORMAT_NAMES,
+		      SUFFIXES,
+		      MIME_TYPES,
+		      WRITER_CLASS_NAME,
+		      new Class<?>[]{ImageOutputStream.class},
+		      READER_SPI_NAMES,
+		      false,
+		      null,
+		      null,
+		      null,
+		      null,
+		      false,
+		      null,
+		      null,
+		      null,
+		      null
+		);
+	}
+
+	@Override
+	public boolean canEncodeImage(ImageTypeSpecifier type) {
+		// Every tile is a regular QOI image
+		return tileWriterSpi.canEncodeImage(type);
+	}
+
+	@Override
+	public String getDescription(Locale locale) {
+		return "Tiled Quite OK Image Format writer";
+	}
+
+	@Override
+	public ImageWriter createWriterInstance(Object extension) {
+		return new QOITiledImageWriter(this);
+	}
+}
@@ -0,0 +1,500 @@
+package org.digitalmodular.qoi;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.Raster;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.IIORegistry;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Converts a directory tree of images to QOI, or QOI images to another format, in parallel.
+ * <p>
+ * Files are converted by a fixed pool of threads, but the number of files in flight is limited by the memory their
+ * decoded pixels need, which is determined from the image headers before decoding. A single image larger than the
+ * budget is converted on its own. Outputs newer than their input are skipped, and outputs are written to a temporary
+ * file and moved into place when complete, so an interrupted run never leaves a truncated file that looks up to date.
+ * Inputs that differ only in their extension (like {@code a.png} and {@code a.jpg}) would have the same output file.
+ * Only the first one found is converted, and the others are reported as failures. Failures are collected and
+ * reported at the end instead of stopping the run.
+ * <p>
+ * Usage: {@code QOITranscoder [options] <input dir> <output dir>}, see {@link #main(String...)}.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+@SuppressWarnings("UseOfSystemOutOrSystemErr")
+public final class QOITranscoder {
+	/** Decoded images are assumed to take at most this many bytes per pixel */
+	private static final int BYTES_PER_PIXEL = 4;
+
+	private final Path   inputDir;
+	private final Path   outputDir;
+	private final String targetFormat;
+
+	private int     threads      = Runtime.getRuntime().availableProcessors();
+	private long    memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+	private boolean verify       = false;
+	private boolean force        = false;
+
+	// Statistics
+	private final LongAdder     converted = new LongAdder();
+	private final LongAdder     skipped   = new LongAdder();
+	private final LongAdder     pixels    = new LongAdder();
+	private final LongAdder     bytesIn   = new LongAdder();
+	private final LongAdder     bytesOut  = new LongAdder();
+	private final Queue<String> failures  = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * @param targetFormat {@code "qoi"} to convert every readable image to QOI, or the name of another format to
+	 *                     convert QOI images to.
+	 */
+	public QOITranscoder(Path inputDir, Path outputDir, String targetFormat) {
+		if (inputDir == null) {
+			throw new IllegalArgumentException("inputDir == null!");
+		} else if (outputDir == null) {
+			throw new IllegalArgumentException("outputDir == null!");
+		} else if (targetFormat == null) {
+			throw new IllegalArgumentException("targetFormat == null!");
+		}
+
+		this.inputDir = inputDir;
+		this.outputDir = outputDir;
+		this.targetFormat = targetFormat.toLowerCase(Locale.ROOT);
+
+		registerProviders();
+		if (!ImageIO.getImageWritersByFormatName(this.targetFormat).hasNext()) {
+			throw new IllegalArgumentException("No writer for format " + targetFormat);
+		}
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public void setThreads(int threads) {
+		if (threads < 1) {
+			throw new IllegalArgumentException("threads < 1!");
+		}
+
+		this.threads = threads;
+	}
+
+	public long getMemoryBudget() {
+		return memoryBudget;
+	}
+
+	/**
+	 * Sets the maximum number of bytes of decoded pixels in flight. Each file is counted at {@value #BYTES_PER_PIXEL}
+	 * bytes per pixel, twice when verifying.
+	 */
+	public void setMemoryBudget(long memoryBudget) {
+		if (memoryBudget < 1) {
+			throw new IllegalArgumentException("memoryBudget < 1!");
+		}
+
+		this.memoryBudget = memoryBudget;
+	}
+
+	public boolean isVerify() {
+		return verify;
+	}
+
+	/**
+	 * When set, every output is decoded again and compared to the source pixels before it's moved into place.
+	 */
+	public void setVerify(boolean verify) {
+		this.verify = verify;
+	}
+
+	public boolean isForce() {
+		return force;
+	}
+
+	/**
+	 * When set, outputs are rewritten even when they're newer than their input.
+	 */
+	public void setForce(boolean force) {
+		this.force = force;
+	}
+
+	/**
+	 * Converts all files, and prints a report.
+	 *
+	 * @return {@code true} if all files were converted or skipped, {@code false} if there were failures.
+	 */
+	public boolean run(PrintStream out) throws IOException, InterruptedException {
+		Set<String> inputSuffixes = getInputSuffixes();
+
+		MemoryBudget    budget   = new MemoryBudget(memoryBudget);
+		Semaphore       queued   = new Semaphore(threads * 4); // Don't list millions of files into the queue up front
+		// Threads waiting for the budget block, which a fork-join pool wouldn't compensate for
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+
+		// Output files claimed so far, to detect inputs that would overwrite each other's output
+		Map<Path, Path> outputs = new HashMap<>();
+
+		long startTime = System.nanoTime();
+
+		try (Stream<Path> files = Files.walk(inputDir)) {
+			Iterator<Path> iterator = files.iterator();
+			while (iterator.hasNext()) {
+				Path file = iterator.next();
+				if (!Files.isRegularFile(file) || !inputSuffixes.contains(getSuffix(file))) {
+					continue;
+				}
+
+				Path output      = getOutputFile(file);
+				Path otherSource = outputs.putIfAbsent(output, file);
+				if (otherSource != null) {
+					failures.add(file + ": same output file as " + otherSource);
+					System.err.println("Failed: " + file + ": same output file as " + otherSource);
+					continue;
+				}
+
+				queued.acquire();
+				executor.execute(() -> {
+					try {
+						transcodeFile(file, output, budget);
+					} finally {
+						queued.release();
+					}
+				});
+			}
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+		}
+
+		printReport(out, System.nanoTime() - startTime);
+
+		return failures.isEmpty();
+	}
+
+	private Set<String> getInputSuffixes() {
+		Set<String> suffixes = new HashSet<>();
+		if ("qoi".equals(targetFormat)) {
+			for (String suffix : ImageIO.getReaderFileSuffixes()) {
+				suffixes.add(suffix.toLowerCase(Locale.ROOT));
+			}
+
+			suffixes.remove("qoi");
+		} else {
+			suffixes.add("qoi");
+		}
+
+		return suffixes;
+	}
+
+	@SuppressWarnings("OverlyBroadCatchBlock")
+	private void transcodeFile(Path file, Path output, MemoryBudget budget) {
+		try {
+			if (!force && Files.exists(output) &&
+			    Files.getLastModifiedTime(output).compareTo(Files.getLastModifiedTime(file)) >= 0) {
+				skipped.increment();
+				return;
+			}
+
+			long numPixels = probeNumPixels(file);
+			long bytes     = Math.min(numPixels * BYTES_PER_PIXEL * (verify ? 2 : 1), memoryBudget);
+
+			budget.acquire(bytes);
+			try {
+				transcodeFile(file, output);
+			} finally {
+				budget.release(bytes);
+			}
+
+			converted.increment();
+			pixels.add(numPixels);
+		} catch (InterruptedException ignored) {
+			Thread.currentThread().interrupt();
+			failures.add(file + ": interrupted");
+		} catch (Throwable ex) {
+			String message = ex.getMessage() != null ? ex.getMessage() : ex.toString();
+			if (ex.getCause() != null) {
+				message += " (" + ex.getCause() + ')';
+			}
+
+			failures.add(file + ": " + message);
+			System.err.println("Failed: " + file + ": " + message);
+		}
+	}
+
+	private void transcodeFile(Path file, Path output) throws IOException {
+		BufferedImage image = ImageIO.read(file.toFile());
+		if (image == null) {
+			throw new IIOException("Unrecognized image format");
+		}
+
+		Files.createDirectories(output.getParent());
+		Path temp = Files.createTempFile(output.getParent(), output.getFileName() + ".", ".tmp");
+
+		try {
+			if (!ImageIO.write(image, targetFormat, temp.toFile())) {
+				// E.g. 16-bit samples, let Java2D convert them
+				image = convertToRGB(image);
+				if (!ImageIO.write(image, targetFormat, temp.toFile())) {
+					throw new IIOException("Image type not supported by the " + targetFormat + " writer");
+				}
+			}
+
+			if (verify) {
+				BufferedImage decoded = ImageIO.read(temp.toFile());
+				if (decoded == null) {
+					throw new IIOException("Verification failed: the output can't be read");
+				}
+
+				verifyPixels(image, decoded);
+			}
+
+			bytesIn.add(Files.size(file));
+			bytesOut.add(Files.size(temp));
+
+			Files.move(temp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static BufferedImage convertToRGB(BufferedImage image) {
+		int           imageType      = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB :
+		                               BufferedImage.TYPE_INT_RGB;
+		BufferedImage convertedImage = new BufferedImage(image.getWidth(), image.getHeight(), imageType);
+
+		Graphics2D g = convertedImage.createGraphics();
+		try {
+			g.drawImage(image, 0, 0, null);
+		} finally {
+			g.dispose();
+		}
+
+		return convertedImage;
+	}
+
+	private Path getOutputFile(Path file) {
+		Path   relative = inputDir.relativize(file);
+		String filename = relative.getFileName().toString();
+		int    dot      = filename.lastIndexOf('.');
+		String basename = dot < 0 ? filename : filename.substring(0, dot);
+
+		return outputDir.resolve(relative).resolveSibling(basename + '.' + targetFormat);
+	}
+
+	private static String getSuffix(Path file) {
+		String filename = file.getFileName().toString();
+		int    dot      = filename.lastIndexOf('.');
+		return dot < 0 ? "" : filename.substring(dot + 1).toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Reads only the image header, to determine how much memory decoding will take.
+	 */
+	private static long probeNumPixels(Path file) throws IOException {
+		try (ImageInputStream in = ImageIO.createImageInputStream(file.toFile())) {
+			Iterator<ImageReader> readers = in == null ? null : ImageIO.getImageReaders(in);
+			if (readers == null || !readers.hasNext()) {
+				throw new IIOException("Unrecognized image format");
+			}
+
+			ImageReader reader = readers.next();
+			try {
+				reader.setInput(in, true, true);
+				return (long)reader.getWidth(0) * reader.getHeight(0);
+			} finally {
+				reader.dispose();
+			}
+		}
+	}
+
+	private static void verifyPixels(BufferedImage expected, BufferedImage actual) throws IIOException {
+		int width  = expected.getWidth();
+		int height = expected.getHeight();
+		if (actual.getWidth() != width || actual.getHeight() != height) {
+			throw new IIOException("Verification failed: the output is " + actual.getWidth() + " by " +
+			                       actual.getHeight() + " instead of " + width + " by " + height);
+		}
+
+		int[] expectedRow = new int[width];
+		int[] actualRow   = new int[width];
+		for (int y = 0; y < height; y++) {
+			getComparableRow(expected, y, expectedRow);
+			getComparableRow(actual, y, actualRow);
+
+			if (!Arrays.equals(expectedRow, actualRow)) {
+				throw new IIOException("Verification failed: pixels differ in row " + y);
+			}
+		}
+	}
+
+	/**
+	 * Gets a row as ARGB, the way the QOI encoder sees it. This is {@link BufferedImage#getRGB} except for 8-bit gray
+	 * images, which are encoded from the raw samples instead of being gamma-converted from linear gray.
+	 */
+	private static void getComparableRow(BufferedImage image, int y, int[] row) {
+		Raster raster   = image.getRaster();
+		int    numBands = raster.getNumBands();
+
+		if (image.getColorModel() instanceof ComponentColorModel && numBands <= 2 &&
+		    raster.getSampleModel().getSampleSize(0) == 8) {
+			int width = image.getWidth();
+			for (int x = 0; x < width; x++) {
+				int gray  = raster.getSample(x, y, 0);
+				int alpha = numBands == 2 ? raster.getSample(x, y, 1) : 255;
+				row[x] = ((alpha << 8 | gray) << 8 | gray) << 8 | gray;
+			}
+		} else {
+			image.getRGB(0, y, image.getWidth(), 1, row, 0, image.getWidth());
+		}
+	}
+
+	private void printReport(PrintStream out, long elapsedNanos) {
+		double seconds = Math.max(elapsedNanos / 1.0e9, 1.0e-9);
+		double mbIn    = bytesIn.sum() / 1.0e6;
+		double mbOut   = bytesOut.sum() / 1.0e6;
+		double mpixels = pixels.sum() / 1.0e6;
+
+		out.printf(Locale.ROOT, "Converted %d files, skipped %d up to date, %d failed, in %.1f s%n",
+		           converted.sum(), skipped.sum(), failures.size(), seconds);
+		out.printf(Locale.ROOT, "Read %.1f MB, wrote %.1f MB, %.1f megapixels%n", mbIn, mbOut, mpixels);
+		out.printf(Locale.ROOT, "Throughput: %.1f files/s, %.1f MB/s read, %.1f MB/s written, %.1f megapixels/s%n",
+		           converted.sum() / seconds, mbIn / seconds, mbOut / seconds, mpixels / seconds);
+
+		if (!failures.isEmpty()) {
+			out.println("Failures:");
+			failures.stream().sorted().forEach(failure -> out.println("  " + failure));
+		}
+	}
+
+	private static void registerProviders() {
+		IIORegistry registry = IIORegistry.getDefaultInstance();
+		if (registry.getServiceProviderByClass(QOIImageReaderSpi.class) == null) {
+			registry.registerServiceProvider(new QOIImageReaderSpi());
+		}
+		if (registry.getServiceProviderByClass(QOIImageWriterSpi.class) == null) {
+			registry.registerServiceProvider(new QOIImageWriterSpi());
+		}
+	}
+
+	/**
+	 * Options:
+	 * <pre>
+	 * --to &lt;format&gt;    target format, default qoi. Other formats convert .qoi files back.
+	 * --threads &lt;n&gt;    number of worker threads, default the number of processors
+	 * --memory &lt;MiB&gt;   budget for decoded pixels in flight, default half the maximum heap
+	 * --verify          decode every output and compare it to the source
+	 * --force           also convert files whose output is up to date
+	 * </pre>
+	 * Exits with status 1 when files failed, and 2 for usage errors.
+	 */
+	public static void main(String... args) throws IOException, InterruptedException {
+		String  format       = "qoi";
+		int     threads      = Runtime.getRuntime().availableProcessors();
+		long    memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+		boolean verify       = false;
+		boolean force        = false;
+		Path    inputDir     = null;
+		Path    outputDir    = null;
+
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+					case "--to":
+						format = args[++i];
+						break;
+					case "--threads":
+						threads = Integer.parseInt(args[++i]);
+						break;
+					case "--memory":
+						memoryBudget = Long.parseLong(args[++i]) << 20;
+						break;
+					case "--verify":
+						verify = true;
+						break;
+					case "--force":
+						force = true;
+						break;
+					default:
+						if (args[i].startsWith("--")) {
+							throw new IllegalArgumentException("Unknown option " + args[i]);
+						} else if (inputDir == null) {
+							inputDir = Paths.get(args[i]);
+						} else if (outputDir == null) {
+							outputDir = Paths.get(args[i]);
+						} else {
+							throw new IllegalArgumentException("Too many arguments");
+						}
+				}
+			}
+
+			if (outputDir == null) {
+				throw new IllegalArgumentException("Input and output directories are required");
+			}
+
+			QOITranscoder transcoder = new QOITranscoder(inputDir, outputDir, format);
+			transcoder.setThreads(threads);
+			transcoder.setMemoryBudget(memoryBudget);
+			transcoder.setVerify(verify);
+			transcoder.setForce(force);
+
+			if (!transcoder.run(System.out)) {
+				System.exit(1);
+			}
+		} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException ex) {
+			System.err.println(ex instanceof ArrayIndexOutOfBoundsException ? "Missing option value" : ex.getMessage());
+			System.err.println("Usage: QOITranscoder [--to <format>] [--threads <n>] [--memory <MiB>] [--verify] " +
+			                   "[--force] <input dir> <output dir>");
+			System.exit(2);
+		}
+	}
+
+	/**
+	 * Counts bytes of decoded pixels in flight, blocking when the budget is exhausted. A request larger than the whole
+	 * budget is granted when nothing else is in flight.
+	 */
+	private static final class MemoryBudget {
+		private final long limit;
+		private       long used = 0;
+
+		MemoryBudget(long limit) {
+			this.limit = limit;
+		}
+
+		synchronized void acquire(long bytes) throws InterruptedException {
+			while (used > 0 && used + bytes > limit) {
+				wait();
+			}
+
+			used += bytes;
+		}
+
+		synchronized void release(long bytes) {
+			used -= bytes;
+			notifyAll();
+		}
+	}
+}
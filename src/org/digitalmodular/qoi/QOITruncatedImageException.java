@@ -0,0 +1,17 @@
+package org.digitalmodular.qoi;
+
+import javax.imageio.IIOException;
+
+/**
+ * Thrown by a {@link QOIImageReader#setStrict(boolean) strict} {@link QOIImageReader} when the input ends before all pixels are decoded.
+ *
+ * @author Mark Jeronimus
+ */
+// Created 2026-10-19
+public class QOITruncatedImageException extends IIOException {
+	private static final long serialVersionUID = 1L;
+
+	public QOITruncatedImageException(String message) {
+		super(message);
+	}
+}